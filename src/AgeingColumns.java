@@ -0,0 +1,124 @@
+/**
+ * The ages and food levels of one species' population, held as
+ * primitive columns next to its list of animals, so that ageing and
+ * hunger can be worked out for the whole population in one sweep at
+ * the start of its turn rather than by each animal as it acts.
+ *
+ * The species copies the state of its animals into the columns, in
+ * list order, and sweeps them: every age goes up by one, every food
+ * level down by one, and the result is a mask with a bit set for each
+ * animal that dies of either. The sweep has no branches, so the JIT
+ * can unroll it and, where the hardware has them, use vector
+ * instructions. The species then kills the animals in the mask as
+ * their turn comes, without letting them act, and gives the rest
+ * their new age and food level before they act, so a seeded run takes
+ * the same course as when each animal ages itself. The columns are
+ * reused from step to step, and only grow.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class AgeingColumns
+{
+    // The ages of the animals, in list order.
+    private int[] ages = new int[0];
+    // The food levels of the animals, in list order.
+    private int[] food = new int[0];
+    // One bit for each animal, set if it dies this step.
+    private long[] dead = new long[0];
+
+    /**
+     * Return the age column, large enough for a population.
+     * @param size The number of animals.
+     * @return The ages, to be filled in list order.
+     */
+    int[] ages(int size)
+    {
+        if(ages.length < size) {
+            ages = new int[size + size / 2];
+        }
+        return ages;
+    }
+
+    /**
+     * Return the food column, large enough for a population.
+     * @param size The number of animals.
+     * @return The food levels, to be filled in list order.
+     */
+    int[] food(int size)
+    {
+        if(food.length < size) {
+            food = new int[size + size / 2];
+        }
+        return food;
+    }
+
+    /**
+     * Age every animal of a species that does not go hungry.
+     * @param size The number of animals.
+     * @param maxAge The age to which the species can live.
+     * @return The death mask: bit i of word i / 64 is set if animal i dies.
+     */
+    long[] sweepAge(int size, int maxAge)
+    {
+        long[] mask = mask(size);
+        for(int w = 0; w < (size + 63) >>> 6; w++) {
+            int base = w << 6;
+            int end = Math.min(64, size - base);
+            long bits = 0;
+            for(int b = 0; b < end; b++) {
+                int age = ++ages[base + b];
+                // The sign bit is set once the age passes the maximum.
+                bits |= (long) ((maxAge - age) >>> 31) << b;
+            }
+            mask[w] = bits;
+        }
+        return mask;
+    }
+
+    /**
+     * Age every animal of a species, and make it hungrier.
+     * @param size The number of animals.
+     * @param maxAge The age to which the species can live.
+     * @return The death mask: bit i of word i / 64 is set if animal i dies.
+     */
+    long[] sweepAgeAndHunger(int size, int maxAge)
+    {
+        long[] mask = mask(size);
+        for(int w = 0; w < (size + 63) >>> 6; w++) {
+            int base = w << 6;
+            int end = Math.min(64, size - base);
+            long bits = 0;
+            for(int b = 0; b < end; b++) {
+                int age = ++ages[base + b];
+                int level = --food[base + b];
+                // The sign bit is set once the age passes the maximum or the food runs out.
+                bits |= (long) (((maxAge - age) | (level - 1)) >>> 31) << b;
+            }
+            mask[w] = bits;
+        }
+        return mask;
+    }
+
+    /**
+     * @param mask A death mask.
+     * @param i The position of an animal in its list.
+     * @return true if the animal dies this step.
+     */
+    static boolean dies(long[] mask, int i)
+    {
+        return (mask[i >>> 6] >>> i & 1) != 0;
+    }
+
+    /**
+     * Return the mask, large enough for a population.
+     */
+    private long[] mask(int size)
+    {
+        int words = (size + 63) >>> 6;
+        if(dead.length < words) {
+            dead = new long[words + words / 2];
+        }
+        return dead;
+    }
+}
@@ -1,4 +1,5 @@
 import java.util.List;
+import java.util.SplittableRandom;
 
 /**
  * A class representing shared characteristics of animals.
@@ -8,6 +9,8 @@ import java.util.List;
  */
 public abstract class Animal
 {
+    // The code of the animal's species.
+    private final int species;
     // Whether the animal is alive or not.
     private boolean alive;
     // The animal's field.
@@ -18,11 +21,13 @@ public abstract class Animal
     /**
      * Create a new animal at location in field.
      * 
+     * @param species The code of the animal's species.
      * @param field The field currently occupied.
      * @param location The location within the field.
      */
-    public Animal(Field field, Location location)
+    public Animal(int species, Field field, Location location)
     {
+        this.species = species;
         alive = true;
         this.field = field;
         setLocation(location);
@@ -35,6 +40,119 @@ public abstract class Animal
      */
     abstract public void act(List<Animal> newAnimals);
 
+    /**
+     * Return the code of this animal's species.
+     * @return The species code, e.g. Rabbit.SPECIES.
+     */
+    public final int getSpecies()
+    {
+        return species;
+    }
+
+    /**
+     * @return The animal's age in steps.
+     */
+    abstract public int getAge();
+
+    /**
+     * @return The animal's food level, or zero if it does not eat.
+     */
+    abstract public int getFoodLevel();
+
+    /**
+     * @return The animal's gender, 0 for female and 1 for male.
+     */
+    abstract public int getGender();
+
+    /**
+     * Recreate an animal from recorded state. No random numbers are
+     * drawn and the shared breeding parameters are left untouched.
+     * @param species The species code of the animal.
+     * @param field The field to place the animal in.
+     * @param location The location within the field.
+     * @param age The animal's age.
+     * @param foodLevel The animal's food level.
+     * @param gender The animal's gender.
+     * @return The restored animal.
+     */
+    public static Animal restore(int species, Field field, Location location, int age, int foodLevel, int gender)
+    {
+        switch(species) {
+            case Rabbit.SPECIES:
+                return new Rabbit(field, location, age, gender);
+            case Fox.SPECIES:
+                return new Fox(field, location, age, foodLevel, gender);
+            case Lion.SPECIES:
+                return new Lion(field, location, age, foodLevel, gender);
+            default:
+                checkSpecies(species);
+                return new Creature(species, field, location, age, foodLevel, gender);
+        }
+    }
+
+    /**
+     * Create an animal with a random age and food level, drawing from
+     * the given generator rather than the shared one.
+     * @param species The species code of the animal.
+     * @param field The field to place the animal in.
+     * @param location The location within the field.
+     * @param rng The generator to draw from.
+     * @return The new animal.
+     */
+    static Animal createRandom(int species, Field field, Location location, SplittableRandom rng)
+    {
+        switch(species) {
+            case Rabbit.SPECIES:
+                return Rabbit.createRandom(field, location, rng);
+            case Fox.SPECIES:
+                return Fox.createRandom(field, location, rng);
+            case Lion.SPECIES:
+                return Lion.createRandom(field, location, rng);
+            default:
+                checkSpecies(species);
+                return Creature.createRandom(species, field, location, rng);
+        }
+    }
+
+    /**
+     * Fail if a species code has not been registered.
+     */
+    private static void checkSpecies(int species)
+    {
+        if(species < 0 || species >= SpeciesRegistry.count()) {
+            throw new IllegalArgumentException("Unknown species: " + species);
+        }
+    }
+
+    /**
+     * Tell the recorder and tally of its field, if there are any, that
+     * an animal was born.
+     * @param young The newly born animal.
+     */
+    protected static void recordBirth(Animal young)
+    {
+        EventRecorder recorder = young.field.getRecorder();
+        StepTally tally = young.field.getTally();
+        if(recorder != null) {
+            recorder.born(young);
+        }
+        if(tally != null) {
+            tally.born(young.getSpecies());
+        }
+    }
+
+    /**
+     * Tell the recorder of its field, if there is one, that the animal
+     * has eaten. Call once its food level has been raised.
+     */
+    protected void recordMeal()
+    {
+        EventRecorder recorder = field.getRecorder();
+        if(recorder != null) {
+            recorder.ate(this);
+        }
+    }
+
     /**
      * Check whether the animal is alive or not.
      * @return true if the animal is still alive.
@@ -52,12 +170,65 @@ public abstract class Animal
     {
         alive = false;
         if(location != null) {
+            EventRecorder recorder = field.getRecorder();
+            StepTally tally = field.getTally();
+            if(recorder != null) {
+                recorder.died(location);
+            }
+            if(tally != null) {
+                tally.died(getSpecies());
+            }
+            field.clear(location);
+            location = null;
+            field = null;
+        }
+    }
+
+    /**
+     * Take the animal out of the field without counting it as a death,
+     * e.g. when it becomes part of a density. A recording sees it leave.
+     */
+    void withdraw()
+    {
+        alive = false;
+        if(location != null) {
+            EventRecorder recorder = field.getRecorder();
+            if(recorder != null) {
+                recorder.left(location);
+            }
             field.clear(location);
             location = null;
             field = null;
         }
     }
 
+    /**
+     * Tell the recorder of its field, if there is one, that an animal
+     * has been put in the field from outside it, e.g. from a density.
+     * It is recorded with its age and food level, and not counted as a
+     * birth.
+     * @param animal The animal put in the field.
+     */
+    static void recordArrival(Animal animal)
+    {
+        EventRecorder recorder = animal.field.getRecorder();
+        if(recorder != null) {
+            recorder.arrived(animal);
+        }
+    }
+
+    /**
+     * Indicate that the animal has been eaten by a predator.
+     * It is removed from the field.
+     */
+    protected void setEaten()
+    {
+        if(location != null && field.getTally() != null) {
+            field.getTally().eaten(getSpecies());
+        }
+        setDead();
+    }
+
     /**
      * Return the animal's location.
      * @return The animal's location.
@@ -74,12 +245,42 @@ public abstract class Animal
     protected void setLocation(Location newLocation)
     {
         if(location != null) {
+            EventRecorder recorder = field.getRecorder();
+            if(recorder != null) {
+                recorder.moved(location, newLocation);
+            }
             field.clear(location);
         }
         location = newLocation;
         field.place(this, newLocation);
     }
     
+    /**
+     * Find a step towards prey sensed beyond the neighbouring cells.
+     * The field's species index is searched, so sensing costs little
+     * more for a large radius than for a small one.
+     * @param preyMask The species hunted, one bit per species code.
+     * @param radius How far away prey can be sensed, in cells.
+     * @return A free neighbouring location towards the prey, or null if
+     *         none was sensed or the way there is blocked.
+     */
+    protected Location approach(int preyMask, int radius)
+    {
+        SpeciesIndex index = field.getSpeciesIndex();
+        if(radius <= 1 || index == null) {
+            return null;
+        }
+        int row = location.getRow();
+        int col = location.getCol();
+        Location prey = index.findNear(preyMask, row, col, radius);
+        if(prey == null) {
+            return null;
+        }
+        Location next = new Location(row + Integer.signum(prey.getRow() - row),
+                                     col + Integer.signum(prey.getCol() - col));
+        return field.getObjectAt(next) == null ? next : null;
+    }
+
     /**
      * Return the animal's field.
      * @return The animal's field.
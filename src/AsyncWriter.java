@@ -0,0 +1,150 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Write chunks of bytes to a stream on a background thread, so
+ * that the simulation does not wait for the disk. Chunks are held
+ * in a bounded queue; callers can either wait for room (write) or
+ * give up straight away when the queue is full (offer).
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class AsyncWriter implements Closeable
+{
+    // Marks the end of the queue for the background thread.
+    private static final byte[] END = new byte[0];
+
+    // Chunks waiting to be written.
+    private final BlockingQueue<byte[]> queue;
+    // The stream the chunks end up in.
+    private final OutputStream out;
+    // The thread doing the writing.
+    private final Thread thread;
+    // The first error met by the background thread, if any.
+    private volatile IOException failure;
+    // Whether close has been called.
+    private boolean closed;
+
+    /**
+     * Start a writer for the given stream.
+     * @param out The stream to write to. It is closed with the writer.
+     * @param capacity The number of chunks that may wait in the queue.
+     * @param name A name for the background thread.
+     */
+    public AsyncWriter(OutputStream out, int capacity, String name)
+    {
+        this.out = new BufferedOutputStream(out, 1 << 16);
+        queue = new ArrayBlockingQueue<>(capacity);
+        thread = new Thread(this::drain, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queue a chunk, waiting for room if the queue is full.
+     * @param chunk The bytes to write. Must not be changed afterwards.
+     * @throws IOException If an earlier write failed.
+     */
+    public void write(byte[] chunk) throws IOException
+    {
+        checkFailure();
+        if(chunk.length == 0) {
+            return;
+        }
+        try {
+            queue.put(chunk);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while queueing a write", e);
+        }
+    }
+
+    /**
+     * Queue a chunk if there is room for it.
+     * @param chunk The bytes to write. Must not be changed afterwards.
+     * @return false if the queue is full and the chunk was not taken.
+     * @throws IOException If an earlier write failed.
+     */
+    public boolean offer(byte[] chunk) throws IOException
+    {
+        checkFailure();
+        return chunk.length == 0 || queue.offer(chunk);
+    }
+
+    /**
+     * Write out everything still queued and close the stream.
+     * @throws IOException If any write failed.
+     */
+    public void close() throws IOException
+    {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(END);
+            thread.join();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing", e);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Rethrow the error met by the background thread, if any.
+     */
+    private void checkFailure() throws IOException
+    {
+        if(failure != null) {
+            throw new IOException("Background write failed", failure);
+        }
+    }
+
+    /**
+     * Body of the background thread: write chunks until told to stop.
+     */
+    private void drain()
+    {
+        try {
+            while(true) {
+                byte[] chunk = queue.take();
+                if(chunk == END) {
+                    break;
+                }
+                out.write(chunk);
+            }
+            out.close();
+        }
+        catch(IOException e) {
+            failure = e;
+            // Keep taking chunks so that writers are never stuck.
+            drainAfterFailure();
+        }
+        catch(InterruptedException e) {
+            failure = new IOException("Writer thread interrupted", e);
+        }
+    }
+
+    /**
+     * Discard queued chunks after a failure until the end marker.
+     */
+    private void drainAfterFailure()
+    {
+        try {
+            while(queue.take() != END) {
+                // Discard.
+            }
+            out.close();
+        }
+        catch(InterruptedException | IOException ignored) {
+        }
+    }
+}
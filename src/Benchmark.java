@@ -0,0 +1,345 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Simple timing runs of the simulation without a view, for comparing
+ * engine options on large fields. Each benchmark warms up first and
+ * reports animal updates per second as well as steps per second, since
+ * runs with different options soon diverge in population size.
+ *
+ * Usage: java Benchmark order|layout|kernels|ageing|automaton|hybrid|bulk|snapshots [size] [steps]
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class Benchmark
+{
+    // The default side of the square field, in cells.
+    private static final int DEFAULT_SIZE = 1000;
+    // The default number of timed steps.
+    private static final int DEFAULT_STEPS = 30;
+    // The number of untimed steps run first.
+    private static final int WARM_UP_STEPS = 20;
+
+    /**
+     * Run the benchmark named by the first argument.
+     * @param args The benchmark name, then its options.
+     */
+    public static void main(String[] args)
+    {
+        String name = args.length > 0 ? args[0] : "order";
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SIZE;
+        int steps = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_STEPS;
+        switch(name) {
+            case "order":
+                order(size, steps);
+                break;
+            case "layout":
+                layout(size, steps);
+                break;
+            case "kernels":
+                kernels(size, steps);
+                break;
+            case "ageing":
+                ageing(size, steps);
+                break;
+            case "automaton":
+                automaton(size, steps);
+                break;
+            case "hybrid":
+                hybrid(size, steps);
+                break;
+            case "bulk":
+                bulk(size, steps);
+                break;
+            case "snapshots":
+                snapshots(size, steps);
+                break;
+            default:
+                System.out.println("Usage: java Benchmark order|layout|kernels|ageing|automaton|hybrid|bulk|snapshots"
+                                   + " [size] [steps]");
+        }
+    }
+
+    /**
+     * Compare acting in list order with acting in space-filling curve
+     * order, on a field too big for the caches.
+     */
+    private static void order(int size, int steps)
+    {
+        System.out.println("Field " + size + " x " + size + ", " + steps + " steps");
+        for(int interval : new int[] { 0, 10, 1 }) {
+            Simulator sim = headless(size);
+            sim.setReorderInterval(interval);
+            report(interval == 0 ? "list order" : "Z-order every " + interval, sim, steps);
+        }
+    }
+
+    /**
+     * Compare the row array layout with the tiled, sparse and off-heap layouts,
+     * with the populations kept in Z-order so all get tile-local work.
+     */
+    private static void layout(int size, int steps)
+    {
+        System.out.println("Field " + size + " x " + size + ", " + steps + " steps");
+        Simulator rows = headless(new Field(size, size));
+        rows.setReorderInterval(10);
+        report("row arrays", rows, steps);
+        Simulator tiles = headless(new TiledField(size, size));
+        tiles.setReorderInterval(10);
+        report("16x16 tiles", tiles, steps);
+        Simulator sparse = headless(new SparseField(size, size));
+        sparse.setReorderInterval(10);
+        report("sparse chunks", sparse, steps);
+        OffHeapField offHeap = new OffHeapField(size, size);
+        Simulator direct = headless(offHeap);
+        direct.setReorderInterval(10);
+        report("off-heap", direct, steps);
+        try {
+            offHeap.close();
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Compare breeding kernels that read their parameters on every call
+     * with kernels specialised to them. Both runs follow the same course,
+     * so the rates are directly comparable. Each is run twice, as the
+     * first run of a path also pays for compiling it.
+     */
+    private static void kernels(int size, int steps)
+    {
+        System.out.println("Field " + size + " x " + size + ", " + steps + " steps");
+        for(int run = 0; run < 2; run++) {
+            for(boolean specialised : new boolean[] { false, true }) {
+                Simulator sim = headless(size);
+                sim.setSpecialisedKernels(specialised);
+                report(specialised ? "specialised" : "generic", sim, steps);
+            }
+        }
+    }
+
+    /**
+     * Compare each animal ageing and going hungry as it acts with the
+     * whole of each species doing so in one sweep over primitive
+     * columns at the start of its turn (see AgeingColumns). Both runs
+     * follow the same course, so the rates are directly comparable,
+     * and end with the same populations, which are printed. Each is
+     * run twice, as in the kernels benchmark.
+     */
+    private static void ageing(int size, int steps)
+    {
+        System.out.println("Field " + size + " x " + size + ", " + steps + " steps");
+        for(int run = 0; run < 2; run++) {
+            for(boolean sweep : new boolean[] { false, true }) {
+                Simulator sim = headless(size);
+                sim.setSweepAgeing(sweep);
+                report(sweep ? "swept ageing" : "per animal", sim, steps);
+                System.out.println("    " + Arrays.toString(sim.getCounts()));
+            }
+        }
+    }
+
+    /**
+     * Compare the agent engine with the packed cell automaton, printing
+     * the populations of both every ten steps to show how closely they
+     * agree, then the rates. The automaton's rate is in cells, as it
+     * visits every cell whether it is occupied or not.
+     */
+    private static void automaton(int size, int steps)
+    {
+        System.out.println("Field " + size + " x " + size + ", " + steps + " steps");
+        Simulator sim = headless(size);
+        CellularEngine engine = new CellularEngine(size, size, new ParameterSet(), 42);
+        engine.populate();
+        long updates = 0;
+        long agentNanos = 0;
+        long cellNanos = 0;
+        for(int s = 0; s <= steps; s++) {
+            if(s % 10 == 0) {
+                System.out.println("step " + s + "  agents " + Arrays.toString(sim.getCounts())
+                                   + "  cells " + Arrays.toString(engine.getCounts()));
+            }
+            if(s == steps) {
+                break;
+            }
+            updates += sim.getAnimals().size();
+            long start = System.nanoTime();
+            sim.simulateOneStep();
+            long middle = System.nanoTime();
+            engine.step();
+            cellNanos += System.nanoTime() - middle;
+            agentNanos += middle - start;
+        }
+        System.out.printf("%-20s %12.0f animal updates/s%n", "agents", updates / (agentNanos / 1e9));
+        System.out.printf("%-20s %12.0f cell updates/s%n", "automaton",
+                          (double) size * size * steps / (cellNanos / 1e9));
+    }
+
+    /**
+     * Compare breeding each animal exactly as it acts with breeding in
+     * bulk tile by tile. Each is run twice, as in the kernels benchmark.
+     */
+    private static void bulk(int size, int steps)
+    {
+        System.out.println("Field " + size + " x " + size + ", " + steps + " steps");
+        for(int run = 0; run < 2; run++) {
+            for(boolean inBulk : new boolean[] { false, true }) {
+                Simulator sim = headless(size);
+                sim.setBulkBreeding(inBulk);
+                report(inBulk ? "bulk" : "exact", sim, steps);
+            }
+        }
+    }
+
+    /**
+     * Compare simulating every rabbit with running crowded tiles as
+     * densities. The runs soon differ, so the populations at the end
+     * are printed with the rates.
+     */
+    private static void hybrid(int size, int steps)
+    {
+        System.out.println("Field " + size + " x " + size + ", " + steps + " steps");
+        for(boolean dense : new boolean[] { false, true }) {
+            Simulator sim = headless(size);
+            if(dense) {
+                sim.setMeanField(new MeanFieldTiles(size, size));
+            }
+            long start = System.nanoTime();
+            for(int s = 0; s < WARM_UP_STEPS + steps; s++) {
+                sim.simulateOneStep();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            String tiles = dense ? sim.getMeanField().getContinuumTiles() + " continuum tiles" : "";
+            System.out.printf("%-20s %8.2f steps/s  %s %s%n", dense ? "hybrid" : "agents",
+                              (WARM_UP_STEPS + steps) / seconds, Arrays.toString(sim.getCounts()), tiles);
+        }
+    }
+
+    /**
+     * Check that a snapshot stays as it was published while the next
+     * step writes the field, that the next snapshot matches the field,
+     * and that each step copies just the tiles written during it; then
+     * compare the rate of a simulation keeping snapshots with one that
+     * keeps none. The tiles written are counted by the field itself.
+     */
+    private static void snapshots(int size, int steps)
+    {
+        System.out.println("Field " + size + " x " + size + ", " + steps + " steps");
+        int tileSize = SpatialOrder.TILE_SIZE;
+        int tileCols = (size + tileSize - 1) / tileSize;
+        boolean[] written = new boolean[tileCols * tileCols];
+        Field field = new Field(size, size) {
+            public void place(Object animal, Location location)
+            {
+                written[location.getRow() / tileSize * tileCols + location.getCol() / tileSize] = true;
+                super.place(animal, location);
+            }
+        };
+        Simulator sim = headless(field);
+        sim.setSnapshots(true);
+        TileSnapshots snapshots = field.getSnapshots();
+        long tilesWritten = 0;
+        long tilesCopied = 0;
+        int changed = 0;
+        int stale = 0;
+        int miscounted = 0;
+        for(int s = 0; s < steps; s++) {
+            TileSnapshots.Snapshot before = snapshots.getLatest();
+            Object[] published = contents(before::getObjectAt, size);
+            Arrays.fill(written, false);
+            long copies = snapshots.getCopies();
+            sim.simulateOneStep();
+            int touched = 0;
+            for(boolean tile : written) {
+                touched += tile ? 1 : 0;
+            }
+            long copied = snapshots.getCopies() - copies;
+            tilesWritten += touched;
+            tilesCopied += copied;
+            if(copied != touched) {
+                miscounted++;
+            }
+            if(before.getStep() != sim.getStep() - 1 || !Arrays.equals(published, contents(before::getObjectAt, size))) {
+                changed++;
+            }
+            if(!Arrays.equals(contents(snapshots.getLatest()::getObjectAt, size), contents(field::getObjectAt, size))) {
+                stale++;
+            }
+        }
+        System.out.printf("snapshots changed by the next step: %d of %d%n", changed, steps);
+        System.out.printf("snapshots differing from the field: %d of %d%n", stale, steps);
+        System.out.printf("tiles copied %d, written %d, in the field %d a step; steps where they differ: %d%n",
+                          tilesCopied, tilesWritten, written.length, miscounted);
+
+        report("no snapshots", headless(size), steps);
+        Simulator kept = headless(size);
+        kept.setSnapshots(true);
+        report("snapshots", kept, steps);
+    }
+
+    /**
+     * Something a square grid of cells can be read from.
+     */
+    private interface Cells
+    {
+        Object getObjectAt(int row, int col);
+    }
+
+    /**
+     * Copy the contents of a square grid of cells, row by row.
+     */
+    private static Object[] contents(Cells cells, int size)
+    {
+        Object[] copy = new Object[size * size];
+        for(int row = 0; row < size; row++) {
+            for(int col = 0; col < size; col++) {
+                copy[row * size + col] = cells.getObjectAt(row, col);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Create a simulator with no view, populated with the default parameters.
+     */
+    private static Simulator headless(int size)
+    {
+        return headless(new Field(size, size));
+    }
+
+    /**
+     * Create a simulator with no view on the given field, populated
+     * with the default parameters.
+     */
+    private static Simulator headless(Field field)
+    {
+        Randomizer.reset();
+        Simulator sim = new Simulator(field);
+        sim.setFastPopulate(true);
+        sim.reset();
+        return sim;
+    }
+
+    /**
+     * Warm up, time the given number of steps and print the rates.
+     */
+    private static void report(String label, Simulator sim, int steps)
+    {
+        for(int s = 0; s < WARM_UP_STEPS; s++) {
+            sim.simulateOneStep();
+        }
+        long updates = 0;
+        long start = System.nanoTime();
+        for(int s = 0; s < steps; s++) {
+            updates += sim.getAnimals().size();
+            sim.simulateOneStep();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-20s %8.2f steps/s %12.0f animal updates/s%n",
+                          label, steps / seconds, updates / seconds);
+    }
+}
@@ -0,0 +1,195 @@
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.BiFunction;
+
+/**
+ * An approximate fidelity level for breeding, for large sweeps where
+ * throughput matters more than an exact course. Rather than each
+ * female drawing whether she breeds as she acts, the females of
+ * breeding age are grouped by tile once the species has acted, the
+ * number of litters in each tile is drawn from a single binomial
+ * distribution, and the litters are shared out among the tile's
+ * breeders and placed in one pass. A rabbit counts once for each mate
+ * next to it, as it gets a chance to breed for each.
+ *
+ * The numbers born follow the same distribution as at the exact
+ * level, but the young are placed around their parents after the
+ * parents have moved rather than before, and a breeder may get more
+ * than one litter in a step. A seeded run takes a different course
+ * from the exact one. The level applies to the built in species, and
+ * is chosen for each simulation with Simulator.setBulkBreeding.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class BulkBreeding
+{
+    // Above this mean number of litters, binomials are drawn from the normal approximation.
+    private static final double NORMAL_THRESHOLD = 30;
+    /**
+     * Breed a species' population in bulk, tile by tile.
+     * @param population The animals of the species, after acting.
+     * @param field The field they are in.
+     * @param ba The breeding age.
+     * @param bp The breeding probability.
+     * @param mls The maximum litter size.
+     * @param needsMate true if a female breeds once for each neighbouring
+     *                  animal of its species of the other gender, false
+     *                  if she breeds once on her own.
+     * @param newborn Creates a young animal of the species on a free cell.
+     * @param newAnimals A list to receive the young.
+     * @param rng The generator to draw from.
+     */
+    static void breed(List<Animal> population, Field field, int ba, double bp, int mls, boolean needsMate,
+                      BiFunction<Field, Location, Animal> newborn, List<Animal> newAnimals, SplittableRandom rng)
+    {
+        int size = population.size();
+        if(size == 0 || bp <= 0 || mls <= 0) {
+            return;
+        }
+        int tileSize = SpatialOrder.TILE_SIZE;
+        int tileCols = (field.getWidth() + tileSize - 1) / tileSize;
+        int tiles = (field.getDepth() + tileSize - 1) / tileSize * tileCols;
+
+        // Find the breeders, their chances and their tiles.
+        int[] breeders = new int[size];
+        int[] chances = new int[size];
+        int[] tileOf = new int[size];
+        int[] starts = new int[tiles + 1];
+        int count = 0;
+        for(int i = 0; i < size; i++) {
+            Animal animal = population.get(i);
+            Location location = animal.getLocation();
+            if(!animal.isAlive() || location == null || animal.getGender() != 0 || animal.getAge() < ba) {
+                continue;
+            }
+            int chance = needsMate ? mates(animal, field, location) : 1;
+            if(chance > 0) {
+                breeders[count] = i;
+                chances[count] = chance;
+                tileOf[count] = location.getRow() / tileSize * tileCols + location.getCol() / tileSize;
+                starts[tileOf[count] + 1]++;
+                count++;
+            }
+        }
+        if(count == 0) {
+            return;
+        }
+
+        // Group them by tile with a counting sort, keeping running totals
+        // of their chances for sharing the litters out.
+        for(int t = 0; t < tiles; t++) {
+            starts[t + 1] += starts[t];
+        }
+        int[] next = new int[tiles];
+        System.arraycopy(starts, 0, next, 0, tiles);
+        int[] sorted = new int[count];
+        long[] cumulative = new long[count];
+        for(int b = 0; b < count; b++) {
+            sorted[next[tileOf[b]]++] = b;
+        }
+        for(int t = 0; t < tiles; t++) {
+            long total = 0;
+            for(int k = starts[t]; k < starts[t + 1]; k++) {
+                total += chances[sorted[k]];
+                cumulative[k] = total;
+            }
+        }
+
+        // Draw the litters of each tile and place them.
+        for(int t = 0; t < tiles; t++) {
+            int first = starts[t];
+            int end = starts[t + 1];
+            if(first == end) {
+                continue;
+            }
+            long trials = cumulative[end - 1];
+            long litters = binomial(rng, trials, bp);
+            for(long l = 0; l < litters; l++) {
+                int k = pick(cumulative, first, end, rng.nextLong(trials));
+                Animal parent = population.get(breeders[sorted[k]]);
+                List<Location> free = field.getFreeAdjacentLocations(parent.getLocation());
+                int births = rng.nextInt(mls) + 1;
+                for(int b = 0; b < births && b < free.size(); b++) {
+                    Animal young = newborn.apply(field, free.get(b));
+                    newAnimals.add(young);
+                    Animal.recordBirth(young);
+                }
+            }
+        }
+    }
+
+    /**
+     * Count the living neighbours of an animal of its species and the other gender.
+     */
+    private static int mates(Animal animal, Field field, Location location)
+    {
+        int mates = 0;
+        for(Location where : field.adjacentLocations(location)) {
+            Object other = field.getObjectAt(where);
+            if(other instanceof Animal) {
+                Animal mate = (Animal) other;
+                if(mate.getSpecies() == animal.getSpecies() && mate.isAlive()
+                   && mate.getGender() != animal.getGender()) {
+                    mates++;
+                }
+            }
+        }
+        return mates;
+    }
+
+    /**
+     * Find the breeder whose share of the running total holds a draw.
+     * @return The position in [first, end) of the breeder.
+     */
+    private static int pick(long[] cumulative, int first, int end, long draw)
+    {
+        int low = first;
+        int high = end - 1;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(cumulative[middle] > draw) {
+                high = middle;
+            }
+            else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Draw the number of successes in a number of trials. Small means
+     * count the gaps between successes, which are geometric; large ones
+     * use the normal approximation.
+     * @param rng The generator to draw from.
+     * @param trials The number of trials.
+     * @param p The chance of success in each.
+     * @return The number of successes.
+     */
+    static long binomial(SplittableRandom rng, long trials, double p)
+    {
+        if(p <= 0 || trials == 0) {
+            return 0;
+        }
+        if(p >= 1) {
+            return trials;
+        }
+        double mean = trials * p;
+        if(mean < NORMAL_THRESHOLD) {
+            double logFail = Math.log(1 - p);
+            long successes = 0;
+            // 1 - nextDouble() lies in (0, 1], so the logarithm is finite.
+            double position = Math.floor(Math.log(1 - rng.nextDouble()) / logFail);
+            while(position < trials) {
+                successes++;
+                position += 1 + Math.floor(Math.log(1 - rng.nextDouble()) / logFail);
+            }
+            return successes;
+        }
+        // Box-Muller, as SplittableRandom has no Gaussian draw here.
+        double gaussian = Math.sqrt(-2 * Math.log(1 - rng.nextDouble())) * Math.cos(2 * Math.PI * rng.nextDouble());
+        long draw = Math.round(mean + gaussian * Math.sqrt(mean * (1 - p)));
+        return Math.max(0, Math.min(trials, draw));
+    }
+}
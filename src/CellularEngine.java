@@ -0,0 +1,793 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * An engine for very large studies that keeps no Animal objects at
+ * all. Each cell of the grid is a single long holding the species,
+ * gender, age and food level of its occupant, and a step is a pure
+ * function from the old grid to the new one, worked out cell by cell
+ * in parallel bands of rows. Random choices come from a hash of the
+ * seed, the step and the cell rather than a shared generator, so a
+ * run is the same whatever the number of threads.
+ *
+ * A step is a few passes over the grid: every animal ages, then
+ * chooses what to do, then each prey and each male lion works out who
+ * kills it, and last each animal settles where it ends up. Only
+ * occupied cells do any work in the last pass.
+ *
+ * The rules are those of Rabbit, Fox and Lion, with these differences:
+ * <ul>
+ * <li>All animals act at once on the state at the start of the step,
+ *     so only cells empty then (or emptied by ageing) can be moved or
+ *     born into, and an animal that loses a cell stays where it is.</li>
+ * <li>An animal that gives birth stays where it is if its young fill
+ *     every free cell, rather than dying of overcrowding.</li>
+ * <li>Of the young born during a step, only those of the first round of
+ *     births count as mates, and fights are not followed down chains of
+ *     more than two lions.</li>
+ * </ul>
+ * The population sizes agree with the agent engine's within GoldenTrace's
+ * default tolerance:
+ * <pre>
+ *   java GoldenTrace stats automaton 50 8
+ * </pre>
+ * Only the built in species are simulated.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class CellularEngine
+{
+    // The number of rows in each band worked on in parallel.
+    private static final int BAND_ROWS = 64;
+    // The number of species the engine knows.
+    private static final int SPECIES = 3;
+
+    // The layout of a cell: species + 1 (0 for empty), gender, age and food level.
+    private static final int SPECIES_BITS = 5;
+    private static final int GENDER_SHIFT = 5;
+    private static final int AGE_SHIFT = 8;
+    private static final int FOOD_SHIFT = 24;
+    private static final long FIELD_MASK = 0xFFFF;
+    private static final int SPECIES_MASK = (1 << SPECIES_BITS) - 1;
+    // The bits of a cell that make its code: species + 1 and gender.
+    private static final int CODE_MASK = (1 << GENDER_SHIFT + 1) - 1;
+
+    // The layout of an intent: a mask of cells to give birth into, the
+    // direction to move or eat in, plus one, whether it is to eat, and
+    // the direction of a rival to fight, plus one. A male lion moving
+    // into the cell of a rival it kills counts as eating.
+    private static final int MOVE_SHIFT = 8;
+    private static final int EAT = 1 << 12;
+    private static final int OVERCROWDED = 1 << 13;
+    private static final int FIGHT_SHIFT = 14;
+    // No predator has eaten the occupant of a cell.
+    private static final byte NOT_EATEN = -1;
+    // The code of the border round the grid: neither empty nor any species.
+    private static final byte BORDER = (byte) 0x80;
+
+    // The row and column offsets of each direction. Directions d and 7 - d are opposites.
+    private static final int[] ROW_OFFSET = { -1, -1, -1, 0, 0, 1, 1, 1 };
+    private static final int[] COL_OFFSET = { -1, 0, 1, -1, 1, -1, 0, 1 };
+    // The species in the order cells are offered to them, and in the order prey is resolved.
+    private static final int[] PLACEMENT = { Lion.SPECIES, Fox.SPECIES, Rabbit.SPECIES };
+    private static final int[] PREY_ORDER = { Fox.SPECIES, Rabbit.SPECIES };
+
+    // The size of the grid.
+    private final int depth, width;
+    // The grid now, and the grid being worked out.
+    private long[] cells, next;
+    // The width of the arrays below, which have a border one cell wide
+    // round the grid so that neighbours can be read without bounds checks.
+    private final int paddedWidth;
+    // The code of each cell after ageing: the low byte of the packed
+    // cell, or 0 if it is empty.
+    private final byte[] codes;
+    // What the animal in each cell intends to do this step.
+    private final int[] intents;
+    // The direction of the predator that ate each cell's occupant, or of
+    // the lion that killed it, or NOT_EATEN.
+    private final byte[] eaten;
+    // The cells each rabbit gives birth into for mates born this step.
+    private final byte[] young;
+    // The offsets of the neighbour in each direction, in the padded arrays and in the grid.
+    private final int[] neighbour = new int[8];
+    private final int[] cellNeighbour = new int[8];
+    // The seed all random choices are derived from.
+    private final long seed;
+    // The current step.
+    private int step;
+    // Whether to use more than one thread.
+    private boolean parallel = true;
+
+    // The rules, indexed by species code.
+    private final int[] maxAge = new int[SPECIES];
+    private final int[] breedingAge = new int[SPECIES];
+    private final double[] breedingProbability = new double[SPECIES];
+    private final int[] maxLitterSize = new int[SPECIES];
+    // The food value of each prey to each predator: foodValue[predator][prey].
+    private final int[][] foodValue = new int[SPECIES][SPECIES];
+    // The food level a predator's young start with, 0 for animals that do not go hungry.
+    private final int[] newbornFood = new int[SPECIES];
+    // The bound of the random food level a predator is created with.
+    private final int[] startFood = new int[SPECIES];
+    // The species each species eats, by gender, as bit masks: preyMask[species][gender].
+    private final int[][] preyMask = new int[SPECIES][2];
+
+    /**
+     * Create an empty grid with the rules of the given parameters.
+     * @param depth The depth of the grid.
+     * @param width The width of the grid.
+     * @param parameters The parameters of the animal classes.
+     * @param seed The seed for all random choices.
+     */
+    public CellularEngine(int depth, int width, Parameters parameters, long seed)
+    {
+        long size = (long) depth * width;
+        if(size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Grid too large: " + depth + " x " + width);
+        }
+        this.depth = depth;
+        this.width = width;
+        this.seed = seed;
+        cells = new long[(int) size];
+        next = new long[(int) size];
+        paddedWidth = width + 2;
+        int padded = (depth + 2) * paddedWidth;
+        codes = new byte[padded];
+        intents = new int[padded];
+        eaten = new byte[padded];
+        young = new byte[padded];
+        Arrays.fill(codes, BORDER);
+        Arrays.fill(eaten, NOT_EATEN);
+        for(int d = 0; d < 8; d++) {
+            neighbour[d] = ROW_OFFSET[d] * paddedWidth + COL_OFFSET[d];
+            cellNeighbour[d] = ROW_OFFSET[d] * width + COL_OFFSET[d];
+        }
+
+        maxAge[Rabbit.SPECIES] = Rabbit.MAX_AGE;
+        maxAge[Fox.SPECIES] = Fox.MAX_AGE;
+        maxAge[Lion.SPECIES] = Lion.MAX_AGE;
+        setBreeding(Rabbit.SPECIES, parameters.getRabbitBA(), parameters.getRabbitBP(), parameters.getRabbitMLS());
+        setBreeding(Fox.SPECIES, parameters.getFoxBA(), parameters.getFoxBP(), parameters.getFoxMLS());
+        setBreeding(Lion.SPECIES, parameters.getLionBA(), parameters.getLionBP(), parameters.getLionMLS());
+        foodValue[Fox.SPECIES][Rabbit.SPECIES] = parameters.getFoxFV();
+        foodValue[Lion.SPECIES][Rabbit.SPECIES] = parameters.getLionRFV();
+        foodValue[Lion.SPECIES][Fox.SPECIES] = parameters.getLionFFV();
+        // As in Fox and Lion: young start with a rabbit's food value, and
+        // animals created at random with less than a meal of their own kind.
+        newbornFood[Fox.SPECIES] = parameters.getFoxFV();
+        newbornFood[Lion.SPECIES] = parameters.getLionRFV();
+        startFood[Fox.SPECIES] = parameters.getFoxFV();
+        startFood[Lion.SPECIES] = parameters.getLionFFV();
+        // Foxes eat rabbits; female lions eat rabbits and male lions foxes.
+        preyMask[Fox.SPECIES][0] = preyMask[Fox.SPECIES][1] = 1 << Rabbit.SPECIES;
+        preyMask[Lion.SPECIES][0] = 1 << Rabbit.SPECIES;
+        preyMask[Lion.SPECIES][1] = 1 << Fox.SPECIES;
+    }
+
+    /**
+     * Fill the grid with animals of random age, with the creation
+     * probabilities of the species registry, and go back to step 0.
+     */
+    public void populate()
+    {
+        step = 0;
+        forEachBand((first, end) -> {
+            for(int c = first * width; c < end * width; c++) {
+                long h = hash(c, 0);
+                long cell = 0;
+                for(int i = 0; i < PLACEMENT.length && cell == 0; i++) {
+                    int species = PLACEMENT[i];
+                    if(unit(mix(h + i)) <= SpeciesRegistry.get(species).getCreationProbability()) {
+                        long r = mix(h ^ 0x5DEECE66DL);
+                        int food = startFood[species] > 0 ? below(r >>> 16, startFood[species]) : 0;
+                        cell = pack(species, (int) (r & 1), below(mix(r), maxAge[species]), food);
+                    }
+                }
+                cells[c] = cell;
+            }
+        });
+    }
+
+    /**
+     * Run a single step.
+     */
+    public void step()
+    {
+        step++;
+        forEachBand(this::age);
+        forEachBand(this::chooseIntents);
+        forEachBand(this::breedWithYoung);
+        forEachBand(this::resolveFights);
+        for(int prey : PREY_ORDER) {
+            forEachBand((first, end) -> resolvePrey(prey, first, end));
+        }
+        forEachBand(this::update);
+        long[] swap = cells;
+        cells = next;
+        next = swap;
+    }
+
+    /**
+     * Count the animals of each species.
+     * @return The counts, indexed by species code.
+     */
+    public int[] getCounts()
+    {
+        int[] counts = new int[SPECIES];
+        for(long cell : cells) {
+            if(cell != 0) {
+                counts[species(cell)]++;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Return the packed state of a cell.
+     * @param row The row.
+     * @param col The column.
+     * @return The cell, or 0 if it is empty.
+     */
+    public long getCell(int row, int col)
+    {
+        return cells[row * width + col];
+    }
+
+    /**
+     * Choose whether to spread the work over all processors.
+     * @param useThreads true to work on bands of rows in parallel.
+     */
+    public void setParallel(boolean useThreads)
+    {
+        parallel = useThreads;
+    }
+
+    // Following methods get the grid and its state.
+    public int getStep() { return step; }
+    public int getDepth() { return depth; }
+    public int getWidth() { return width; }
+
+    /**
+     * @param cell A packed cell.
+     * @return The species code of its occupant. The cell must not be empty.
+     */
+    public static int species(long cell)
+    {
+        return (int) (cell & SPECIES_MASK) - 1;
+    }
+
+    /**
+     * @param cell A packed cell.
+     * @return The gender of its occupant.
+     */
+    public static int gender(long cell)
+    {
+        return (int) (cell >>> GENDER_SHIFT) & 1;
+    }
+
+    /**
+     * @param cell A packed cell.
+     * @return The age of its occupant.
+     */
+    public static int age(long cell)
+    {
+        return (int) (cell >>> AGE_SHIFT & FIELD_MASK);
+    }
+
+    /**
+     * @param cell A packed cell.
+     * @return The food level of its occupant.
+     */
+    public static int food(long cell)
+    {
+        return (int) (cell >>> FOOD_SHIFT & FIELD_MASK);
+    }
+
+    /**
+     * Pack the state of an animal into a cell.
+     * @param species The species code.
+     * @param gender The gender.
+     * @param age The age, up to 65535.
+     * @param food The food level, up to 65535.
+     * @return The packed cell.
+     */
+    public static long pack(int species, int gender, int age, int food)
+    {
+        return (species + 1) | (long) gender << GENDER_SHIFT | (long) age << AGE_SHIFT | (long) food << FOOD_SHIFT;
+    }
+
+    /**
+     * First pass: age every animal in a band, empty the cells of those
+     * that die, and note the code of each cell for the later passes,
+     * which read a cell's neighbours from the codes, a byte each,
+     * rather than from the cells themselves. The next grid is cleared
+     * here, as the last pass only writes the cells that are filled.
+     */
+    private void age(int firstRow, int endRow)
+    {
+        for(int row = firstRow; row < endRow; row++) {
+            int c = row * width;
+            int p = padded(row, 0);
+            for(int col = 0; col < width; col++, c++, p++) {
+                long cell = aged(cells[c]);
+                cells[c] = cell;
+                codes[p] = (byte) (cell & CODE_MASK);
+                next[c] = 0;
+            }
+        }
+    }
+
+    /**
+     * Second pass: decide what each surviving animal wants to do.
+     */
+    private void chooseIntents(int firstRow, int endRow)
+    {
+        for(int row = firstRow; row < endRow; row++) {
+            int c = row * width;
+            int p = padded(row, 0);
+            for(int col = 0; col < width; col++, c++, p++) {
+                int intent = 0;
+                int code = codes[p];
+                if(code != 0) {
+                    long self = cells[c];
+                    int species = species(self);
+                    int gender = gender(self);
+                    int eats = preyMask[species][gender];
+                    int rival = species == Lion.SPECIES && gender == 1 ? code : -1;
+                    int free = 0;
+                    int prey = 0;
+                    int rivals = 0;
+                    int mates = 0;
+                    // Without branches, as the neighbours are unpredictable. Empty
+                    // cells and the border have species -1, which nothing eats.
+                    for(int d = 0; d < 8; d++) {
+                        int other = codes[p + neighbour[d]];
+                        free |= (other == 0 ? 1 : 0) << d;
+                        prey |= (eats >>> ((other & SPECIES_MASK) - 1) & 1) << d;
+                        rivals |= (other == rival ? 1 : 0) << d;
+                        // A mate differs only in gender.
+                        mates += (other ^ code) == 1 << GENDER_SHIFT ? 1 : 0;
+                    }
+                    long h = hash(c, step);
+                    // Give birth into free cells: rabbits once for each mate next to them.
+                    int births = 0;
+                    int tries = species == Rabbit.SPECIES ? mates : 1;
+                    if(gender == 0 && age(self) >= breedingAge[species]) {
+                        for(int i = 0; i < tries; i++) {
+                            long draw = mix(h + 16 + 2 * i);
+                            if(unit(draw) <= breedingProbability[species]) {
+                                births += below(mix(draw), maxLitterSize[species]) + 1;
+                            }
+                        }
+                    }
+                    int spawn = 0;
+                    long pick = mix(h + 2);
+                    for(int b = 0; b < births && free != 0; b++) {
+                        int d = select(free, mix(pick + b));
+                        spawn |= 1 << d;
+                        free &= ~(1 << d);
+                    }
+                    intent = spawn;
+                    // A male lion fights a rival, even if it also eats.
+                    int fight = rivals != 0 ? select(rivals, mix(h + 9)) + 1 : 0;
+                    intent |= fight << FIGHT_SHIFT;
+                    // Eat, or take the cell of the rival, or move, or die of overcrowding.
+                    if(prey != 0) {
+                        intent |= EAT | (select(prey, mix(h + 3)) + 1) << MOVE_SHIFT;
+                    }
+                    else if(fight != 0) {
+                        intent |= EAT | fight << MOVE_SHIFT;
+                    }
+                    else if(free != 0) {
+                        intent |= (select(free, mix(h + 4)) + 1) << MOVE_SHIFT;
+                    }
+                    else if(spawn == 0) {
+                        intent |= OVERCROWDED;
+                    }
+                }
+                intents[p] = intent;
+                // Cleared here, before any prey is resolved, as predators read it.
+                eaten[p] = NOT_EATEN;
+                young[p] = 0;
+            }
+        }
+    }
+
+    /**
+     * Third pass: let each female rabbit breed again for each male born
+     * next to her this step to a rabbit that acts before her, in an
+     * order drawn at random, as the young of rabbits that have already
+     * acted are mates to those that act later. Her young go into the
+     * free cells she has left. Only the births chosen in the second
+     * pass are read, so a mate born in this pass does not count.
+     */
+    private void breedWithYoung(int firstRow, int endRow)
+    {
+        int breeding = breedingAge[Rabbit.SPECIES];
+        for(int row = firstRow; row < endRow; row++) {
+            int c = row * width;
+            int p = padded(row, 0);
+            for(int col = 0; col < width; col++, c++, p++) {
+                if(codes[p] != Rabbit.SPECIES + 1 || age(cells[c]) < breeding) {
+                    // Not a female rabbit (gender 0) of breeding age.
+                    continue;
+                }
+                int intent = intents[p];
+                long rank = rank(c);
+                // The cells still free once her own young and her move are placed.
+                int free = 0;
+                int mates = 0;
+                for(int d = 0; d < 8; d++) {
+                    int t = p + neighbour[d];
+                    if(codes[t] != 0 || (intent & 1 << d) != 0 || (intent >>> MOVE_SHIFT & 15) - 1 == d) {
+                        continue;
+                    }
+                    if(bornBefore(c + cellNeighbour[d], t, p, rank)) {
+                        mates++;
+                    }
+                    else {
+                        free |= 1 << d;
+                    }
+                }
+                if(mates == 0) {
+                    continue;
+                }
+                long h = hash(c, step);
+                int births = 0;
+                for(int i = 0; i < mates; i++) {
+                    long draw = mix(h + 48 + 2 * i);
+                    if(unit(draw) <= breedingProbability[Rabbit.SPECIES]) {
+                        births += below(mix(draw), maxLitterSize[Rabbit.SPECIES]) + 1;
+                    }
+                }
+                int spawn = 0;
+                long pick = mix(h + 10);
+                for(int b = 0; b < births && free != 0; b++) {
+                    int d = select(free, mix(pick + b));
+                    spawn |= 1 << d;
+                    free &= ~(1 << d);
+                }
+                young[p] = (byte) spawn;
+            }
+        }
+    }
+
+    /**
+     * Return whether a male rabbit is born into a free cell this step to
+     * a rabbit, other than the one at p, that acts before the given rank.
+     * @param c The free cell.
+     * @param t Its position in the padded arrays.
+     */
+    private boolean bornBefore(int c, int t, int p, long rank)
+    {
+        if((mix(hash(c, step) + 6) & 1) == 0) {
+            return false;
+        }
+        for(int d = 0; d < 8; d++) {
+            int n = t + neighbour[d];
+            if(n != p && (intents[n] & 1 << (7 - d)) != 0 && (codes[n] & SPECIES_MASK) - 1 == Rabbit.SPECIES
+                    && rank(c + cellNeighbour[d]) > rank) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fourth pass: for each male lion, find the rival, if any, that kills
+     * it. Lions act in an order drawn at random: a rival kills it if it
+     * acts first and no other rival has killed that one first in turn.
+     * A chain of three or more rivals is cut short there.
+     */
+    private void resolveFights(int firstRow, int endRow)
+    {
+        for(int row = firstRow; row < endRow; row++) {
+            int c = row * width;
+            int p = padded(row, 0);
+            for(int col = 0; col < width; col++, c++, p++) {
+                if(codes[p] == (Lion.SPECIES + 1 | 1 << GENDER_SHIFT)) {
+                    eaten[p] = (byte) killer(c, p);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the direction of the rival that kills the male lion in a
+     * cell, or NOT_EATEN if none does.
+     */
+    private int killer(int c, int p)
+    {
+        int killer = NOT_EATEN;
+        long first = rank(c);
+        for(int d = 0; d < 8; d++) {
+            int n = p + neighbour[d];
+            if((intents[n] >>> FIGHT_SHIFT & 15) - 1 == 7 - d) {
+                int a = c + cellNeighbour[d];
+                long rank = rank(a);
+                if(rank > first && !attackedBefore(a, n, rank)) {
+                    first = rank;
+                    killer = d;
+                }
+            }
+        }
+        return killer;
+    }
+
+    /**
+     * Return whether a male lion is attacked by a rival that acts before it.
+     */
+    private boolean attackedBefore(int c, int p, long rank)
+    {
+        for(int d = 0; d < 8; d++) {
+            int n = p + neighbour[d];
+            if((intents[n] >>> FIGHT_SHIFT & 15) - 1 == 7 - d && rank(c + cellNeighbour[d]) > rank) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fifth pass: for each cell holding the given prey species, find
+     * the predator, if any, that eats it. The rabbits' young born for
+     * mates born this step join the rest of their young here.
+     */
+    private void resolvePrey(int prey, int firstRow, int endRow)
+    {
+        for(int row = firstRow; row < endRow; row++) {
+            int c = row * width;
+            int p = padded(row, 0);
+            for(int col = 0; col < width; col++, c++, p++) {
+                if((codes[p] & SPECIES_MASK) - 1 != prey) {
+                    continue;
+                }
+                // Only the predators' intents are read in this pass.
+                intents[p] |= young[p] & 0xFF;
+                byte winner = NOT_EATEN;
+                long best = Long.MIN_VALUE;
+                for(int d = 0; d < 8; d++) {
+                    int n = p + neighbour[d];
+                    int intent = intents[n];
+                    // The predator must aim at this cell, and not have been eaten itself.
+                    if((intent & EAT) != 0 && (intent >>> MOVE_SHIFT & 15) - 1 == 7 - d && eaten[n] == NOT_EATEN) {
+                        long priority = mix(hash(c + cellNeighbour[d], step) + 5);
+                        if(priority > best || winner == NOT_EATEN) {
+                            best = priority;
+                            winner = (byte) d;
+                        }
+                    }
+                }
+                eaten[p] = winner;
+            }
+        }
+    }
+
+    /**
+     * Last pass: work out where each animal ends up, and its young. Only
+     * occupied cells are visited: each writes what it holds next, and
+     * any cell its occupant moves or gives birth into and wins. A free
+     * cell is won by at most one neighbour, so no two bands write the
+     * same cell.
+     */
+    private void update(int firstRow, int endRow)
+    {
+        for(int row = firstRow; row < endRow; row++) {
+            int c = row * width;
+            int p = padded(row, 0);
+            for(int col = 0; col < width; col++, c++, p++) {
+                if(codes[p] != 0) {
+                    settle(c, p, cells[c]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Work out what happens to the occupant of a cell and its young.
+     */
+    private void settle(int c, int p, long self)
+    {
+        int e = eaten[p];
+        if(e != NOT_EATEN) {
+            long predator = cells[c + cellNeighbour[e]];
+            if(species(predator) != species(self)) {
+                // The predator moves in, fed.
+                int value = foodValue[species(predator)][species(self)];
+                next[c] = predator & ~(FIELD_MASK << FOOD_SHIFT) | (long) value << FOOD_SHIFT;
+            }
+            else if((intents[p + neighbour[e]] >>> MOVE_SHIFT & 15) - 1 == 7 - e) {
+                // The rival that killed it moves in, unless it went to eat.
+                next[c] = predator;
+            }
+            return;
+        }
+        int intent = intents[p];
+        if((intent & OVERCROWDED) != 0) {
+            return;
+        }
+        // Place the young born into free cells they win.
+        for(int spawn = intent & 0xFF; spawn != 0; spawn &= spawn - 1) {
+            int d = Integer.numberOfTrailingZeros(spawn);
+            int t = c + cellNeighbour[d];
+            if(winner(t, p + neighbour[d]) == 7 - d) {
+                int species = species(self);
+                next[t] = pack(species, (int) (mix(hash(t, step) + 6) & 1), 0, newbornFood[species]);
+            }
+        }
+        int d = (intent >>> MOVE_SHIFT & 15) - 1;
+        boolean gone;
+        if(d < 0) {
+            gone = false;
+        }
+        else if((intent & EAT) != 0) {
+            // Gone if it won the prey; the prey's cell writes it there.
+            gone = eaten[p + neighbour[d]] == 7 - d;
+        }
+        else {
+            // Gone if it won the free cell.
+            int t = c + cellNeighbour[d];
+            gone = winner(t, p + neighbour[d]) == 7 - d;
+            if(gone) {
+                next[t] = self;
+            }
+        }
+        if(!gone) {
+            next[c] = self;
+        }
+    }
+
+    /**
+     * Return the direction from a free cell of the neighbour that wins
+     * it, moving in or giving birth into it, or -1 if none does.
+     * @param c The cell.
+     * @param p Its position in the padded arrays.
+     */
+    private int winner(int c, int p)
+    {
+        int winner = -1;
+        long best = Long.MIN_VALUE;
+        for(int d = 0; d < 8; d++) {
+            int n = p + neighbour[d];
+            int intent = intents[n];
+            if(intent == 0) {
+                // Empty, or staying put: most neighbours of most cells.
+                continue;
+            }
+            int back = 7 - d;
+            boolean moving = (intent & EAT) == 0 && (intent >>> MOVE_SHIFT & 15) - 1 == back;
+            boolean birth = (intent & 1 << back) != 0;
+            if((moving || birth) && eaten[n] == NOT_EATEN) {
+                // Young take their cells as they are born, before anyone
+                // moves into them, as in the agent engine.
+                long priority = mix(hash(c + cellNeighbour[d], step) + 7 + back) >>> 2 | (birth ? 1L << 62 : 0);
+                if(priority > best || winner < 0) {
+                    best = priority;
+                    winner = d;
+                }
+            }
+        }
+        return winner;
+    }
+
+    /**
+     * Return the place of the animal in a cell in the order animals act
+     * this step: the higher, the earlier.
+     */
+    private long rank(int c)
+    {
+        return mix(hash(c, step) + 8);
+    }
+
+    /**
+     * Return the position of a cell in the padded arrays.
+     */
+    private int padded(int row, int col)
+    {
+        return (row + 1) * paddedWidth + col + 1;
+    }
+
+    /**
+     * Return a cell after its occupant has aged and gone hungry for a
+     * step, or 0 if the occupant dies of either.
+     */
+    private long aged(long cell)
+    {
+        if(cell == 0) {
+            return 0;
+        }
+        int species = species(cell);
+        int age = age(cell) + 1;
+        int food = food(cell);
+        if(newbornFood[species] > 0) {
+            food--;
+            if(food <= 0) {
+                return 0;
+            }
+        }
+        if(age > maxAge[species]) {
+            return 0;
+        }
+        return pack(species, gender(cell), age, food);
+    }
+
+    /**
+     * Set the breeding rules of a species.
+     */
+    private void setBreeding(int species, int age, double probability, int litter)
+    {
+        breedingAge[species] = age;
+        breedingProbability[species] = probability;
+        maxLitterSize[species] = litter;
+    }
+
+    /**
+     * Run a pass over every band of rows.
+     */
+    private void forEachBand(BandPass pass)
+    {
+        int bands = (depth + BAND_ROWS - 1) / BAND_ROWS;
+        IntStream range = IntStream.range(0, bands);
+        if(parallel) {
+            range = range.parallel();
+        }
+        range.forEach(b -> pass.run(b * BAND_ROWS, Math.min(depth, (b + 1) * BAND_ROWS)));
+    }
+
+    /**
+     * Return the random bits for a cell at a step.
+     */
+    private long hash(int cell, int atStep)
+    {
+        return mix(seed ^ mix((long) atStep << 32 ^ cell));
+    }
+
+    /**
+     * Scramble the bits of a value (the SplitMix64 finaliser).
+     */
+    private static long mix(long z)
+    {
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Return a number in [0, 1) from random bits.
+     */
+    private static double unit(long bits)
+    {
+        return (bits >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Return a number in [0, bound) from random bits.
+     */
+    private static int below(long bits, int bound)
+    {
+        return (int) (((bits & 0xFFFFFFFFL) * bound) >>> 32);
+    }
+
+    /**
+     * Return the position of a random set bit of a non-empty mask.
+     */
+    private static int select(int mask, long bits)
+    {
+        int k = below(bits, Integer.bitCount(mask));
+        for(int i = 0; i < k; i++) {
+            mask &= mask - 1;
+        }
+        return Integer.numberOfTrailingZeros(mask);
+    }
+
+    /**
+     * A pass over a band of rows.
+     */
+    private interface BandPass
+    {
+        void run(int firstRow, int endRow);
+    }
+}
@@ -0,0 +1,214 @@
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * An animal of a species defined as data (see Species). Creatures age,
+ * breed, hunt what their species eats, move and die, following the
+ * rules looked up by species code in SpeciesRegistry.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class Creature extends Animal
+{
+    // A shared random number generator to control breeding.
+    private static final Random rand = Randomizer.getRandom();
+
+    // The definition of the creature's species.
+    private final Species rules;
+    // Individual characteristics (instance fields).
+    // The creature's age.
+    private int age;
+    // The creature's food level, or 0 if its species eats nothing.
+    private int foodLevel;
+    // The creature's gender.
+    private int gender;
+
+    /**
+     * Create a creature. It can be created as a new born (age zero
+     * and not hungry) or with a random age and food level.
+     * @param species The species code.
+     * @param randomAge If true, the creature will have a random age and hunger level.
+     * @param field The field currently occupied.
+     * @param location The location within the field.
+     */
+    public Creature(int species, boolean randomAge, Field field, Location location)
+    {
+        super(species, field, location);
+        rules = SpeciesRegistry.get(species);
+        int bestFood = SpeciesRegistry.bestFoodValue(species);
+        if(randomAge) {
+            age = rand.nextInt(rules.getMaxAge());
+            foodLevel = bestFood > 0 ? rand.nextInt(bestFood) : 0;
+        }
+        else {
+            age = 0;
+            foodLevel = bestFood;
+        }
+        gender = rand.nextInt(2);
+    }
+
+    /**
+     * Recreate a creature from recorded state.
+     * @param species The species code.
+     * @param field The field currently occupied.
+     * @param location The location within the field.
+     * @param age The creature's age.
+     * @param foodLevel The creature's food level.
+     * @param gender The creature's gender.
+     */
+    Creature(int species, Field field, Location location, int age, int foodLevel, int gender)
+    {
+        super(species, field, location);
+        rules = SpeciesRegistry.get(species);
+        this.age = age;
+        this.foodLevel = foodLevel;
+        this.gender = gender;
+    }
+
+    /**
+     * Create a creature with a random age and food level, drawing from
+     * the given generator rather than the shared one. Used to populate
+     * bands of the field in parallel.
+     * @param species The species code.
+     * @param field The field currently occupied.
+     * @param location The location within the field.
+     * @param rng The generator to draw from.
+     * @return The new creature.
+     */
+    static Creature createRandom(int species, Field field, Location location, SplittableRandom rng)
+    {
+        int age = rng.nextInt(SpeciesRegistry.get(species).getMaxAge());
+        int bestFood = SpeciesRegistry.bestFoodValue(species);
+        int foodLevel = bestFood > 0 ? rng.nextInt(bestFood) : 0;
+        return new Creature(species, field, location, age, foodLevel, rng.nextInt(2));
+    }
+
+    /**
+     * This is what the creature does most of the time: it looks for
+     * food if its species eats anything, and otherwise wanders. In the
+     * process, it might breed, die of hunger, or die of old age.
+     * @param newCreatures A list to return newly born creatures.
+     */
+    public void act(List<Animal> newCreatures)
+    {
+        int species = getSpecies();
+        age++;
+        if(age > rules.getMaxAge()) {
+            setDead();
+        }
+        else if(SpeciesRegistry.isPredator(species) && --foodLevel <= 0) {
+            setDead();
+        }
+        if(isAlive()) {
+            giveBirth(newCreatures);
+            // Move towards a source of food if found.
+            Location newLocation = findFood();
+            if(newLocation == null) {
+                newLocation = approach(SpeciesRegistry.preyMask(species), rules.getSensingRadius());
+            }
+            if(newLocation == null) {
+                newLocation = getField().freeAdjacentLocation(getLocation());
+            }
+            // See if it was possible to move.
+            if(newLocation != null) {
+                setLocation(newLocation);
+            }
+            else {
+                // Overcrowding.
+                setDead();
+            }
+        }
+    }
+
+    /**
+     * Let every creature in a population act, dropping those that have
+     * died. The population should hold a single species.
+     * @param creatures The creatures, in acting order.
+     * @param newCreatures A list to return newly born creatures.
+     */
+    static void actAll(List<Animal> creatures, List<Animal> newCreatures)
+    {
+        int size = creatures.size();
+        int kept = 0;
+        for(int i = 0; i < size; i++) {
+            Creature creature = (Creature) creatures.get(i);
+            creature.act(newCreatures);
+            if(creature.isAlive()) {
+                creatures.set(kept++, creature);
+            }
+        }
+        creatures.subList(kept, size).clear();
+    }
+
+    /**
+     * @return The creature's age in steps.
+     */
+    public int getAge()
+    {
+        return age;
+    }
+
+    /**
+     * @return The creature's food level.
+     */
+    public int getFoodLevel()
+    {
+        return foodLevel;
+    }
+
+    /**
+     * @return The creature's gender, 0 for female and 1 for male.
+     */
+    public int getGender()
+    {
+        return gender;
+    }
+
+    /**
+     * Eat the first live neighbour the species' diet includes.
+     * @return Where food was found, or null if it wasn't.
+     */
+    private Location findFood()
+    {
+        int species = getSpecies();
+        if(!SpeciesRegistry.isPredator(species)) {
+            return null;
+        }
+        Field field = getField();
+        for(Location where : field.adjacentLocations(getLocation())) {
+            Animal prey = (Animal) field.getObjectAt(where);
+            if(prey != null && prey.isAlive()) {
+                int value = SpeciesRegistry.foodValue(species, prey.getSpecies());
+                if(value > 0) {
+                    prey.setEaten();
+                    foodLevel = value;
+                    recordMeal();
+                    return where;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Give birth into free neighbouring cells, if this is a female of
+     * breeding age and she breeds this step.
+     * @param newCreatures A list to return newly born creatures.
+     */
+    private void giveBirth(List<Animal> newCreatures)
+    {
+        if(gender != 0 || age < rules.getBreedingAge() || rand.nextDouble() > rules.getBreedingProbability()) {
+            return;
+        }
+        int births = rand.nextInt(rules.getMaxLitterSize()) + 1;
+        Field field = getField();
+        List<Location> free = field.getFreeAdjacentLocations(getLocation());
+        for(int b = 0; b < births && b < free.size(); b++) {
+            Creature young = new Creature(getSpecies(), false, field, free.get(b));
+            newCreatures.add(young);
+            recordBirth(young);
+        }
+    }
+}
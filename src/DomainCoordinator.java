@@ -0,0 +1,393 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Drive a simulation whose field is split into strips of rows, one
+ * per DomainWorker, as rank 0 of their transport. Each step is a
+ * barrier: every worker is told to step, and the step is over when all
+ * have replied with their population counts, which are added up into
+ * the counts for the whole field. Checkpoints gather every animal into
+ * a file, which can be loaded again with any number of workers.
+ *
+ * Usage:
+ * <pre>
+ *   java DomainCoordinator workers depth width steps [basePort]
+ *                              run over worker processes
+ *   java DomainCoordinator check workers depth width steps [basePort]
+ *                              check that runs in this process repeat
+ *                              and match a run over worker processes
+ * </pre>
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class DomainCoordinator implements Closeable
+{
+    // Identifies a checkpoint file.
+    private static final int CHECKPOINT_MAGIC = 0x42534350;
+    // The port rank 0 listens on when none is given.
+    private static final int DEFAULT_BASE_PORT = 47100;
+
+    // The link to the workers.
+    private final Transport transport;
+    // The size of the whole field.
+    private final int depth, width;
+    // The current step.
+    private int step;
+    // The population of each species over the whole field at the current step.
+    private int[] counts = new int[0];
+    // The worker threads or processes started here, to wait for on close.
+    private final List<Thread> threads = new ArrayList<>();
+    private final List<Process> processes = new ArrayList<>();
+    // Whether the workers have been stopped.
+    private boolean closed;
+
+    /**
+     * Create a coordinator for workers already started on the other
+     * ranks of a transport.
+     * @param transport The transport, of which this is rank 0.
+     * @param depth The depth of the whole field.
+     * @param width The width of the whole field.
+     */
+    public DomainCoordinator(Transport transport, int depth, int width)
+    {
+        if(transport.getRank() != 0) {
+            throw new IllegalArgumentException("The coordinator must be rank 0, not " + transport.getRank());
+        }
+        this.transport = transport;
+        this.depth = depth;
+        this.width = width;
+    }
+
+    /**
+     * Start workers on threads of this process, joined by an
+     * InProcessTransport, and a coordinator for them.
+     * @param workers The number of workers.
+     * @param depth The depth of the whole field.
+     * @param width The width of the whole field.
+     * @return The coordinator.
+     */
+    public static DomainCoordinator inProcess(int workers, int depth, int width)
+    {
+        InProcessTransport[] ends = InProcessTransport.connect(workers + 1);
+        DomainCoordinator coordinator = new DomainCoordinator(ends[0], depth, width);
+        for(int rank = 1; rank <= workers; rank++) {
+            DomainWorker worker = new DomainWorker(ends[rank], depth, width);
+            Thread thread = new Thread(() -> {
+                try {
+                    worker.serve();
+                }
+                catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, "domain-worker-" + rank);
+            thread.setDaemon(true);
+            thread.start();
+            coordinator.threads.add(thread);
+        }
+        return coordinator;
+    }
+
+    /**
+     * Start workers as separate processes on this machine, joined by
+     * loopback sockets, and a coordinator for them. The processes run
+     * the same Java with the same class path as this one.
+     * @param workers The number of workers.
+     * @param depth The depth of the whole field.
+     * @param width The width of the whole field.
+     * @param basePort The port for rank 0; the workers use the ones after it.
+     * @return The coordinator.
+     * @throws IOException If the processes cannot be started or reached.
+     */
+    public static DomainCoordinator launch(int workers, int depth, int width, int basePort) throws IOException
+    {
+        List<Process> started = new ArrayList<>();
+        for(int rank = 1; rank <= workers; rank++) {
+            started.add(SocketTransport.start("DomainWorker", String.valueOf(rank), String.valueOf(workers + 1),
+                                              String.valueOf(depth), String.valueOf(width), String.valueOf(basePort)));
+        }
+        SocketTransport transport;
+        try {
+            transport = new SocketTransport(0, workers + 1, basePort);
+        }
+        catch(IOException e) {
+            for(Process process : started) {
+                process.destroy();
+            }
+            throw e;
+        }
+        DomainCoordinator coordinator = new DomainCoordinator(transport, depth, width);
+        coordinator.processes.addAll(started);
+        return coordinator;
+    }
+
+    /**
+     * Populate the whole field afresh.
+     * @return The population of each species.
+     * @throws IOException If a worker cannot be reached.
+     */
+    public int[] reset() throws IOException
+    {
+        step = 0;
+        broadcast(new byte[] { DomainWorker.RESET });
+        return gatherCounts();
+    }
+
+    /**
+     * Run a single step on every strip, waiting for all to finish.
+     * @return The population of each species after the step.
+     * @throws IOException If a worker cannot be reached.
+     */
+    public int[] step() throws IOException
+    {
+        step++;
+        broadcast(new byte[] { DomainWorker.STEP });
+        return gatherCounts();
+    }
+
+    /**
+     * Write every animal to a checkpoint file.
+     * @param file The file to write.
+     * @throws IOException If a worker cannot be reached or the file written.
+     */
+    public void checkpoint(File file) throws IOException
+    {
+        broadcast(new byte[] { DomainWorker.CHECKPOINT });
+        List<int[]> animals = new ArrayList<>();
+        for(int rank = 1; rank < transport.getSize(); rank++) {
+            ByteBuffer in = ByteBuffer.wrap(transport.receive(rank));
+            DomainWorker.expect(in, DomainWorker.ANIMALS);
+            int count = (int) VarInts.readUnsigned(in);
+            for(int i = 0; i < count; i++) {
+                animals.add(DomainWorker.readRecord(in));
+            }
+        }
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(depth);
+            out.writeInt(width);
+            out.writeInt(step);
+            out.writeInt(animals.size());
+            for(int[] record : animals) {
+                for(int value : record) {
+                    out.writeInt(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace every strip with the animals of a checkpoint file.
+     * @param file The file to read.
+     * @return The population of each species.
+     * @throws IOException If the file is not a checkpoint of a field of
+     *                     this size, or a worker cannot be reached.
+     */
+    public int[] restore(File file) throws IOException
+    {
+        int strips = transport.getSize() - 1;
+        ByteArrayOutputStream[] records = new ByteArrayOutputStream[strips];
+        int[] sizes = new int[strips];
+        int atStep;
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if(in.readInt() != CHECKPOINT_MAGIC || in.readInt() != depth || in.readInt() != width) {
+                throw new IOException("Not a checkpoint of a " + depth + " x " + width + " field: " + file);
+            }
+            atStep = in.readInt();
+            int count = in.readInt();
+            for(int s = 0; s < strips; s++) {
+                records[s] = new ByteArrayOutputStream();
+            }
+            for(int i = 0; i < count; i++) {
+                int[] record = new int[6];
+                for(int v = 0; v < record.length; v++) {
+                    record[v] = in.readInt();
+                }
+                int s = stripOf(record[1], strips);
+                DomainWorker.writeRecord(records[s], record);
+                sizes[s]++;
+            }
+        }
+        for(int s = 0; s < strips; s++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(DomainWorker.RESTORE);
+            VarInts.writeUnsigned(out, atStep);
+            VarInts.writeUnsigned(out, sizes[s]);
+            records[s].writeTo(out);
+            transport.send(s + 1, out.toByteArray());
+        }
+        step = atStep;
+        return gatherCounts();
+    }
+
+    /**
+     * Return the strip holding a row.
+     */
+    private int stripOf(int row, int strips)
+    {
+        int s = (int) ((long) row * strips / depth);
+        while(DomainWorker.stripStart(s + 1, strips, depth) <= row) {
+            s++;
+        }
+        while(DomainWorker.stripStart(s, strips, depth) > row) {
+            s--;
+        }
+        return s;
+    }
+
+    /**
+     * @return The population of each species at the current step.
+     */
+    public int[] getCounts()
+    {
+        return counts.clone();
+    }
+
+    /**
+     * @return The current step.
+     */
+    public int getStep()
+    {
+        return step;
+    }
+
+    /**
+     * Stop the workers and wait for them to finish.
+     * @throws IOException If a worker cannot be reached.
+     */
+    public void close() throws IOException
+    {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        broadcast(new byte[] { DomainWorker.STOP });
+        try {
+            for(Thread thread : threads) {
+                thread.join();
+            }
+            for(Process process : processes) {
+                process.waitFor();
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        transport.close();
+    }
+
+    /**
+     * Send a command to every worker.
+     */
+    private void broadcast(byte[] command) throws IOException
+    {
+        for(int rank = 1; rank < transport.getSize(); rank++) {
+            transport.send(rank, command);
+        }
+    }
+
+    /**
+     * Wait for every worker's counts and add them up.
+     */
+    private int[] gatherCounts() throws IOException
+    {
+        int[] total = new int[SpeciesRegistry.count()];
+        for(int rank = 1; rank < transport.getSize(); rank++) {
+            ByteBuffer in = ByteBuffer.wrap(transport.receive(rank));
+            DomainWorker.expect(in, DomainWorker.COUNTS);
+            int n = (int) VarInts.readUnsigned(in);
+            if(n > total.length) {
+                total = Arrays.copyOf(total, n);
+            }
+            for(int s = 0; s < n; s++) {
+                total[s] += (int) VarInts.readUnsigned(in);
+            }
+        }
+        counts = total;
+        return total.clone();
+    }
+
+    /**
+     * Reset and run a simulation, collecting the counts of every step.
+     * @param coordinator The coordinator of the workers; it is closed.
+     * @param steps The number of steps to run.
+     * @return The counts, starting with those of step 0.
+     * @throws IOException If a worker cannot be reached.
+     */
+    static List<int[]> run(DomainCoordinator coordinator, int steps) throws IOException
+    {
+        List<int[]> counts = new ArrayList<>();
+        try(coordinator) {
+            counts.add(coordinator.reset());
+            for(int s = 1; s <= steps; s++) {
+                counts.add(coordinator.step());
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Return a description of the first step at which two runs differ,
+     * or "same" if they do not.
+     */
+    private static String compare(List<int[]> expected, List<int[]> found)
+    {
+        for(int s = 0; s < expected.size(); s++) {
+            if(!Arrays.equals(expected.get(s), found.get(s))) {
+                return "differ at step " + s + ": " + Arrays.toString(expected.get(s))
+                       + " against " + Arrays.toString(found.get(s));
+            }
+        }
+        return "same, ending " + Arrays.toString(expected.get(expected.size() - 1));
+    }
+
+    /**
+     * Run a simulation over worker processes and print the counts each
+     * step, or check runs against each other.
+     * @param args workers, depth, width, steps and optionally the base
+     *             port, after "check" to check.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        boolean check = args.length > 0 && args[0].equals("check");
+        if(check) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        if(args.length < 4) {
+            System.out.println("Usage: java DomainCoordinator [check] workers depth width steps [basePort]");
+            return;
+        }
+        int workers = Integer.parseInt(args[0]);
+        int depth = Integer.parseInt(args[1]);
+        int width = Integer.parseInt(args[2]);
+        int steps = Integer.parseInt(args[3]);
+        int port = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_BASE_PORT;
+        if(check) {
+            List<int[]> first = run(inProcess(workers, depth, width), steps);
+            System.out.println("in process, again: " + compare(first, run(inProcess(workers, depth, width), steps)));
+            System.out.println("in processes: " + compare(first, run(launch(workers, depth, width, port), steps)));
+            return;
+        }
+        try(DomainCoordinator coordinator = launch(workers, depth, width, port)) {
+            System.out.println("step 0 " + Arrays.toString(coordinator.reset()));
+            for(int s = 1; s <= steps; s++) {
+                long start = System.nanoTime();
+                int[] counts = coordinator.step();
+                System.out.printf("step %d %s %.1f ms%n", s, Arrays.toString(counts), (System.nanoTime() - start) / 1e6);
+            }
+        }
+    }
+}
@@ -0,0 +1,541 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One process of a simulation whose field is split into strips of
+ * rows across several processes. The worker of rank r owns strip r - 1,
+ * counted from the top; rank 0 is the DomainCoordinator. The worker
+ * simulates its strip on a field with an extra halo row above and below
+ * (except at the edges of the whole field), which holds copies of the
+ * neighbouring strips' edge rows. The copies do not act, but animals
+ * next to them see them as usual: they block moves, and can be eaten.
+ *
+ * After each local step the worker tells each neighbour which of its
+ * copies were eaten, so that the owner can remove them, and hands over
+ * the animals that moved or were born into the halo rows. Then the
+ * edge rows are exchanged again to refresh the halos. As neighbouring
+ * strips step at the same time, an animal at the boundary may be eaten
+ * after it has moved away, or arrive where another animal now is, in
+ * which case it goes to a free neighbouring cell of the strip or is
+ * lost. The results therefore differ slightly from a single process.
+ *
+ * Workers started in one process, over an InProcessTransport, share
+ * the simulation's static state, such as the random generator, so
+ * they take turns at their local work. Each keeps the state of the
+ * generator as it left it and puts it back when its turn comes, so
+ * a run does not depend on the order the workers take their turns in,
+ * and is the same as a run over worker processes.
+ *
+ * An animal in a halo row that is eaten is counted as eaten in the
+ * tally of the strip where it was eaten, in the step it was eaten;
+ * its owner takes it out of the field without counting it again.
+ *
+ * Usage: java DomainWorker rank size depth width basePort
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class DomainWorker
+{
+    // Commands from the coordinator.
+    static final byte RESET = 1;
+    static final byte STEP = 2;
+    static final byte CHECKPOINT = 3;
+    static final byte RESTORE = 4;
+    static final byte STOP = 5;
+    // Replies to the coordinator.
+    static final byte COUNTS = 6;
+    static final byte ANIMALS = 7;
+    // Messages between neighbours.
+    static final byte MIGRATE = 8;
+    static final byte HALO = 9;
+
+    // Spreads the workers' random generators apart.
+    private static final long SEED_SPREAD = 0x5851F42D4C957F2DL;
+    // Serialises the local work of workers sharing a process.
+    private static final Object LOCK = new Object();
+
+    // The link to the coordinator and the neighbours.
+    private final Transport transport;
+    // The rank of the worker.
+    private final int rank;
+    // The width of the field.
+    private final int width;
+    // The first row owned, and the row after the last, in the whole field.
+    private final int first, end;
+    // The ranks of the neighbours above and below, or -1 at the edges of the field.
+    private final int up, down;
+    // The row of the whole field held by row 0 of the local field.
+    private final int offset;
+    // The strip with its halo rows.
+    private final Field field;
+    // Simulates the strip.
+    private final Simulator simulator;
+    // The copies of the neighbours' animals in the halo rows, and where they are.
+    private final List<Animal> ghosts = new ArrayList<>();
+    private final List<Location> ghostPlaces = new ArrayList<>();
+    // The state of the random generator when the worker last left it.
+    private long randomState;
+
+    /**
+     * Create the worker for a rank of the transport. There is one
+     * worker for each rank but 0.
+     * @param transport The transport to the coordinator and the other workers.
+     * @param depth The depth of the whole field.
+     * @param width The width of the whole field.
+     */
+    public DomainWorker(Transport transport, int depth, int width)
+    {
+        this.transport = transport;
+        this.width = width;
+        rank = transport.getRank();
+        int strips = transport.getSize() - 1;
+        if(rank < 1 || strips > depth) {
+            throw new IllegalArgumentException("Rank " + rank + " of " + strips + " strips of " + depth + " rows");
+        }
+        first = stripStart(rank - 1, strips, depth);
+        end = stripStart(rank, strips, depth);
+        up = rank > 1 ? rank - 1 : -1;
+        down = rank < strips ? rank + 1 : -1;
+        offset = up < 0 ? first : first - 1;
+        int rows = end - first + (up < 0 ? 0 : 1) + (down < 0 ? 0 : 1);
+        field = new Field(rows, width);
+        simulator = new Simulator(field);
+        randomState = seededState(rank);
+    }
+
+    /**
+     * Return the state the random generator of a worker starts from:
+     * the default seed, spread apart by rank.
+     */
+    private static long seededState(int rank)
+    {
+        synchronized(LOCK) {
+            long saved = Randomizer.getState();
+            Randomizer.reset();
+            long seeded = Randomizer.getState() ^ rank * SEED_SPREAD;
+            Randomizer.setState(saved);
+            return seeded;
+        }
+    }
+
+    /**
+     * Put the random generator back as this worker left it. Call on
+     * taking LOCK, before anything that may draw from it.
+     */
+    private void resumeRandom()
+    {
+        Randomizer.setState(randomState);
+    }
+
+    /**
+     * Keep the state of the random generator for this worker's next
+     * turn. Call before giving up LOCK.
+     */
+    private void saveRandom()
+    {
+        randomState = Randomizer.getState();
+    }
+
+    /**
+     * Return the first row of a strip.
+     * @param strip The strip, counted from 0 at the top.
+     * @param strips The number of strips.
+     * @param depth The depth of the whole field.
+     * @return The first row of the strip, or depth for strip == strips.
+     */
+    static int stripStart(int strip, int strips, int depth)
+    {
+        return (int) ((long) strip * depth / strips);
+    }
+
+    /**
+     * Carry out the coordinator's commands until told to stop.
+     * @throws IOException If a link fails.
+     */
+    public void serve() throws IOException
+    {
+        while(true) {
+            ByteBuffer command = ByteBuffer.wrap(transport.receive(0));
+            byte tag = command.get();
+            switch(tag) {
+                case RESET:
+                    reset();
+                    transport.send(0, counts());
+                    break;
+                case STEP:
+                    step();
+                    transport.send(0, counts());
+                    break;
+                case CHECKPOINT:
+                    transport.send(0, owned());
+                    break;
+                case RESTORE:
+                    restore(command);
+                    transport.send(0, counts());
+                    break;
+                case STOP:
+                    return;
+                default:
+                    throw new IOException("Unknown command " + tag);
+            }
+        }
+    }
+
+    /**
+     * Populate the strip afresh.
+     */
+    private void reset() throws IOException
+    {
+        synchronized(LOCK) {
+            randomState = seededState(rank);
+            resumeRandom();
+            simulator.reset();
+            ghosts.clear();
+            ghostPlaces.clear();
+            // The halo rows are filled from the neighbours.
+            clearHalo();
+            saveRandom();
+        }
+        exchangeHalos();
+    }
+
+    /**
+     * Run a step of the strip and settle its boundaries with the neighbours.
+     */
+    private void step() throws IOException
+    {
+        ByteArrayOutputStream toUp = new ByteArrayOutputStream();
+        ByteArrayOutputStream toDown = new ByteArrayOutputStream();
+        synchronized(LOCK) {
+            resumeRandom();
+            simulator.simulateOneStep();
+            // Report the copies that were eaten.
+            ByteArrayOutputStream killsUp = new ByteArrayOutputStream();
+            ByteArrayOutputStream killsDown = new ByteArrayOutputStream();
+            int upKills = 0;
+            int downKills = 0;
+            for(int i = 0; i < ghosts.size(); i++) {
+                Animal ghost = ghosts.get(i);
+                if(!ghost.isAlive()) {
+                    Location place = ghostPlaces.get(i);
+                    boolean above = place.getRow() == 0 && up >= 0;
+                    ByteArrayOutputStream out = above ? killsUp : killsDown;
+                    VarInts.writeUnsigned(out, place.getRow() + offset);
+                    VarInts.writeUnsigned(out, place.getCol());
+                    VarInts.writeUnsigned(out, ghost.getSpecies());
+                    if(above) {
+                        upKills++;
+                    }
+                    else {
+                        downKills++;
+                    }
+                }
+                else {
+                    ghost.withdraw();
+                }
+            }
+            ghosts.clear();
+            ghostPlaces.clear();
+            // Whatever is left in the halo rows moves to the neighbours.
+            toUp.write(MIGRATE);
+            VarInts.writeUnsigned(toUp, upKills);
+            killsUp.writeTo(toUp);
+            toDown.write(MIGRATE);
+            VarInts.writeUnsigned(toDown, downKills);
+            killsDown.writeTo(toDown);
+            if(up >= 0) {
+                writeRow(toUp, 0, true);
+            }
+            if(down >= 0) {
+                writeRow(toDown, field.getDepth() - 1, true);
+            }
+            saveRandom();
+        }
+        if(up >= 0) {
+            transport.send(up, toUp.toByteArray());
+        }
+        if(down >= 0) {
+            transport.send(down, toDown.toByteArray());
+        }
+        for(int neighbour : new int[] { up, down }) {
+            if(neighbour >= 0) {
+                ByteBuffer in = ByteBuffer.wrap(transport.receive(neighbour));
+                expect(in, MIGRATE);
+                synchronized(LOCK) {
+                    resumeRandom();
+                    arrive(in);
+                    saveRandom();
+                }
+            }
+        }
+        exchangeHalos();
+    }
+
+    /**
+     * Remove the animals that a neighbour ate, and take in the animals
+     * it handed over. The neighbour has counted those eaten already.
+     */
+    private void arrive(ByteBuffer in)
+    {
+        int kills = (int) VarInts.readUnsigned(in);
+        for(int k = 0; k < kills; k++) {
+            int row = (int) VarInts.readUnsigned(in) - offset;
+            int col = (int) VarInts.readUnsigned(in);
+            int species = (int) VarInts.readUnsigned(in);
+            Object occupant = field.getObjectAt(row, col);
+            if(occupant instanceof Animal && ((Animal) occupant).getSpecies() == species) {
+                ((Animal) occupant).withdraw();
+            }
+        }
+        int count = (int) VarInts.readUnsigned(in);
+        for(int i = 0; i < count; i++) {
+            int[] record = readRecord(in);
+            Location where = new Location(record[1] - offset, record[2]);
+            if(field.getObjectAt(where) != null) {
+                where = freeOwnedNeighbour(where);
+            }
+            if(where != null) {
+                simulator.adopt(Animal.restore(record[0], field, where, record[3], record[4], record[5]));
+            }
+        }
+    }
+
+    /**
+     * Return a free neighbouring cell of a location within the strip, or null if none.
+     */
+    private Location freeOwnedNeighbour(Location location)
+    {
+        for(Location free : field.getFreeAdjacentLocations(location)) {
+            int row = free.getRow() + offset;
+            if(row >= first && row < end) {
+                return free;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Send the edge rows to the neighbours and fill the halo rows with
+     * copies of theirs.
+     */
+    private void exchangeHalos() throws IOException
+    {
+        byte[] toUp = null;
+        byte[] toDown = null;
+        synchronized(LOCK) {
+            if(up >= 0) {
+                toUp = edgeRow(first - offset);
+            }
+            if(down >= 0) {
+                toDown = edgeRow(end - 1 - offset);
+            }
+        }
+        if(up >= 0) {
+            transport.send(up, toUp);
+        }
+        if(down >= 0) {
+            transport.send(down, toDown);
+        }
+        for(int neighbour : new int[] { up, down }) {
+            if(neighbour >= 0) {
+                ByteBuffer in = ByteBuffer.wrap(transport.receive(neighbour));
+                expect(in, HALO);
+                synchronized(LOCK) {
+                    int count = (int) VarInts.readUnsigned(in);
+                    for(int i = 0; i < count; i++) {
+                        int[] record = readRecord(in);
+                        Location where = new Location(record[1] - offset, record[2]);
+                        ghosts.add(Animal.restore(record[0], field, where, record[3], record[4], record[5]));
+                        ghostPlaces.add(where);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Encode an owned row for a neighbour's halo.
+     */
+    private byte[] edgeRow(int row)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(HALO);
+        writeRow(out, row, false);
+        return out.toByteArray();
+    }
+
+    /**
+     * Write the animals of a local row as a count and records, in
+     * whole-field rows, optionally taking them out of the field.
+     */
+    private void writeRow(ByteArrayOutputStream out, int row, boolean remove)
+    {
+        List<Animal> animals = new ArrayList<>();
+        for(int col = 0; col < width; col++) {
+            Object occupant = field.getObjectAt(row, col);
+            if(occupant instanceof Animal && ((Animal) occupant).isAlive()) {
+                animals.add((Animal) occupant);
+            }
+        }
+        VarInts.writeUnsigned(out, animals.size());
+        for(Animal animal : animals) {
+            writeRecord(out, animal, row + offset);
+            if(remove) {
+                animal.withdraw();
+            }
+        }
+    }
+
+    /**
+     * Take everything out of the halo rows.
+     */
+    private void clearHalo()
+    {
+        for(int row : new int[] { 0, field.getDepth() - 1 }) {
+            int global = row + offset;
+            if(global >= first && global < end) {
+                continue;
+            }
+            for(int col = 0; col < width; col++) {
+                Object occupant = field.getObjectAt(row, col);
+                if(occupant instanceof Animal) {
+                    ((Animal) occupant).withdraw();
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the strip with the animals of a checkpoint.
+     */
+    private void restore(ByteBuffer in) throws IOException
+    {
+        synchronized(LOCK) {
+            resumeRandom();
+            int atStep = (int) VarInts.readUnsigned(in);
+            simulator.clearTo(atStep);
+            ghosts.clear();
+            ghostPlaces.clear();
+            int count = (int) VarInts.readUnsigned(in);
+            for(int i = 0; i < count; i++) {
+                int[] record = readRecord(in);
+                Location where = new Location(record[1] - offset, record[2]);
+                simulator.adopt(Animal.restore(record[0], field, where, record[3], record[4], record[5]));
+            }
+            saveRandom();
+        }
+        exchangeHalos();
+    }
+
+    /**
+     * Encode the living animals of the strip for a checkpoint.
+     */
+    private byte[] owned()
+    {
+        synchronized(LOCK) {
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            int count = 0;
+            for(Animal animal : simulator.getAnimals()) {
+                Location location = animal.getLocation();
+                if(animal.isAlive() && location != null) {
+                    writeRecord(records, animal, location.getRow() + offset);
+                    count++;
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(ANIMALS);
+            VarInts.writeUnsigned(out, count);
+            out.writeBytes(records.toByteArray());
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Encode the population counts of the strip.
+     */
+    private byte[] counts()
+    {
+        int[] counts;
+        synchronized(LOCK) {
+            counts = simulator.getCounts();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(COUNTS);
+        VarInts.writeUnsigned(out, counts.length);
+        for(int count : counts) {
+            VarInts.writeUnsigned(out, count);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Check the tag of a message.
+     * @throws IOException If it is not the one expected.
+     */
+    static void expect(ByteBuffer in, byte tag) throws IOException
+    {
+        byte found = in.get();
+        if(found != tag) {
+            throw new IOException("Expected message " + tag + " but got " + found);
+        }
+    }
+
+    /**
+     * Write an animal as species, row, column, age, food level and gender.
+     * @param out The buffer to write to.
+     * @param animal The animal.
+     * @param row Its row in the whole field.
+     */
+    static void writeRecord(ByteArrayOutputStream out, Animal animal, int row)
+    {
+        writeRecord(out, new int[] { animal.getSpecies(), row, animal.getLocation().getCol(),
+                                     animal.getAge(), animal.getFoodLevel(), animal.getGender() });
+    }
+
+    /**
+     * Write a record read by readRecord.
+     * @param out The buffer to write to.
+     * @param record Species, row, column, age, food level and gender.
+     */
+    static void writeRecord(ByteArrayOutputStream out, int[] record)
+    {
+        for(int value : record) {
+            VarInts.writeUnsigned(out, value);
+        }
+    }
+
+    /**
+     * Read a record written by writeRecord.
+     * @param in The buffer to read from.
+     * @return Species, row, column, age, food level and gender.
+     */
+    static int[] readRecord(ByteBuffer in)
+    {
+        int[] record = new int[6];
+        for(int i = 0; i < record.length; i++) {
+            record[i] = (int) VarInts.readUnsigned(in);
+        }
+        return record;
+    }
+
+    /**
+     * Run a worker in its own process over loopback sockets.
+     * @param args rank, size, depth, width and base port.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length != 5) {
+            System.out.println("Usage: java DomainWorker rank size depth width basePort");
+            return;
+        }
+        int rank = Integer.parseInt(args[0]);
+        int size = Integer.parseInt(args[1]);
+        try(SocketTransport transport = new SocketTransport(rank, size, Integer.parseInt(args[4]))) {
+            new DomainWorker(transport, Integer.parseInt(args[2]), Integer.parseInt(args[3])).serve();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Record a run of the simulation as a compact binary event log.
+ * Births, deaths, moves and meals, and animals put in or taken out of
+ * the field from outside it, are collected during each step and
+ * written as one record per step. Every so often a keyframe with
+ * the full contents of the field is written, so that EventReplay
+ * can rebuild the field at any step without reading the whole log.
+ *
+ * Locations are stored as cell indexes (row * width + col) and each
+ * event stores its cell as a zigzag varint delta from the previous
+ * one. A move stores its destination as a delta from its origin,
+ * which is almost always a single byte, and a meal the eater's new
+ * food level. An arrival, such as a rabbit released from a density,
+ * stores the whole state of the animal, as it need not be newborn.
+ *
+ * The log is written through an AsyncWriter so recording costs the
+ * simulation little more than filling a byte buffer.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class EventRecorder implements Closeable
+{
+    // Identifies an event log file ("DBSE").
+    static final int MAGIC = 0x44425345;
+    // The version of the file layout. Version 1 logs have no meals, and
+    // logs before version 3 have no arrivals or departures and store the
+    // event type in two bits.
+    static final int VERSION = 3;
+    // Record types.
+    static final int KEYFRAME = 1;
+    static final int STEP = 2;
+    // Event types, stored in the low TYPE_BITS bits of each event.
+    static final int BIRTH = 0;
+    static final int DEATH = 1;
+    static final int MOVE = 2;
+    static final int EAT = 3;
+    static final int ARRIVE = 4;
+    static final int LEAVE = 5;
+    static final int TYPE_BITS = 3;
+    // The default number of steps between keyframes.
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 100;
+
+    // Writes the log on a background thread.
+    private final AsyncWriter writer;
+    // The number of steps between keyframes.
+    private final int keyframeInterval;
+    // The width of the recorded field, used to build cell indexes.
+    private final int width;
+    // Events of the current step.
+    private ByteArrayOutputStream events;
+    // The number of events in the current step.
+    private int eventCount;
+    // The cell of the previous event, for delta encoding.
+    private long lastCell;
+
+    /**
+     * Start recording to a file. The current contents of the field
+     * are written as the first keyframe.
+     * @param file The file to write the log to.
+     * @param field The field being simulated.
+     * @param step The current step of the simulation.
+     * @param keyframeInterval The number of steps between keyframes.
+     * @throws IOException If the file cannot be opened.
+     */
+    public EventRecorder(File file, Field field, int step, int keyframeInterval) throws IOException
+    {
+        if(keyframeInterval <= 0) {
+            throw new IllegalArgumentException("Keyframe interval must be greater than zero");
+        }
+        this.keyframeInterval = keyframeInterval;
+        width = field.getWidth();
+        writer = new AsyncWriter(new FileOutputStream(file), 64, "event-recorder");
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(header);
+        data.writeInt(MAGIC);
+        VarInts.writeUnsigned(header, VERSION);
+        VarInts.writeUnsigned(header, field.getDepth());
+        VarInts.writeUnsigned(header, field.getWidth());
+        VarInts.writeUnsigned(header, keyframeInterval);
+        writer.write(header.toByteArray());
+
+        startStep();
+        writeKeyframe(step, field);
+    }
+
+    /**
+     * Note that an animal moved.
+     * @param from Where the animal was.
+     * @param to Where the animal is now.
+     */
+    void moved(Location from, Location to)
+    {
+        long cell = cellOf(from);
+        writeEvent(MOVE, cell);
+        long target = cellOf(to);
+        VarInts.writeSigned(events, target - cell);
+        lastCell = target;
+    }
+
+    /**
+     * Note that an animal died.
+     * @param at Where the animal was.
+     */
+    void died(Location at)
+    {
+        writeEvent(DEATH, cellOf(at));
+    }
+
+    /**
+     * Note that an animal ate.
+     * @param eater The animal, with its food level already raised.
+     */
+    void ate(Animal eater)
+    {
+        writeEvent(EAT, cellOf(eater.getLocation()));
+        VarInts.writeUnsigned(events, eater.getFoodLevel());
+    }
+
+    /**
+     * Note that an animal was born.
+     * @param young The newborn animal, already placed in the field.
+     */
+    void born(Animal young)
+    {
+        writeEvent(BIRTH, cellOf(young.getLocation()));
+        VarInts.writeUnsigned(events, young.getSpecies() << 1 | young.getGender());
+        VarInts.writeUnsigned(events, young.getFoodLevel());
+    }
+
+    /**
+     * Note that an animal was put in the field from outside it.
+     * @param animal The animal, already placed in the field.
+     */
+    void arrived(Animal animal)
+    {
+        writeEvent(ARRIVE, cellOf(animal.getLocation()));
+        VarInts.writeUnsigned(events, animal.getSpecies() << 1 | animal.getGender());
+        VarInts.writeUnsigned(events, animal.getAge());
+        VarInts.writeUnsigned(events, animal.getFoodLevel());
+    }
+
+    /**
+     * Note that an animal was taken out of the field without dying.
+     * @param at Where the animal was.
+     */
+    void left(Location at)
+    {
+        writeEvent(LEAVE, cellOf(at));
+    }
+
+    /**
+     * Write the events of a finished step, followed by a keyframe
+     * if one is due.
+     * @param step The step that has just finished.
+     * @param field The field being simulated.
+     */
+    public void endStep(int step, Field field)
+    {
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(events.size() + 5);
+            VarInts.writeUnsigned(payload, eventCount);
+            events.writeTo(payload);
+            writer.write(record(STEP, step, payload));
+            startStep();
+            if(step % keyframeInterval == 0) {
+                writeKeyframe(step, field);
+            }
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Finish writing the log.
+     * @throws IOException If the log could not be written.
+     */
+    public void close() throws IOException
+    {
+        writer.close();
+    }
+
+    /**
+     * Write the full contents of the field. Only the occupied cells are
+     * visited, which on a sparse or off-heap field costs far less than
+     * the whole grid; they are sorted as the layout may not visit them
+     * in row order.
+     */
+    private void writeKeyframe(int step, Field field) throws IOException
+    {
+        List<Animal> occupants = new ArrayList<>();
+        field.forEachObject((row, col, object) -> {
+            if(object instanceof Animal) {
+                occupants.add((Animal) object);
+            }
+        });
+        occupants.sort(Comparator.comparingLong(animal -> cellOf(animal.getLocation())));
+        ByteArrayOutputStream animals = new ByteArrayOutputStream();
+        long previous = 0;
+        for(Animal animal : occupants) {
+            long cell = cellOf(animal.getLocation());
+            VarInts.writeUnsigned(animals, cell - previous);
+            VarInts.writeUnsigned(animals, animal.getSpecies() << 1 | animal.getGender());
+            VarInts.writeUnsigned(animals, animal.getAge());
+            VarInts.writeUnsigned(animals, animal.getFoodLevel());
+            previous = cell;
+        }
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(animals.size() + 5);
+        VarInts.writeUnsigned(payload, occupants.size());
+        animals.writeTo(payload);
+        writer.write(record(KEYFRAME, step, payload));
+    }
+
+    /**
+     * Build a record: type, step, payload length and payload.
+     */
+    private static byte[] record(int type, int step, ByteArrayOutputStream payload) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload.size() + 12);
+        out.write(type);
+        VarInts.writeUnsigned(out, step);
+        VarInts.writeUnsigned(out, payload.size());
+        payload.writeTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Clear the buffer for the events of a new step.
+     */
+    private void startStep()
+    {
+        events = new ByteArrayOutputStream(256);
+        eventCount = 0;
+        lastCell = 0;
+    }
+
+    /**
+     * Write the common part of an event: its type and cell.
+     */
+    private void writeEvent(int type, long cell)
+    {
+        VarInts.writeUnsigned(events, VarInts.zigzag(cell - lastCell) << TYPE_BITS | type);
+        lastCell = cell;
+        eventCount++;
+    }
+
+    /**
+     * Return the cell index of a location.
+     */
+    private long cellOf(Location location)
+    {
+        return (long) location.getRow() * width + location.getCol();
+    }
+}
@@ -0,0 +1,245 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Rebuild the field of a recorded run at any step. The log written
+ * by EventRecorder is mapped into memory and indexed once; a request
+ * for a step starts from the nearest earlier keyframe and applies
+ * the recorded events of the steps after it.
+ *
+ * Positions, species, genders, ages and food levels are exact at every
+ * step. Logs of version 1 do not record meals, so in them predators'
+ * food levels are exact at keyframes and only count down between them;
+ * logs of versions 1 and 2 record animals put in the field from a
+ * density as births, so in them those animals are a step old until the
+ * next keyframe.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class EventReplay
+{
+    // The mapped log file.
+    private final ByteBuffer data;
+    // The dimensions of the recorded field.
+    private final int depth, width;
+    // Offsets of keyframe payloads, by step.
+    private final TreeMap<Integer, Integer> keyframes;
+    // Offsets of step payloads, indexed by step - firstStep.
+    private int[] stepOffsets;
+    // The first and last steps in the log.
+    private int firstStep, lastStep;
+    // The number of low bits of each event that hold its type.
+    private final int typeBits;
+
+    /**
+     * Open and index an event log.
+     * @param file The log written by an EventRecorder.
+     * @throws IOException If the file cannot be read or is not an event log.
+     */
+    public EventReplay(File file) throws IOException
+    {
+        try(RandomAccessFile raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel()) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if(data.remaining() < 4 || data.getInt() != EventRecorder.MAGIC) {
+            throw new IOException("Not an event log: " + file);
+        }
+        long version = VarInts.readUnsigned(data);
+        if(version < 1 || version > EventRecorder.VERSION) {
+            throw new IOException("Unsupported event log version: " + file);
+        }
+        typeBits = version >= 3 ? EventRecorder.TYPE_BITS : 2;
+        depth = (int) VarInts.readUnsigned(data);
+        width = (int) VarInts.readUnsigned(data);
+        VarInts.readUnsigned(data);
+
+        keyframes = new TreeMap<>();
+        stepOffsets = new int[0];
+        firstStep = -1;
+        index();
+    }
+
+    /**
+     * @return The first step that can be rebuilt.
+     */
+    public int getFirstStep()
+    {
+        return firstStep;
+    }
+
+    /**
+     * @return The last step in the log.
+     */
+    public int getLastStep()
+    {
+        return lastStep;
+    }
+
+    /**
+     * @return The depth of the recorded field.
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * @return The width of the recorded field.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Rebuild the field as it was at the end of the given step.
+     * @param step The step wanted, between the first and last steps.
+     * @return A new field holding restored animals.
+     */
+    public Field fieldAt(int step)
+    {
+        if(step < firstStep || step > lastStep) {
+            throw new IllegalArgumentException("Step " + step + " is not in the log");
+        }
+        Map.Entry<Integer, Integer> keyframe = keyframes.floorEntry(step);
+        Map<Long, int[]> animals = readKeyframe(keyframe.getValue());
+        for(int s = keyframe.getKey() + 1; s <= step; s++) {
+            applyStep(animals, stepOffsets[s - firstStep]);
+        }
+
+        Field field = new Field(depth, width);
+        for(Map.Entry<Long, int[]> entry : animals.entrySet()) {
+            long cell = entry.getKey();
+            int[] state = entry.getValue();
+            Location location = new Location((int) (cell / width), (int) (cell % width));
+            Animal.restore(state[0] >> 1, field, location, state[1], state[2], state[0] & 1);
+        }
+        return field;
+    }
+
+    /**
+     * Walk the records once, noting where each one starts.
+     */
+    private void index() throws IOException
+    {
+        while(data.hasRemaining()) {
+            int type = data.get();
+            int step = (int) VarInts.readUnsigned(data);
+            int length = (int) VarInts.readUnsigned(data);
+            int offset = data.position();
+            if(offset + length > data.limit()) {
+                // A record cut short, e.g. by a crash. Ignore it.
+                break;
+            }
+            if(type == EventRecorder.KEYFRAME) {
+                keyframes.put(step, offset);
+                if(firstStep < 0) {
+                    firstStep = step;
+                    lastStep = step;
+                }
+            }
+            else if(type == EventRecorder.STEP) {
+                int slot = step - firstStep;
+                if(slot >= stepOffsets.length) {
+                    stepOffsets = Arrays.copyOf(stepOffsets, Math.max(slot + 1, stepOffsets.length * 2));
+                }
+                stepOffsets[slot] = offset;
+                lastStep = step;
+            }
+            else {
+                throw new IOException("Unknown record type " + type + " at offset " + (offset - 1));
+            }
+            data.position(offset + length);
+        }
+        if(firstStep < 0) {
+            throw new IOException("Event log has no keyframe");
+        }
+    }
+
+    /**
+     * Decode a keyframe into a map from cell to {species/gender, age, food}.
+     */
+    private Map<Long, int[]> readKeyframe(int offset)
+    {
+        ByteBuffer in = data.duplicate();
+        in.position(offset);
+        int count = (int) VarInts.readUnsigned(in);
+        Map<Long, int[]> animals = new HashMap<>(count * 2);
+        long cell = 0;
+        for(int i = 0; i < count; i++) {
+            cell += VarInts.readUnsigned(in);
+            int speciesGender = (int) VarInts.readUnsigned(in);
+            int age = (int) VarInts.readUnsigned(in);
+            int food = (int) VarInts.readUnsigned(in);
+            animals.put(cell, new int[] { speciesGender, age, food });
+        }
+        return animals;
+    }
+
+    /**
+     * Apply one step: everyone alive at the start of the step ages and
+     * predators get hungrier, then the recorded events are replayed in
+     * order.
+     */
+    private void applyStep(Map<Long, int[]> animals, int offset)
+    {
+        for(int[] state : animals.values()) {
+            state[1]++;
+            if(SpeciesRegistry.isPredator(state[0] >> 1)) {
+                state[2]--;
+            }
+        }
+
+        ByteBuffer in = data.duplicate();
+        in.position(offset);
+        int count = (int) VarInts.readUnsigned(in);
+        long cell = 0;
+        for(int i = 0; i < count; i++) {
+            long head = VarInts.readUnsigned(in);
+            cell += VarInts.unzigzag(head >>> typeBits);
+            switch((int) (head & ((1 << typeBits) - 1))) {
+                case EventRecorder.BIRTH:
+                    int speciesGender = (int) VarInts.readUnsigned(in);
+                    int food = (int) VarInts.readUnsigned(in);
+                    animals.put(cell, new int[] { speciesGender, 0, food });
+                    break;
+                case EventRecorder.ARRIVE:
+                    int arrival = (int) VarInts.readUnsigned(in);
+                    int age = (int) VarInts.readUnsigned(in);
+                    int level = (int) VarInts.readUnsigned(in);
+                    animals.put(cell, new int[] { arrival, age, level });
+                    break;
+                case EventRecorder.DEATH:
+                case EventRecorder.LEAVE:
+                    animals.remove(cell);
+                    break;
+                case EventRecorder.MOVE:
+                    long target = cell + VarInts.readSigned(in);
+                    int[] state = animals.remove(cell);
+                    if(state != null) {
+                        animals.put(target, state);
+                    }
+                    cell = target;
+                    break;
+                case EventRecorder.EAT:
+                    int meal = (int) VarInts.readUnsigned(in);
+                    int[] eater = animals.get(cell);
+                    if(eater != null) {
+                        eater[2] = meal;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Corrupt event at offset " + in.position());
+            }
+        }
+    }
+}
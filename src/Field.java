@@ -1,3 +1,5 @@
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -15,11 +17,44 @@ public class Field
 {
     // A random number generator for providing random locations.
     private static final Random rand = Randomizer.getRandom();
+    // The row and column offsets of the neighbour for each bit of a
+    // neighbour mask: the row above, left and right, then the row below.
+    private static final int[] MASK_ROW_OFFSET = { -1, -1, -1, 0, 0, 1, 1, 1 };
+    private static final int[] MASK_COL_OFFSET = { -1, 0, 1, -1, 1, -1, 0, 1 };
     
     // The depth and width of the field.
     private int depth, width;
-    // Storage for the animals.
+    // Storage for the animals, or null if a subclass keeps its own.
     private Object[][] field;
+    // One bit per cell, set if the cell is occupied, with a border of set
+    // bits all round so that cells off the grid look occupied. Each row
+    // starts on a fresh word and has a spare word at its end. Null if a
+    // subclass keeps its own storage.
+    private long[] occupied;
+    // The number of words in each row of the occupancy bits.
+    private int wordsPerRow;
+    // Counts of each species by region, or null if not kept.
+    private SpeciesIndex speciesIndex;
+    // Copy-on-write snapshots for readers on other threads, or null if not kept.
+    private TileSnapshots snapshots;
+    // Counts births, deaths and animals eaten in the field, or null if not counted.
+    private StepTally tally;
+    // Told about births, deaths and moves in the field, or null if not recording.
+    private EventRecorder recorder;
+
+    /**
+     * Something to be done to each object in a field.
+     */
+    public interface ObjectVisitor
+    {
+        /**
+         * Visit one occupied cell.
+         * @param row The row of the cell.
+         * @param col The column of the cell.
+         * @param object The object in the cell.
+         */
+        void visit(int row, int col, Object object);
+    }
 
     /**
      * Represent a field of the given dimensions.
@@ -27,10 +62,28 @@ public class Field
      * @param width The width of the field.
      */
     public Field(int depth, int width)
+    {
+        this(depth, width, true);
+    }
+
+    /**
+     * Represent a field of the given dimensions. Subclasses that store
+     * the grid in another layout override clearCells, replace and
+     * getObjectAt(int, int).
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param rowArrays Whether to allocate the usual array per row.
+     */
+    protected Field(int depth, int width, boolean rowArrays)
     {
         this.depth = depth;
         this.width = width;
-        field = new Object[depth][width];
+        if(rowArrays) {
+            field = new Object[depth][width];
+            wordsPerRow = (width + 2 + 63) / 64 + 1;
+            occupied = new long[(depth + 2) * wordsPerRow];
+            clearOccupancy();
+        }
     }
     
     /**
@@ -38,10 +91,12 @@ public class Field
      */
     public void clear()
     {
-        for(int row = 0; row < depth; row++) {
-            for(int col = 0; col < width; col++) {
-                field[row][col] = null;
-            }
+        clearCells();
+        if(speciesIndex != null) {
+            speciesIndex.clear();
+        }
+        if(snapshots != null) {
+            snapshots.clear();
         }
     }
     
@@ -51,7 +106,7 @@ public class Field
      */
     public void clear(Location location)
     {
-        field[location.getRow()][location.getCol()] = null;
+        place(null, location);
     }
     
     /**
@@ -76,7 +131,43 @@ public class Field
      */
     public void place(Object animal, Location location)
     {
-        field[location.getRow()][location.getCol()] = animal;
+        int row = location.getRow();
+        int col = location.getCol();
+        Object previous = replace(row, col, animal);
+        if(speciesIndex != null) {
+            speciesIndex.replaced(row, col, previous, animal);
+        }
+        if(snapshots != null) {
+            snapshots.set(row, col, animal);
+        }
+    }
+
+    /**
+     * Empty every cell of the storage.
+     */
+    protected void clearCells()
+    {
+        for(int row = 0; row < depth; row++) {
+            for(int col = 0; col < width; col++) {
+                field[row][col] = null;
+            }
+        }
+        clearOccupancy();
+    }
+
+    /**
+     * Store an object, or null, in a cell of the storage.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @param object The object to store, or null to empty the cell.
+     * @return The object the cell held before, or null.
+     */
+    protected Object replace(int row, int col, Object object)
+    {
+        Object previous = field[row][col];
+        field[row][col] = object;
+        setOccupied(row, col, object != null);
+        return previous;
     }
     
     /**
@@ -100,6 +191,122 @@ public class Field
         return field[row][col];
     }
     
+    /**
+     * Keep counts of each species by region from now on, starting from
+     * what is in the field at present, or stop keeping them.
+     * @param index The index to keep up to date, or null for none.
+     */
+    public void setSpeciesIndex(SpeciesIndex index)
+    {
+        speciesIndex = index;
+        if(index != null) {
+            index.clear();
+            forEachObject((row, col, object) -> index.replaced(row, col, null, object));
+        }
+    }
+
+    /**
+     * Return the counts of each species by region, if they are kept.
+     * @return The index, or null if none is kept.
+     */
+    public SpeciesIndex getSpeciesIndex()
+    {
+        return speciesIndex;
+    }
+
+    /**
+     * Keep snapshots for readers on other threads from now on, starting
+     * from what is in the field at present, or stop keeping them.
+     * @param tiles The snapshots to keep up to date, or null for none.
+     */
+    public void setSnapshots(TileSnapshots tiles)
+    {
+        snapshots = tiles;
+        if(tiles != null) {
+            tiles.clear();
+            forEachObject(tiles::set);
+        }
+    }
+
+    /**
+     * Return the snapshots for readers on other threads, if they are kept.
+     * @return The snapshots, or null if none are kept.
+     */
+    public TileSnapshots getSnapshots()
+    {
+        return snapshots;
+    }
+
+    /**
+     * Return whether animals may be placed in different bands of rows
+     * from different threads at once, as when the field is populated
+     * in parallel. So they may in the usual row arrays, which share no
+     * cells or occupancy words between rows, while nothing that sees
+     * every placement is attached. Other layouts keep their own
+     * storage, and are not safe.
+     * @return true if bands of rows can be placed in parallel.
+     */
+    public boolean canPlaceRowsInParallel()
+    {
+        return field != null && speciesIndex == null && snapshots == null && recorder == null;
+    }
+
+    /**
+     * Set the tally counting the births, deaths and animals eaten of
+     * the animals in the field.
+     * @param stepTally The tally, or null to stop counting.
+     */
+    public void setTally(StepTally stepTally)
+    {
+        tally = stepTally;
+    }
+
+    /**
+     * Return the tally counting births, deaths and animals eaten.
+     * @return The tally, or null if none is kept.
+     */
+    public StepTally getTally()
+    {
+        return tally;
+    }
+
+    /**
+     * Set the recorder told about the births, deaths and moves of the
+     * animals in the field.
+     * @param eventRecorder The recorder, or null to stop recording.
+     */
+    public void setRecorder(EventRecorder eventRecorder)
+    {
+        recorder = eventRecorder;
+    }
+
+    /**
+     * Return the recorder told about births, deaths and moves.
+     * @return The recorder, or null if none is running.
+     */
+    public EventRecorder getRecorder()
+    {
+        return recorder;
+    }
+
+    /**
+     * Visit every object in the field. Fields that know where their
+     * objects are override this to skip empty space; the order of the
+     * visits is up to the field.
+     * @param visitor What to do with each object.
+     */
+    public void forEachObject(ObjectVisitor visitor)
+    {
+        for(int row = 0; row < depth; row++) {
+            for(int col = 0; col < width; col++) {
+                Object object = getObjectAt(row, col);
+                if(object != null) {
+                    visitor.visit(row, col, object);
+                }
+            }
+        }
+    }
+    
     /**
      * Generate a random location that is adjacent to the
      * given location, or is the same location.
@@ -121,14 +328,16 @@ public class Field
      */
     public List<Location> getFreeAdjacentLocations(Location location)
     {
-        List<Location> free = new LinkedList<Location>();
-        List<Location> adjacent = adjacentLocations(location);
-        for(Location next : adjacent) {
-            if(getObjectAt(next) == null) {
-                free.add(next);
+        int free = freeAdjacentMask(location);
+        int[] order = new int[8];
+        int count = shuffleNeighbours(location, order);
+        List<Location> locations = new ArrayList<Location>(Integer.bitCount(free));
+        for(int i = 0; i < count; i++) {
+            if((free & 1 << order[i]) != 0) {
+                locations.add(neighbour(location, order[i]));
             }
         }
-        return free;
+        return locations;
     }
     
     /**
@@ -141,14 +350,39 @@ public class Field
      */
     public Location freeAdjacentLocation(Location location)
     {
-        // The available free ones.
-        List<Location> free = getFreeAdjacentLocations(location);
-        if(free.size() > 0) {
-            return free.get(0);
+        int free = freeAdjacentMask(location);
+        int[] order = new int[8];
+        int count = shuffleNeighbours(location, order);
+        for(int i = 0; i < count; i++) {
+            if((free & 1 << order[i]) != 0) {
+                return neighbour(location, order[i]);
+            }
         }
-        else {
-            return null;
+        return null;
+    }
+
+    /**
+     * Return which of the eight cells around a location are free, as
+     * a mask with one bit per neighbour: bits 0 to 2 for the row above,
+     * from left to right, bits 3 and 4 for the cells to the left and
+     * right, and bits 5 to 7 for the row below. Cells off the grid are
+     * never free.
+     * @param location The location whose neighbours are wanted.
+     * @return The mask of free neighbours.
+     */
+    public int freeAdjacentMask(Location location)
+    {
+        int row = location.getRow();
+        int col = location.getCol();
+        if(occupied == null) {
+            return freeAdjacentMaskByLookup(row, col);
         }
+        // Row r of the grid is row r + 1 of the occupancy bits.
+        int above = occupancyBits(row, col);
+        int middle = occupancyBits(row + 1, col);
+        int below = occupancyBits(row + 2, col);
+        int taken = above | (middle & 1) << 3 | (middle >> 2) << 4 | below << 5;
+        return ~taken & 0xFF;
     }
 
     /**
@@ -186,6 +420,112 @@ public class Field
         return locations;
     }
 
+    /**
+     * Work out the free neighbour mask by looking at each neighbour,
+     * for fields that keep no occupancy bits.
+     */
+    private int freeAdjacentMaskByLookup(int row, int col)
+    {
+        int free = 0;
+        for(int bit = 0; bit < 8; bit++) {
+            int nextRow = row + MASK_ROW_OFFSET[bit];
+            int nextCol = col + MASK_COL_OFFSET[bit];
+            if(nextRow >= 0 && nextRow < depth && nextCol >= 0 && nextCol < width
+               && getObjectAt(nextRow, nextCol) == null) {
+                free |= 1 << bit;
+            }
+        }
+        return free;
+    }
+
+    /**
+     * Return the occupancy of three neighbouring cells in one row of the
+     * occupancy bits, for the columns either side of and at the given
+     * column of the grid.
+     * @param bitRow The row of the occupancy bits.
+     * @param col The middle column, in grid coordinates.
+     * @return Three bits, lowest for the leftmost cell.
+     */
+    private int occupancyBits(int bitRow, int col)
+    {
+        // Column c of the grid is bit c + 1, so the three cells start at bit col.
+        int word = bitRow * wordsPerRow + (col >>> 6);
+        int shift = col & 63;
+        // Shift the next word in two steps so that a shift of 64 gives 0.
+        long bits = occupied[word] >>> shift | (occupied[word + 1] << 1) << (63 - shift);
+        return (int) bits & 7;
+    }
+
+    /**
+     * Set or clear the occupancy bit of a cell.
+     */
+    private void setOccupied(int row, int col, boolean taken)
+    {
+        int bit = col + 1;
+        int word = (row + 1) * wordsPerRow + (bit >>> 6);
+        if(taken) {
+            occupied[word] |= 1L << bit;
+        }
+        else {
+            occupied[word] &= ~(1L << bit);
+        }
+    }
+
+    /**
+     * Mark every cell free and the border round the grid occupied.
+     */
+    private void clearOccupancy()
+    {
+        Arrays.fill(occupied, 0);
+        Arrays.fill(occupied, 0, wordsPerRow, -1L);
+        Arrays.fill(occupied, (depth + 1) * wordsPerRow, occupied.length, -1L);
+        for(int row = 0; row < depth; row++) {
+            setOccupied(row, -1, true);
+            setOccupied(row, width, true);
+        }
+    }
+
+    /**
+     * Return the location of the neighbour for a bit of a neighbour mask.
+     */
+    private static Location neighbour(Location location, int bit)
+    {
+        return new Location(location.getRow() + MASK_ROW_OFFSET[bit],
+                            location.getCol() + MASK_COL_OFFSET[bit]);
+    }
+
+    /**
+     * Put the neighbours of a location that lie within the grid in a
+     * random order, as neighbour mask bits. The random generator is
+     * drawn from exactly as Collections.shuffle draws for the list
+     * made by adjacentLocations, whose order the bits follow, so the
+     * free neighbours come out in the same order, and a seeded run
+     * takes the same course, as when they were taken from that list.
+     * @param location The location whose neighbours are wanted.
+     * @param order Filled with the bits of the neighbours, shuffled.
+     * @return The number of neighbours.
+     */
+    private int shuffleNeighbours(Location location, int[] order)
+    {
+        int row = location.getRow();
+        int col = location.getCol();
+        int count = 0;
+        for(int bit = 0; bit < 8; bit++) {
+            int nextRow = row + MASK_ROW_OFFSET[bit];
+            int nextCol = col + MASK_COL_OFFSET[bit];
+            if(nextRow >= 0 && nextRow < depth && nextCol >= 0 && nextCol < width) {
+                order[count++] = bit;
+            }
+        }
+        for(int i = count; i > 1; i--) {
+            int j = rand.nextInt(i);
+            int swapped = order[i - 1];
+            order[i - 1] = order[j];
+            order[j] = swapped;
+        }
+        return count;
+    }
+
     /**
      * Return the depth of the field.
      * @return The depth of the field.
@@ -4,15 +4,15 @@ import java.util.HashMap;
 /**
  * This class collects and provides some statistical data on the state 
  * of a field. It is flexible: it will create and maintain a counter 
- * for any class of object that is found within the field.
+ * for any species, or other class of object, found within the field.
  * 
  * @author David J. Barnes and Michael Kölling
  * @version 1.0
  */
 public class FieldStats
 {
-    // Counters for each type of entity (fox, rabbit, etc.) in the simulation.
-    private HashMap<Class, Counter> counters;
+    // Counters for each type of entity (fox, rabbit, etc.) in the simulation, by name.
+    private HashMap<String, Counter> counters;
     // Whether the counters are currently up to date.
     private boolean countsValid;
 
@@ -23,7 +23,7 @@ public class FieldStats
     {
         // Set up a collection for counters for each type of animal that
         // we might find
-        counters = new HashMap<Class, Counter>();
+        counters = new HashMap<String, Counter>();
         countsValid = true;
     }
 
@@ -37,7 +37,7 @@ public class FieldStats
         if(!countsValid) {
             generateCounts(field);
         }
-        for(Class key : counters.keySet()) {
+        for(String key : counters.keySet()) {
             Counter info = counters.get(key);
             buffer.append(info.getName());
             buffer.append(": ");
@@ -54,28 +54,42 @@ public class FieldStats
     public void reset()
     {
         countsValid = false;
-        for(Class key : counters.keySet()) {
+        for(String key : counters.keySet()) {
             Counter count = counters.get(key);
             count.reset();
         }
     }
 
     /**
-     * Increment the count for one class of animal.
-     * @param animalClass The class of animal to increment.
+     * Increment the count for one kind of animal.
+     * @param name The name of the species, or class, to increment.
      */
-    public void incrementCount(Class animalClass)
+    public void incrementCount(String name)
     {
-        Counter count = counters.get(animalClass);
+        Counter count = counters.get(name);
         if(count == null) {
             // We do not have a counter for this species yet.
             // Create one.
-            count = new Counter(animalClass.getName());
-            counters.put(animalClass, count);
+            count = new Counter(name);
+            counters.put(name, count);
         }
         count.increment();
     }
 
+    /**
+     * Return the name an object in the field is counted under: the
+     * species for animals, otherwise the class.
+     * @param object An object in the field.
+     * @return The name to count it under.
+     */
+    public static String nameOf(Object object)
+    {
+        if(object instanceof Animal) {
+            return SpeciesRegistry.getName(((Animal) object).getSpecies());
+        }
+        return object.getClass().getName();
+    }
+
     /**
      * Indicate that an animal count has been completed.
      */
@@ -96,7 +110,7 @@ public class FieldStats
         if(!countsValid) {
             generateCounts(field);
         }
-        for(Class key : counters.keySet()) {
+        for(String key : counters.keySet()) {
             Counter info = counters.get(key);
             if(info.getCount() > 0) {
                 nonZero++;
@@ -115,14 +129,7 @@ public class FieldStats
     private void generateCounts(Field field)
     {
         reset();
-        for(int row = 0; row < field.getDepth(); row++) {
-            for(int col = 0; col < field.getWidth(); col++) {
-                Object animal = field.getObjectAt(row, col);
-                if(animal != null) {
-                    incrementCount(animal.getClass());
-                }
-            }
-        }
+        field.forEachObject((row, col, animal) -> incrementCount(nameOf(animal)));
         countsValid = true;
     }
 }
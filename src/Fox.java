@@ -1,6 +1,9 @@
-import java.util.List;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * A simple model of a fox.
@@ -12,11 +15,14 @@ import java.util.Random;
 public class Fox extends Animal
 {
     // Characteristics shared by all foxes (class variables).
-    
+
+    // The species code of foxes.
+    public static final int SPECIES = 1;
+
     // The age at which a fox can start to breed.
     private static int BREEDING_AGE;
     // The age to which a fox can live.
-    private static final int MAX_AGE = 60;
+    static final int MAX_AGE = 60;
     // The likelihood of a fox breeding.
     private static double BREEDING_PROBABILITY ;
     // The maximum number of births.
@@ -24,8 +30,14 @@ public class Fox extends Animal
     // The food value of a single rabbit. In effect, this is the
     // number of steps a fox can go before it has to eat again.
     private static int RABBIT_FOOD_VALUE;
+    // How far away, in cells, a fox can sense rabbits.
+    private static int SENSING_RADIUS = 1;
     // A shared random number generator to control breeding.
     private static final Random rand = Randomizer.getRandom();
+    // Decides the number of births, specialised to the current parameters.
+    private static final BreedingKernels.Site BREEDING_SITE =
+        BreedingKernels.newSite(MethodHandles.lookup(), Fox.class);
+    private static final MethodHandle BREEDING_KERNEL = BREEDING_SITE.dynamicInvoker();
     
     // Individual characteristics (instance fields).
     // The fox's age.
@@ -49,7 +61,7 @@ public class Fox extends Animal
      */
     public Fox(boolean randomAge, Field field, Location location, int ba, double bp, int mls, int fv)
     {
-        super(field, location);
+        super(SPECIES, field, location);
         BREEDING_AGE = ba;
         BREEDING_PROBABILITY = bp;
         MAX_LITTER_SIZE = mls;
@@ -65,6 +77,22 @@ public class Fox extends Animal
             gender = rand.nextInt(2);
         }
     }
+
+    /**
+     * Recreate a fox from recorded state.
+     * @param field The field currently occupied.
+     * @param location The location within the field.
+     * @param age The fox's age.
+     * @param foodLevel The fox's food level.
+     * @param gender The fox's gender.
+     */
+    Fox(Field field, Location location, int age, int foodLevel, int gender)
+    {
+        super(SPECIES, field, location);
+        this.age = age;
+        this.foodLevel = foodLevel;
+        this.gender = gender;
+    }
     
     /**
      * This is what the fox does most of the time: it hunts for
@@ -73,13 +101,40 @@ public class Fox extends Animal
      * @param newFoxes A list to return newly born foxes.
      */
     public void act(List<Animal> newFoxes)
+    {
+        act(newFoxes, true);
+    }
+
+    /**
+     * Act, breeding only if asked to.
+     * @param newFoxes A list to return newly born foxes.
+     * @param breed false if the foxes are bred in bulk after acting.
+     */
+    void act(List<Animal> newFoxes, boolean breed)
     {
         incrementAge();
         incrementHunger();
+        actAged(newFoxes, breed);
+    }
+
+    /**
+     * Act once the fox has aged and gone hungry for the step, if it is
+     * still alive.
+     * @param newFoxes A list to return newly born foxes.
+     * @param breed false if the foxes are bred in bulk after acting.
+     */
+    private void actAged(List<Animal> newFoxes, boolean breed)
+    {
         if(isAlive()) {
-            giveBirth(newFoxes);            
+            if(breed) {
+                giveBirth(newFoxes);
+            }
             // Move towards a source of food if found.
             Location newLocation = findFood();
+            if(newLocation == null) {
+                // None adjacent - head for rabbits further away, if sensed.
+                newLocation = approach(SpeciesRegistry.preyMask(SPECIES), SENSING_RADIUS);
+            }
             if(newLocation == null) { 
                 // No food found - try to move to a free location.
                 newLocation = getField().freeAdjacentLocation(getLocation());
@@ -95,6 +150,139 @@ public class Fox extends Animal
         }
     }
 
+    /**
+     * Let every fox in a population act, dropping those that have died.
+     * The loop lives here so that its act call only ever sees foxes.
+     * @param foxes The foxes, in acting order.
+     * @param newFoxes A list to return newly born foxes.
+     * @param breed false if the foxes are bred in bulk after acting.
+     * @param columns The columns to age the foxes in, all at once
+     *                before any acts, or null for each to age itself.
+     */
+    static void actAll(List<Animal> foxes, List<Animal> newFoxes, boolean breed, AgeingColumns columns)
+    {
+        int size = foxes.size();
+        int[] ages = null;
+        int[] food = null;
+        long[] dead = null;
+        if(columns != null) {
+            ages = columns.ages(size);
+            food = columns.food(size);
+            for(int i = 0; i < size; i++) {
+                Fox fox = (Fox) foxes.get(i);
+                ages[i] = fox.age;
+                food[i] = fox.foodLevel;
+            }
+            dead = columns.sweepAgeAndHunger(size, MAX_AGE);
+        }
+        int kept = 0;
+        for(int i = 0; i < size; i++) {
+            Fox fox = (Fox) foxes.get(i);
+            if(dead == null) {
+                fox.act(newFoxes, breed);
+            }
+            else if(AgeingColumns.dies(dead, i)) {
+                fox.setDead();
+            }
+            else {
+                fox.age = ages[i];
+                fox.foodLevel = food[i];
+                fox.actAged(newFoxes, breed);
+            }
+            if(fox.isAlive()) {
+                foxes.set(kept++, fox);
+            }
+        }
+        foxes.subList(kept, size).clear();
+    }
+
+    /**
+     * Breed every fox at once, tile by tile, at the bulk fidelity level.
+     * @param foxes The foxes, after acting.
+     * @param field The field they are in.
+     * @param newFoxes A list to return newly born foxes.
+     * @param rng The generator to draw from.
+     */
+    static void breedAll(List<Animal> foxes, Field field, List<Animal> newFoxes, SplittableRandom rng)
+    {
+        BulkBreeding.breed(foxes, field, BREEDING_AGE, BREEDING_PROBABILITY, MAX_LITTER_SIZE, false,
+                           Fox::newborn, newFoxes, rng);
+    }
+
+    /**
+     * Create a newborn fox with the current parameters.
+     * @param field The field to place it in.
+     * @param location A free location for it.
+     * @return The newborn.
+     */
+    static Fox newborn(Field field, Location location)
+    {
+        return new Fox(false, field, location, BREEDING_AGE, BREEDING_PROBABILITY, MAX_LITTER_SIZE, RABBIT_FOOD_VALUE);
+    }
+
+    /**
+     * Create a fox with a random age and food level, drawing from the
+     * given generator rather than the shared one. Used to populate
+     * bands of the field in parallel.
+     * @param field The field currently occupied.
+     * @param location The location within the field.
+     * @param rng The generator to draw from.
+     * @return The new fox.
+     */
+    static Fox createRandom(Field field, Location location, SplittableRandom rng)
+    {
+        int age = rng.nextInt(MAX_AGE);
+        int foodLevel = rng.nextInt(RABBIT_FOOD_VALUE);
+        return new Fox(field, location, age, foodLevel, rng.nextInt(2));
+    }
+
+    /**
+     * Change the parameters shared by all foxes.
+     * @param ba Breeding age.
+     * @param bp Breeding probability.
+     * @param mls Max litter size.
+     * @param fv Food value of rabbits.
+     * @param sr Sensing radius.
+     * @param specialised true to specialise the breeding kernel to these
+     *                    parameters, false for the generic path.
+     */
+    public static void setParameters(int ba, double bp, int mls, int fv, int sr, boolean specialised)
+    {
+        BREEDING_AGE = ba;
+        BREEDING_PROBABILITY = bp;
+        MAX_LITTER_SIZE = mls;
+        BreedingKernels.bind(BREEDING_SITE, MethodHandles.lookup(), Fox.class, ba, bp, mls, specialised);
+        RABBIT_FOOD_VALUE = fv;
+        SENSING_RADIUS = sr;
+        SpeciesRegistry.get(SPECIES).setBreeding(ba, bp, mls);
+        SpeciesRegistry.get(SPECIES).setSensingRadius(sr);
+        SpeciesRegistry.setFoodValue(SPECIES, Rabbit.SPECIES, fv);
+    }
+
+    /**
+     * @return The fox's age.
+     */
+    public int getAge()
+    {
+        return age;
+    }
+
+    /**
+     * @return The fox's food level.
+     */
+    public int getFoodLevel()
+    {
+        return foodLevel;
+    }
+
+    /**
+     * @return The fox's gender.
+     */
+    public int getGender()
+    {
+        return gender;
+    }
+
     /**
      * Increase the age. This could result in the fox's death.
      */
@@ -118,8 +306,8 @@ public class Fox extends Animal
     }
     
     /**
-     * Look for rabbits adjacent to the current location.
-     * Only the first live rabbit is eaten.
+     * Look for prey adjacent to the current location, which by default
+     * means rabbits. Only the first live one is eaten.
      * @return Where food was found, or null if it wasn't.
      */
     private Location findFood()
@@ -129,13 +317,14 @@ public class Fox extends Animal
         Iterator<Location> it = adjacent.iterator();
         while(it.hasNext()) {
             Location where = it.next();
-            Object animal = field.getObjectAt(where);
-            if(animal instanceof Rabbit) {
-                Rabbit rabbit = (Rabbit) animal;
-                if(rabbit.isAlive()) { 
-                    rabbit.setDead();
-                    foodLevel = RABBIT_FOOD_VALUE;
-                    // Remove the dead rabbit from the field.
+            Animal prey = (Animal) field.getObjectAt(where);
+            if(prey != null) {
+                int value = SpeciesRegistry.foodValue(SPECIES, prey.getSpecies());
+                if(value > 0 && prey.isAlive()) { 
+                    prey.setEaten();
+                    foodLevel = value;
+                    recordMeal();
+                    // Remove the dead prey from the field.
                     return where;
                 }
             }
@@ -157,31 +346,24 @@ public class Fox extends Animal
         int births = breed();
         for (int b = 0; b < births && free.size() > 0; b++) {
             Location loc = free.remove(0);
-            Fox young = new Fox(false, field, loc, BREEDING_AGE, BREEDING_PROBABILITY, MAX_LITTER_SIZE, RABBIT_FOOD_VALUE);
+            Fox young = newborn(field, loc);
             newFoxes.add(young);
+            recordBirth(young);
         }
     }
         
     /**
      * Generate a number representing the number of births,
-     * if it can breed.
+     * if it can breed: it must be female and of breeding age.
      * @return The number of births (may be zero).
      */
     private int breed()
     {
-        int births = 0;
-        if(canBreed() && rand.nextDouble() <= BREEDING_PROBABILITY) {
-            births = rand.nextInt(MAX_LITTER_SIZE) + 1;
+        try {
+            return (int) BREEDING_KERNEL.invokeExact(age, gender);
+        }
+        catch(Throwable e) {
+            throw new IllegalStateException("Breeding kernel failed", e);
         }
-        return births;
-    }
-
-    /**
-     * A fox can breed if it has reached the breeding age and is female.
-     * @return true if the fox can breed, false otherwise..
-     */
-    private boolean canBreed()
-    {
-        return age >= BREEDING_AGE && gender == 0;
     }
 }
@@ -0,0 +1,609 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * A record of a seeded run of the reference engine, the Simulator on
+ * a plain Field, against which a faster engine can be checked to still
+ * follow the Rabbit, Fox and Lion rules. For every step it keeps a
+ * 64-bit hash of the whole field and the population counts, and for
+ * each of REGIONS x REGIONS regions of the field a hash and the count
+ * of each species, so that a difference can be placed.
+ *
+ * A cell's hash covers its position and its animal's species, gender,
+ * age and food level. The hashes of the cells are added, so they do not
+ * depend on the order an engine visits its cells in.
+ *
+ * An engine that should make the same moves as the reference, such as
+ * another field layout, is checked exactly, by its hashes. An engine
+ * that should only behave alike on average, such as bulk breeding or
+ * the cell automaton, is checked statistically, over traces of several
+ * seeds: at each step the mean count of each species must lie within
+ * a number of standard errors of the reference's, or within a fraction
+ * of it. Either check reports the first step that differs and where.
+ *
+ * Usage:
+ * <pre>
+ *   java GoldenTrace record file seed steps      record the reference engine
+ *   java GoldenTrace check file engine           check an engine exactly
+ *   java GoldenTrace stats engine steps seeds [z fraction]
+ *                                                check an engine statistically
+ * </pre>
+ * where engine is one of field, tiled, sparse, offheap, bulk, hybrid
+ * and automaton, on an 80 x 120 field.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class GoldenTrace
+{
+    // The number of regions along each side of the field.
+    public static final int REGIONS = 8;
+    // The most regions a report prints.
+    private static final int REGIONS_SHOWN = 8;
+    // The standard errors and fraction of the mean by which counts may
+    // differ in a statistical check from the command line.
+    private static final double DEFAULT_Z = 4, DEFAULT_FRACTION = 0.05;
+    // Identifies a trace file.
+    private static final int TRACE_MAGIC = 0x42535452;
+    // The size of the field used from the command line.
+    private static final int DEPTH = 80, WIDTH = 120;
+
+    /**
+     * A simulation engine that can be run from a seed and looked into.
+     */
+    public interface Engine
+    {
+        /**
+         * Populate the field afresh from a seed.
+         * @param seed The seed.
+         */
+        void start(long seed);
+
+        /**
+         * Run a single step.
+         */
+        void step();
+
+        /**
+         * @return The population of each species.
+         */
+        int[] getCounts();
+
+        /**
+         * Visit every occupied cell, in any order.
+         * @param visitor What to do with each cell.
+         */
+        void forEachCell(CellVisitor visitor);
+
+        // Following methods give the size of the field.
+        int getDepth();
+        int getWidth();
+    }
+
+    /**
+     * Something done with the contents of an occupied cell.
+     */
+    public interface CellVisitor
+    {
+        void visit(int row, int col, int species, int gender, int age, int food);
+    }
+
+    // The seed of the run.
+    private final long seed;
+    // The size of the field.
+    private final int depth, width;
+    // The number of species counted.
+    private final int species;
+    // For each step from 0: the hash of the field and the counts.
+    private final long[] hashes;
+    private final int[][] counts;
+    // For each step, the hash of each region, and the count of each
+    // species in each region, indexed by region * species + species.
+    private final long[][] regionHashes;
+    private final int[][] regionCounts;
+
+    /**
+     * Create an empty trace of a run.
+     */
+    private GoldenTrace(long seed, int depth, int width, int species, int steps)
+    {
+        this.seed = seed;
+        this.depth = depth;
+        this.width = width;
+        this.species = species;
+        hashes = new long[steps + 1];
+        counts = new int[steps + 1][];
+        regionHashes = new long[steps + 1][];
+        regionCounts = new int[steps + 1][];
+    }
+
+    /**
+     * Record a run of an engine.
+     * @param engine The engine, normally the reference.
+     * @param seed The seed to run from.
+     * @param steps The number of steps to run.
+     * @return The trace.
+     */
+    public static GoldenTrace record(Engine engine, long seed, int steps)
+    {
+        engine.start(seed);
+        GoldenTrace trace = new GoldenTrace(seed, engine.getDepth(), engine.getWidth(),
+                                            engine.getCounts().length, steps);
+        for(int s = 0; s <= steps; s++) {
+            if(s > 0) {
+                engine.step();
+            }
+            trace.capture(s, engine);
+        }
+        return trace;
+    }
+
+    /**
+     * Take the hashes and counts of an engine's current step.
+     */
+    private void capture(int step, Engine engine)
+    {
+        long[] regions = new long[REGIONS * REGIONS];
+        int[] inRegions = new int[REGIONS * REGIONS * species];
+        engine.forEachCell((row, col, sp, gender, age, food) -> {
+            int r = regionOf(row, col);
+            regions[r] += cellHash(row * (long) width + col, sp, gender, age, food);
+            if(sp < species) {
+                inRegions[r * species + sp]++;
+            }
+        });
+        int[] population = engine.getCounts();
+        long hash = step;
+        for(long region : regions) {
+            hash += region;
+        }
+        for(int count : population) {
+            hash = mix(hash * 31 + count);
+        }
+        hashes[step] = mix(hash);
+        counts[step] = population;
+        regionHashes[step] = regions;
+        regionCounts[step] = inRegions;
+    }
+
+    /**
+     * Return the region of the field a cell is in.
+     */
+    private int regionOf(int row, int col)
+    {
+        return (int) ((long) row * REGIONS / depth) * REGIONS + (int) ((long) col * REGIONS / width);
+    }
+
+    /**
+     * Return the hash of a cell's contents.
+     */
+    private static long cellHash(long cell, int species, int gender, int age, int food)
+    {
+        long h = mix(cell + 0x9E3779B97F4A7C15L);
+        h = mix(h ^ ((long) species << 48 | (long) gender << 40 | age & 0xFFFFFL));
+        return mix(h ^ food);
+    }
+
+    /**
+     * The SplitMix64 finaliser.
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Run an engine from the trace's seed and compare its hashes step by step.
+     * @param engine The engine to check.
+     * @return The first difference, if any.
+     */
+    public Report compareExactly(Engine engine)
+    {
+        engine.start(seed);
+        if(engine.getDepth() != depth || engine.getWidth() != width) {
+            return Report.differs(0, -1, new ArrayList<>(), "the field is " + engine.getDepth() + " x "
+                                  + engine.getWidth() + ", not " + depth + " x " + width);
+        }
+        GoldenTrace candidate = new GoldenTrace(seed, depth, width, species, getSteps());
+        for(int s = 0; s <= getSteps(); s++) {
+            if(s > 0) {
+                engine.step();
+            }
+            candidate.capture(s, engine);
+            if(candidate.hashes[s] != hashes[s]) {
+                List<int[]> regions = new ArrayList<>();
+                for(int r = 0; r < REGIONS * REGIONS; r++) {
+                    if(candidate.regionHashes[s][r] != regionHashes[s][r]) {
+                        regions.add(boundsOf(r));
+                    }
+                }
+                String detail = Arrays.equals(candidate.counts[s], counts[s]) ? "same counts"
+                                : "counts " + Arrays.toString(candidate.counts[s]) + " instead of "
+                                  + Arrays.toString(counts[s]);
+                return Report.differs(s, -1, regions, detail);
+            }
+        }
+        return Report.same(getSteps());
+    }
+
+    /**
+     * Run an engine from several seeds and compare the course of its
+     * populations with that of the reference traces.
+     * @param reference Traces of the reference, of the same length and
+     *                  size, normally from different seeds.
+     * @param engine The engine to check.
+     * @param seeds The seeds to run the engine from.
+     * @param z The number of standard errors by which the means may differ.
+     * @param fraction The fraction of the reference mean by which they may
+     *                 differ in any case, for steps where the runs hardly vary.
+     * @return The first difference, if any.
+     */
+    public static Report compareStatistically(List<GoldenTrace> reference, Engine engine, long[] seeds,
+                                              double z, double fraction)
+    {
+        GoldenTrace first = reference.get(0);
+        List<GoldenTrace> candidates = new ArrayList<>();
+        for(long seed : seeds) {
+            candidates.add(record(engine, seed, first.getSteps()));
+        }
+        for(int s = 0; s <= first.getSteps(); s++) {
+            for(int sp = 0; sp < first.species; sp++) {
+                final int step = s, code = sp;
+                double[] r = meanAndVariance(reference, trace -> trace.counts[step][code]);
+                double[] c = meanAndVariance(candidates, trace -> trace.counts[step][code]);
+                double error = Math.sqrt(r[1] / reference.size() + c[1] / candidates.size());
+                if(Math.abs(c[0] - r[0]) > z * error + fraction * Math.abs(r[0])) {
+                    String detail = String.format("mean %s count %.1f instead of %.1f (standard error %.1f)",
+                                                  SpeciesRegistry.getName(sp), c[0], r[0], error);
+                    return Report.differs(s, sp, List.of(first.boundsOf(worstRegion(reference, candidates, s, sp))),
+                                          detail);
+                }
+            }
+        }
+        return Report.same(first.getSteps());
+    }
+
+    /**
+     * Return the region where the mean count of a species differs most
+     * between two sets of traces at a step.
+     */
+    private static int worstRegion(List<GoldenTrace> reference, List<GoldenTrace> candidates, int step, int sp)
+    {
+        int worst = 0;
+        double most = -1;
+        int species = reference.get(0).species;
+        for(int r = 0; r < REGIONS * REGIONS; r++) {
+            int index = r * species + sp;
+            double a = meanAndVariance(reference, trace -> trace.regionCounts[step][index])[0];
+            double b = meanAndVariance(candidates, trace -> trace.regionCounts[step][index])[0];
+            if(Math.abs(a - b) > most) {
+                most = Math.abs(a - b);
+                worst = r;
+            }
+        }
+        return worst;
+    }
+
+    /**
+     * Return the mean and sample variance of a count over traces.
+     */
+    private static double[] meanAndVariance(List<GoldenTrace> traces, ToIntFunction<GoldenTrace> count)
+    {
+        double sum = 0, squares = 0;
+        for(GoldenTrace trace : traces) {
+            double x = count.applyAsInt(trace);
+            sum += x;
+            squares += x * x;
+        }
+        int n = traces.size();
+        double mean = sum / n;
+        double variance = n > 1 ? Math.max(0, (squares - n * mean * mean) / (n - 1)) : 0;
+        return new double[] { mean, variance };
+    }
+
+    /**
+     * Return the cells a region covers, as first row, first column, last
+     * row and last column.
+     */
+    private int[] boundsOf(int region)
+    {
+        int rr = region / REGIONS, rc = region % REGIONS;
+        return new int[] { firstOf(rr, depth), firstOf(rc, width),
+                           firstOf(rr + 1, depth) - 1, firstOf(rc + 1, width) - 1 };
+    }
+
+    /**
+     * Return the first row or column of a band of regions.
+     */
+    private static int firstOf(int band, int size)
+    {
+        return (int) (((long) band * size + REGIONS - 1) / REGIONS);
+    }
+
+    /**
+     * Write the trace to a file.
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(File file) throws IOException
+    {
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(TRACE_MAGIC);
+            out.writeLong(seed);
+            out.writeInt(depth);
+            out.writeInt(width);
+            out.writeInt(species);
+            out.writeInt(getSteps());
+            for(int s = 0; s <= getSteps(); s++) {
+                out.writeLong(hashes[s]);
+                for(int count : counts[s]) {
+                    out.writeInt(count);
+                }
+                for(long hash : regionHashes[s]) {
+                    out.writeLong(hash);
+                }
+                for(int count : regionCounts[s]) {
+                    out.writeInt(count);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a trace written by write.
+     * @param file The file to read.
+     * @return The trace.
+     * @throws IOException If the file is not a trace or cannot be read.
+     */
+    public static GoldenTrace read(File file) throws IOException
+    {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if(in.readInt() != TRACE_MAGIC) {
+                throw new IOException("Not a trace: " + file);
+            }
+            long seed = in.readLong();
+            int depth = in.readInt();
+            int width = in.readInt();
+            int species = in.readInt();
+            int steps = in.readInt();
+            GoldenTrace trace = new GoldenTrace(seed, depth, width, species, steps);
+            for(int s = 0; s <= steps; s++) {
+                trace.hashes[s] = in.readLong();
+                trace.counts[s] = new int[species];
+                for(int sp = 0; sp < species; sp++) {
+                    trace.counts[s][sp] = in.readInt();
+                }
+                trace.regionHashes[s] = new long[REGIONS * REGIONS];
+                for(int r = 0; r < REGIONS * REGIONS; r++) {
+                    trace.regionHashes[s][r] = in.readLong();
+                }
+                trace.regionCounts[s] = new int[REGIONS * REGIONS * species];
+                for(int i = 0; i < trace.regionCounts[s].length; i++) {
+                    trace.regionCounts[s][i] = in.readInt();
+                }
+            }
+            return trace;
+        }
+    }
+
+    // Following methods describe the trace.
+    public long getSeed() { return seed; }
+    public int getSteps() { return hashes.length - 1; }
+    public long getHash(int step) { return hashes[step]; }
+    public int[] getCounts(int step) { return counts[step].clone(); }
+
+    /**
+     * The outcome of a comparison: whether the engine kept to the
+     * reference and, if not, the first step at which it did not.
+     */
+    public static class Report
+    {
+        // The first step that differs, or -1 if none did.
+        private final int step;
+        // The species whose counts differ, or -1 if not known.
+        private final int species;
+        // The regions that differ at that step, as row and column bounds.
+        private final List<int[]> regions;
+        // A description of the difference, or of the run that kept to it.
+        private final String detail;
+
+        private Report(int step, int species, List<int[]> regions, String detail)
+        {
+            this.step = step;
+            this.species = species;
+            this.regions = regions;
+            this.detail = detail;
+        }
+
+        /**
+         * Describe a comparison that found no difference.
+         */
+        static Report same(int steps)
+        {
+            return new Report(-1, -1, List.of(), "the same over " + steps + " steps");
+        }
+
+        /**
+         * Describe a difference.
+         */
+        static Report differs(int step, int species, List<int[]> regions, String detail)
+        {
+            return new Report(step, species, regions, detail);
+        }
+
+        // Following methods describe the outcome.
+        public boolean isEquivalent() { return step < 0; }
+        public int getStep() { return step; }
+        public int getSpecies() { return species; }
+        public List<int[]> getRegions() { return regions; }
+
+        public String toString()
+        {
+            if(isEquivalent()) {
+                return detail;
+            }
+            StringBuilder text = new StringBuilder("differs first at step ").append(step).append(": ").append(detail);
+            for(int[] region : regions.subList(0, Math.min(regions.size(), REGIONS_SHOWN))) {
+                text.append(String.format("%n  rows %d-%d, columns %d-%d", region[0], region[2], region[1], region[3]));
+            }
+            if(regions.size() > REGIONS_SHOWN) {
+                text.append(String.format("%n  and %d more regions", regions.size() - REGIONS_SHOWN));
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * Return an engine that runs a Simulator, the reference engine on a
+     * plain Field, or another kind of field or option set up by the factory.
+     * @param factory Makes a new simulator on each start, after the
+     *                shared random generator has been seeded.
+     * @return The engine.
+     */
+    public static Engine simulator(Supplier<Simulator> factory)
+    {
+        return new Engine() {
+            // The simulator of the current run.
+            private Simulator sim;
+
+            public void start(long seed)
+            {
+                Randomizer.getRandom().setSeed(seed);
+                sim = factory.get();
+                sim.reset();
+            }
+
+            public void step() { sim.simulateOneStep(); }
+            public int[] getCounts() { return sim.getCounts(); }
+            public int getDepth() { return sim.getField().getDepth(); }
+            public int getWidth() { return sim.getField().getWidth(); }
+
+            public void forEachCell(CellVisitor visitor)
+            {
+                sim.getField().forEachObject((row, col, object) -> {
+                    Animal animal = (Animal) object;
+                    visitor.visit(row, col, animal.getSpecies(), animal.getGender(), animal.getAge(),
+                                  animal.getFoodLevel());
+                });
+            }
+        };
+    }
+
+    /**
+     * Return an engine that runs the packed cell automaton with the
+     * default parameters.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @return The engine.
+     */
+    public static Engine automaton(int depth, int width)
+    {
+        return new Engine() {
+            // The automaton of the current run.
+            private CellularEngine cells;
+
+            public void start(long seed)
+            {
+                cells = new CellularEngine(depth, width, new ParameterSet(), seed);
+                cells.populate();
+            }
+
+            public void step() { cells.step(); }
+            public int[] getCounts() { return cells.getCounts(); }
+            public int getDepth() { return depth; }
+            public int getWidth() { return width; }
+
+            public void forEachCell(CellVisitor visitor)
+            {
+                for(int row = 0; row < depth; row++) {
+                    for(int col = 0; col < width; col++) {
+                        long cell = cells.getCell(row, col);
+                        if(cell != 0) {
+                            visitor.visit(row, col, CellularEngine.species(cell), CellularEngine.gender(cell),
+                                          CellularEngine.age(cell), CellularEngine.food(cell));
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Return the engine named on the command line.
+     */
+    private static Engine named(String name)
+    {
+        switch(name) {
+            case "field":
+                return simulator(() -> new Simulator(new Field(DEPTH, WIDTH)));
+            case "bulk":
+                return simulator(() -> {
+                    Simulator sim = new Simulator(new Field(DEPTH, WIDTH));
+                    sim.setBulkBreeding(true);
+                    return sim;
+                });
+            case "tiled":
+                return simulator(() -> new Simulator(new TiledField(DEPTH, WIDTH)));
+            case "sparse":
+                return simulator(() -> new Simulator(new SparseField(DEPTH, WIDTH)));
+            case "offheap":
+                return simulator(() -> new Simulator(new OffHeapField(DEPTH, WIDTH)));
+            case "hybrid":
+                return simulator(() -> {
+                    Simulator sim = new Simulator(new Field(DEPTH, WIDTH));
+                    sim.setMeanField(new MeanFieldTiles(DEPTH, WIDTH));
+                    return sim;
+                });
+            case "automaton":
+                return automaton(DEPTH, WIDTH);
+            default:
+                throw new IllegalArgumentException("No engine called " + name);
+        }
+    }
+
+    /**
+     * Record a reference trace, or check an engine against one.
+     * @param args See the class comment.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length == 4 && args[0].equals("record")) {
+            GoldenTrace trace = record(named("field"), Long.parseLong(args[2]), Integer.parseInt(args[3]));
+            trace.write(new File(args[1]));
+            System.out.println("Recorded " + trace.getSteps() + " steps from seed " + trace.getSeed());
+        }
+        else if(args.length == 3 && args[0].equals("check")) {
+            GoldenTrace trace = read(new File(args[1]));
+            System.out.println(args[2] + ": " + trace.compareExactly(named(args[2])));
+        }
+        else if((args.length == 4 || args.length == 6) && args[0].equals("stats")) {
+            int steps = Integer.parseInt(args[2]);
+            long[] seeds = new long[Integer.parseInt(args[3])];
+            List<GoldenTrace> reference = new ArrayList<>();
+            for(int i = 0; i < seeds.length; i++) {
+                seeds[i] = 1000 + i;
+                reference.add(record(named("field"), 1 + i, steps));
+            }
+            double z = args.length == 6 ? Double.parseDouble(args[4]) : DEFAULT_Z;
+            double fraction = args.length == 6 ? Double.parseDouble(args[5]) : DEFAULT_FRACTION;
+            System.out.println(args[1] + ": " + compareStatistically(reference, named(args[1]), seeds, z, fraction));
+        }
+        else {
+            System.out.println("Usage: java GoldenTrace record file seed steps | check file engine"
+                               + " | stats engine steps seeds [z fraction]");
+        }
+    }
+}
@@ -0,0 +1,83 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A transport between threads of one process, for tests and for
+ * trying out a decomposition without starting processes. Each pair of
+ * ranks has an unbounded queue in each direction.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class InProcessTransport implements Transport
+{
+    // The queues, indexed by sender and then receiver, shared by every end.
+    private final BlockingQueue<byte[]>[][] queues;
+    // The rank of this end.
+    private final int rank;
+
+    /**
+     * Create one end of the transport.
+     */
+    private InProcessTransport(BlockingQueue<byte[]>[][] queues, int rank)
+    {
+        this.queues = queues;
+        this.rank = rank;
+    }
+
+    /**
+     * Create a connected transport for the given number of ranks.
+     * @param size The number of ranks.
+     * @return The ends, indexed by rank.
+     */
+    public static InProcessTransport[] connect(int size)
+    {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        BlockingQueue<byte[]>[][] queues = new BlockingQueue[size][size];
+        for(int from = 0; from < size; from++) {
+            for(int to = 0; to < size; to++) {
+                queues[from][to] = new LinkedBlockingQueue<>();
+            }
+        }
+        InProcessTransport[] ends = new InProcessTransport[size];
+        for(int r = 0; r < size; r++) {
+            ends[r] = new InProcessTransport(queues, r);
+        }
+        return ends;
+    }
+
+    public int getRank()
+    {
+        return rank;
+    }
+
+    public int getSize()
+    {
+        return queues.length;
+    }
+
+    public void send(int to, byte[] message)
+    {
+        queues[rank][to].add(message);
+    }
+
+    public byte[] receive(int from) throws IOException
+    {
+        try {
+            return queues[from][rank].take();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for rank " + from);
+        }
+    }
+
+    /**
+     * Nothing to release: the queues go when the last end is dropped.
+     */
+    public void close()
+    {
+    }
+}
@@ -0,0 +1,912 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long-running service that runs simulation jobs for several users
+ * on a pool of warm worker processes, instead of each user starting a
+ * JVM of their own. Jobs (see SimulationJob) arrive over a socket on
+ * the loopback interface, or as files dropped into a directory.
+ *
+ * Simulations keep the parameters of the animal classes and the random
+ * generator in static state, so a process can only run one slice of a
+ * job at a time. The server therefore starts a JobWorker process for
+ * each core, joined to it by a SocketTransport, and a thread for each
+ * worker that hands it slices and collects their results. A job's
+ * simulation stays in the worker that started it, which keeps it warm;
+ * new jobs go to whichever worker is free first. A server made with
+ * the constructor, rather than launch, runs slices on a single thread
+ * of its own process instead.
+ *
+ * Jobs are queued per user and run in slices of SLICE steps, taking
+ * the users in turn, so each user with work waiting gets an equal
+ * share however many jobs they have queued, and a short job is not
+ * stuck behind a long one. A user's own jobs start in the order sent,
+ * and run side by side when there are more workers than users. The
+ * other threads only read jobs and write results: a bounded pool reads
+ * each job as it arrives, and another pool writes out the results of a
+ * job after each of its slices, so no thread is tied up by a job while
+ * it waits for its turn.
+ *
+ * A job may not use a field of more than DEFAULT_MAX_CELLS cells, so
+ * one job cannot take all the memory of a worker, and a slice that
+ * fails anyway, even running out of memory, ends only its own job. A
+ * worker that is lost all the same is started again, after the jobs
+ * that were running in it end with an error. A job can only export its
+ * population series to a file in the server's export directory.
+ *
+ * There are three kinds of backpressure. A connection is refused, as
+ * busy, when IO_BACKLOG connections and files are already waiting to
+ * be read. A job is refused, as busy, when the server or its user
+ * already has as many jobs queued as allowed; files in the drop
+ * directory are only taken while there is room for them, counting
+ * those taken and not yet queued, and are otherwise left for a later
+ * look. And a job whose results are not being read fast enough is
+ * passed over until its reader catches up.
+ *
+ * Over a socket, a client sends the job's properties one per line,
+ * then a line "run". The server answers "queued id" and the results,
+ * or "busy reason" or "error reason". For example:
+ * <pre>
+ *   printf 'user=alice\nsteps=500\nevery=50\nrun\n' | nc localhost 47000
+ * </pre>
+ * A file dropped in the directory must end in ".job". It is renamed to
+ * ".running" when taken, its results are written beside it to ".out",
+ * and it is renamed to ".done" at the end. Its user is the file's owner
+ * unless the file says otherwise.
+ *
+ * Usage: java JobServer [port] [dropDirectory] [workers] [exportDirectory]
+ *
+ * The links to the workers use the ports after the server's, two for
+ * each. A drop directory of "-" watches none; there is a worker for
+ * each core unless a number is given; exports go to "job-exports" in
+ * the working directory unless a directory is given.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class JobServer implements Closeable
+{
+    // The port listened on when none is given.
+    public static final int DEFAULT_PORT = 47000;
+    // The default number of jobs that may be queued or running.
+    public static final int DEFAULT_MAX_QUEUED = 64;
+    // The default number of those that may be one user's.
+    public static final int DEFAULT_MAX_PER_USER = 8;
+    // The default number of cells a job's field may have.
+    public static final long DEFAULT_MAX_CELLS = 4_000_000;
+    // The directory exports go to when none is given.
+    public static final String DEFAULT_EXPORT_DIRECTORY = "job-exports";
+    // The number of steps a job runs before the next user's turn.
+    private static final int SLICE = 50;
+    // The number of threads reading jobs, and the number writing results.
+    private static final int IO_THREADS = 16;
+    // The number of connections and files that may wait to be read.
+    private static final int IO_BACKLOG = 64;
+    // How often the drop directory is looked at, in milliseconds.
+    private static final long DROP_INTERVAL = 1000;
+    // How long to wait for the workers to stop, in milliseconds.
+    private static final long STOP_TIMEOUT = 10_000;
+
+    // The jobs queued for each user, first to run at the head. Guarded by this.
+    private final Map<String, Deque<SimulationJob>> queues = new HashMap<>();
+    // The users with jobs queued, in turn order. Guarded by this.
+    private final Deque<String> turns = new ArrayDeque<>();
+    // The number of jobs queued or running. Guarded by this.
+    private int queued;
+    // The number of files taken from the drop directory and not yet
+    // queued or refused, each holding a place. Guarded by this.
+    private int reserved;
+    // The number of the next job. Guarded by this.
+    private long nextId = 1;
+    // The rank of the worker each started job is running in. Guarded by this.
+    private final Map<SimulationJob, Integer> placed = new HashMap<>();
+    // The jobs with a slice running. Guarded by this.
+    private final Set<SimulationJob> busy = new HashSet<>();
+    // The limits on queued jobs.
+    private final int maxQueued, maxPerUser;
+    // The most cells a job's field may have.
+    private volatile long maxCells = DEFAULT_MAX_CELLS;
+    // The directory jobs export to, or null if they may not export.
+    private volatile File exportDirectory;
+    // The threads that read jobs.
+    private final ExecutorService io;
+    // The threads that write results.
+    private final ExecutorService output;
+    // The link to each worker process, indexed by rank from 1, or null
+    // to run jobs in this one. A lost worker's slot is replaced by its
+    // runner; guarded by this.
+    private final Transport[] workers;
+    // The worker processes, indexed as their links. Guarded by this.
+    private final Process[] processes;
+    // The port of the server's end of the link to the first worker.
+    private final int basePort;
+    // The threads running slices, one for each worker.
+    private final List<Thread> runners = new ArrayList<>();
+    // Whether the server is running.
+    private volatile boolean running = true;
+    // The socket listened on, if any.
+    private ServerSocket server;
+
+    /**
+     * Start a server with the given limits that runs slices on a thread
+     * of this process, one at a time. It takes jobs through submit
+     * until listen or watch is also called.
+     * @param maxQueued The most jobs queued or running at once.
+     * @param maxPerUser The most of those that may be one user's.
+     */
+    public JobServer(int maxQueued, int maxPerUser)
+    {
+        this(maxQueued, maxPerUser, 0, 0);
+        startRunners();
+    }
+
+    /**
+     * Start a server with the given limits that runs slices in worker
+     * processes on this machine, one at a time in each.
+     * @param maxQueued The most jobs queued or running at once.
+     * @param maxPerUser The most of those that may be one user's.
+     * @param workers The number of worker processes.
+     * @param basePort The port for the server's end of the link to the
+     *                 first worker. Each worker's link uses two ports,
+     *                 one at each end, in turn from this one.
+     * @return The server.
+     * @throws IOException If the processes cannot be started or reached.
+     */
+    public static JobServer launch(int maxQueued, int maxPerUser, int workers, int basePort) throws IOException
+    {
+        JobServer jobServer = new JobServer(maxQueued, maxPerUser, workers, basePort);
+        try {
+            for(int rank = 1; rank <= workers; rank++) {
+                jobServer.connect(rank);
+            }
+        }
+        catch(IOException e) {
+            jobServer.close();
+            throw e;
+        }
+        jobServer.startRunners();
+        return jobServer;
+    }
+
+    /**
+     * Create a server that runs slices in the given number of worker
+     * processes, or in this process if there are none. Neither the
+     * workers nor the runners are started.
+     */
+    private JobServer(int maxQueued, int maxPerUser, int workerCount, int basePort)
+    {
+        this.maxQueued = maxQueued;
+        this.maxPerUser = maxPerUser;
+        io = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 0, TimeUnit.MILLISECONDS,
+                                    new ArrayBlockingQueue<>(IO_BACKLOG), daemons("job-io"));
+        // Each job has at most one write waiting, so this queue is
+        // bounded by the limit on jobs.
+        output = Executors.newFixedThreadPool(IO_THREADS, daemons("job-output"));
+        workers = workerCount == 0 ? null : new Transport[workerCount + 1];
+        processes = new Process[workerCount + 1];
+        this.basePort = basePort;
+    }
+
+    /**
+     * Start a thread running slices for each worker, or a single one
+     * running them in this process if there are no workers.
+     */
+    private void startRunners()
+    {
+        int ranks = workers == null ? 1 : workers.length;
+        for(int rank = workers == null ? 0 : 1; rank < ranks; rank++) {
+            int worker = rank;
+            Thread runner = new Thread(() -> runSlices(worker), "job-runner-" + rank);
+            runner.setDaemon(true);
+            runner.start();
+            runners.add(runner);
+        }
+    }
+
+    /**
+     * Start the process of a worker and link to it. The worker is rank
+     * 1 and the server rank 0 of a transport of their own.
+     * @param rank The rank of the worker, from 1.
+     * @throws IOException If the process cannot be started or reached.
+     */
+    private void connect(int rank) throws IOException
+    {
+        String port = String.valueOf(basePort + 2 * (rank - 1));
+        Process process = SocketTransport.start("JobWorker", "1", "2", port);
+        synchronized(this) {
+            processes[rank] = process;
+        }
+        Transport link = new SocketTransport(0, 2, Integer.parseInt(port));
+        synchronized(this) {
+            workers[rank] = link;
+        }
+    }
+
+    /**
+     * Start a lost worker again, in a new process.
+     * @param rank The rank of the worker.
+     * @return true if the new worker is ready for jobs.
+     */
+    private boolean restart(int rank)
+    {
+        Transport link;
+        Process process;
+        synchronized(this) {
+            link = workers[rank];
+            process = processes[rank];
+            workers[rank] = null;
+        }
+        try {
+            process.destroyForcibly().waitFor(STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+            link.close();
+        }
+        catch(IOException e) {
+            // The link is broken already.
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try {
+            connect(rank);
+            System.err.println("Job server: worker " + rank + " started again");
+            return true;
+        }
+        catch(IOException e) {
+            System.err.println("Job server: worker " + rank + " could not be started again: " + e);
+            Process started;
+            synchronized(this) {
+                started = processes[rank];
+            }
+            started.destroy();
+            return false;
+        }
+    }
+
+    /**
+     * Return a factory of daemon threads with the given name.
+     */
+    private static ThreadFactory daemons(String name)
+    {
+        return task -> {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Set the most cells a job's field may have. Larger jobs are refused.
+     * @param cells The number of cells.
+     */
+    public void setMaxCells(long cells)
+    {
+        maxCells = cells;
+    }
+
+    /**
+     * Set the directory jobs may export their population series to.
+     * A job names only the file, which is written there.
+     * @param directory The directory, which is created if need be, or
+     *                  null to refuse jobs that export.
+     * @throws IOException If the directory cannot be created.
+     */
+    public void setExportDirectory(File directory) throws IOException
+    {
+        if(directory != null) {
+            Files.createDirectories(directory.toPath());
+            directory = directory.getCanonicalFile();
+        }
+        exportDirectory = directory;
+    }
+
+    /**
+     * Queue a job.
+     * @param description The job's properties.
+     * @return The job, whose results can then be written with its streamTo.
+     * @throws RejectedExecutionException If the server or the user has
+     *                                    too many jobs queued already.
+     * @throws IllegalArgumentException If the description is not valid.
+     */
+    public SimulationJob submit(Properties description)
+    {
+        return submit(description, false);
+    }
+
+    /**
+     * Queue a job, perhaps in a place held for it, which is given up
+     * whether or not the job is queued.
+     */
+    private synchronized SimulationJob submit(Properties description, boolean held)
+    {
+        if(held) {
+            reserved--;
+        }
+        String user = description.getProperty("user", "anonymous");
+        Deque<SimulationJob> queue = queues.get(user);
+        if(queued + reserved >= maxQueued) {
+            throw new RejectedExecutionException("server has " + queued + " jobs queued");
+        }
+        if(queue != null && queue.size() >= maxPerUser) {
+            throw new RejectedExecutionException(user + " has " + queue.size() + " jobs queued");
+        }
+        SimulationJob job = new SimulationJob(nextId++, exportIn(description));
+        if(job.getCells() > maxCells) {
+            throw new IllegalArgumentException("A field of " + job.getCells() + " cells is over the limit of "
+                                               + maxCells);
+        }
+        if(queue == null) {
+            queue = new ArrayDeque<>();
+            queues.put(user, queue);
+            turns.addLast(user);
+        }
+        queue.addLast(job);
+        queued++;
+        notifyAll();
+        return job;
+    }
+
+    /**
+     * Return a job's description with the file it exports to, if any,
+     * placed in the export directory.
+     * @throws IllegalArgumentException If the job may not export, or
+     *                                  names more than a file.
+     */
+    private Properties exportIn(Properties description)
+    {
+        String name = description.getProperty("export");
+        if(name == null) {
+            return description;
+        }
+        File directory = exportDirectory;
+        if(directory == null) {
+            throw new IllegalArgumentException("This server does not export");
+        }
+        name = name.trim();
+        if(name.isEmpty() || name.equals(".") || name.equals("..") || !new File(name).getName().equals(name)) {
+            throw new IllegalArgumentException("Export must name a file, not a path: " + name);
+        }
+        Properties placed = (Properties) description.clone();
+        placed.setProperty("export", new File(directory, name).getPath());
+        return placed;
+    }
+
+    /**
+     * Hold a place for a job, if there is room for one.
+     * @return true if a place is held.
+     */
+    private synchronized boolean reserve()
+    {
+        if(queued + reserved >= maxQueued) {
+            return false;
+        }
+        reserved++;
+        return true;
+    }
+
+    /**
+     * Give up a place held for a job that will not be submitted.
+     */
+    private synchronized void release()
+    {
+        reserved--;
+    }
+
+    /**
+     * @return The number of jobs queued or running.
+     */
+    public synchronized int getQueued()
+    {
+        return queued;
+    }
+
+    /**
+     * Take jobs over a socket on the loopback interface.
+     * @param port The port to listen on.
+     * @throws IOException If the port cannot be listened on.
+     */
+    public void listen(int port) throws IOException
+    {
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            while(running) {
+                try {
+                    Socket socket = server.accept();
+                    try {
+                        io.execute(() -> serve(socket));
+                    }
+                    catch(RejectedExecutionException e) {
+                        refuse(socket);
+                    }
+                }
+                catch(IOException e) {
+                    if(running) {
+                        System.err.println("Job server: " + e);
+                    }
+                }
+            }
+        }, "job-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Take jobs from files dropped into a directory.
+     * @param directory The directory to look in.
+     */
+    public void watch(File directory)
+    {
+        Thread watcher = new Thread(() -> {
+            while(running) {
+                File[] dropped = directory.listFiles((dir, name) -> name.endsWith(".job"));
+                if(dropped != null) {
+                    Arrays.sort(dropped);
+                    for(File file : dropped) {
+                        take(file);
+                    }
+                }
+                try {
+                    Thread.sleep(DROP_INTERVAL);
+                }
+                catch(InterruptedException e) {
+                    return;
+                }
+            }
+        }, "job-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Stop taking and running jobs. Jobs not yet finished end with an error.
+     */
+    public void close() throws IOException
+    {
+        running = false;
+        if(server != null) {
+            server.close();
+        }
+        synchronized(this) {
+            for(Deque<SimulationJob> queue : queues.values()) {
+                for(SimulationJob job : queue) {
+                    job.fail("server stopped");
+                    job.flush();
+                }
+            }
+            notifyAll();
+        }
+        io.shutdown();
+        output.shutdown();
+        try {
+            // A runner finishes the slice it is waiting for first.
+            for(Thread runner : runners) {
+                runner.join(STOP_TIMEOUT);
+            }
+            if(workers != null) {
+                for(int rank = 1; rank < workers.length; rank++) {
+                    send(rank, new byte[] { JobWorker.STOP });
+                }
+                for(int rank = 1; rank < workers.length; rank++) {
+                    Process process;
+                    Transport link;
+                    synchronized(this) {
+                        process = processes[rank];
+                        link = workers[rank];
+                    }
+                    if(process != null && !process.waitFor(STOP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                        process.destroy();
+                    }
+                    try {
+                        if(link != null) {
+                            link.close();
+                        }
+                    }
+                    catch(IOException e) {
+                        // A lost worker's link fails to close; its jobs have ended already.
+                        System.err.println("Job server: " + e);
+                    }
+                }
+            }
+            io.awaitTermination(STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+            output.awaitTermination(STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Body of a runner thread: run a slice of the next job that can
+     * run on its worker, taking the users in turn, until the server
+     * stops. A worker that cannot be reached is started again; if that
+     * fails, the runner stops.
+     * @param rank The rank of the worker, or 0 to run in this process.
+     */
+    private void runSlices(int rank)
+    {
+        while(running) {
+            if(workers != null && !isAlive(rank)) {
+                // Found gone between slices: start it again before it is given a job.
+                lose(rank, "worker exited");
+                if(!restart(rank)) {
+                    return;
+                }
+            }
+            SimulationJob job;
+            boolean start;
+            synchronized(this) {
+                job = nextJob(rank);
+                if(job == null) {
+                    try {
+                        wait(100);
+                    }
+                    catch(InterruptedException e) {
+                        return;
+                    }
+                    continue;
+                }
+                start = placed.putIfAbsent(job, rank) == null;
+                busy.add(job);
+            }
+            try {
+                if(workers == null) {
+                    job.runSlice(SLICE);
+                }
+                else {
+                    Transport link = workers[rank];
+                    if(start) {
+                        link.send(1, JobWorker.start(job));
+                    }
+                    link.send(1, JobWorker.slice(job, SLICE));
+                    JobWorker.deliver(link.receive(1), job);
+                }
+            }
+            catch(IOException e) {
+                System.err.println("Job server: worker " + rank + ": " + e);
+                lose(rank, "worker lost: " + e);
+                if(!running || !restart(rank)) {
+                    return;
+                }
+            }
+            finally {
+                synchronized(this) {
+                    busy.remove(job);
+                    notifyAll();
+                }
+                job.flush();
+            }
+        }
+    }
+
+    /**
+     * End the jobs running in a worker that cannot be reached, and
+     * forget where they ran, so that none is sent to the worker that
+     * replaces it.
+     */
+    private synchronized void lose(int rank, String reason)
+    {
+        for(Iterator<Map.Entry<SimulationJob, Integer>> it = placed.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<SimulationJob, Integer> entry = it.next();
+            if(entry.getValue() == rank) {
+                entry.getKey().fail(reason);
+                entry.getKey().flush();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return true if the process of a worker is running.
+     */
+    private synchronized boolean isAlive(int rank)
+    {
+        return processes[rank] != null && processes[rank].isAlive();
+    }
+
+    /**
+     * Find the next job to run on a worker, dropping those that have
+     * finished. A job can run if no slice of it is running, it is new
+     * or running in that worker, and there is room for its results.
+     * The user whose job is chosen goes to the back of the turns.
+     * @param rank The rank of the worker.
+     * @return The job, or null if none can run now.
+     */
+    private SimulationJob nextJob(int rank)
+    {
+        int users = turns.size();
+        for(int u = 0; u < users; u++) {
+            String user = turns.pollFirst();
+            Deque<SimulationJob> queue = queues.get(user);
+            SimulationJob chosen = null;
+            for(Iterator<SimulationJob> it = queue.iterator(); it.hasNext() && chosen == null; ) {
+                SimulationJob job = it.next();
+                if(busy.contains(job)) {
+                    continue;
+                }
+                if(job.isFinished()) {
+                    it.remove();
+                    forget(job);
+                    continue;
+                }
+                Integer at = placed.get(job);
+                if((at == null || at == rank) && job.hasRoomFor(SLICE)) {
+                    chosen = job;
+                }
+            }
+            if(queue.isEmpty()) {
+                queues.remove(user);
+                continue;
+            }
+            turns.addLast(user);
+            if(chosen != null) {
+                return chosen;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Take a finished job off the books, and out of its worker.
+     */
+    private void forget(SimulationJob job)
+    {
+        queued--;
+        notifyAll();
+        Integer rank = placed.remove(job);
+        if(rank != null && workers != null) {
+            send(rank, JobWorker.drop(job));
+        }
+    }
+
+    /**
+     * Send a command to a worker, which may have gone already.
+     */
+    private void send(int rank, byte[] command)
+    {
+        Transport link;
+        synchronized(this) {
+            link = workers[rank];
+        }
+        if(link == null) {
+            return;
+        }
+        try {
+            link.send(1, command);
+        }
+        catch(IOException e) {
+            // The worker is lost, and its jobs with it.
+        }
+    }
+
+    /**
+     * Read a job from a socket, queue it and send back its results. The
+     * socket is closed once they have been sent.
+     */
+    private void serve(Socket client)
+    {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8);
+            StringBuilder text = new StringBuilder();
+            String line;
+            while((line = in.readLine()) != null && !line.trim().equals("run")) {
+                text.append(line).append('\n');
+            }
+            if(run(new StringReader(text.toString()), null, false, out, () -> close(client))) {
+                return;
+            }
+        }
+        catch(IOException | RuntimeException e) {
+            // The client went away; its job, if any, has been cancelled.
+        }
+        close(client);
+    }
+
+    /**
+     * Tell a client the server is too busy to read its job, and hang up.
+     * Runs on the accepting thread, so only waits briefly.
+     */
+    private static void refuse(Socket client)
+    {
+        try {
+            client.setSoTimeout(1000);
+            Writer out = new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8);
+            out.write("busy server has " + IO_BACKLOG + " jobs waiting to be read\n");
+            out.flush();
+        }
+        catch(IOException e) {
+            // The client has gone already.
+        }
+        close(client);
+    }
+
+    /**
+     * Close a socket, ignoring failure.
+     */
+    private static void close(Socket client)
+    {
+        try {
+            client.close();
+        }
+        catch(IOException e) {
+            // Nothing more can be sent to it anyway.
+        }
+    }
+
+    /**
+     * Take a file from the drop directory if there is room for it.
+     */
+    private void take(File file)
+    {
+        if(!reserve()) {
+            return;
+        }
+        String base = file.getPath().substring(0, file.getPath().length() - ".job".length());
+        File taken = new File(base + ".running");
+        if(!file.renameTo(taken)) {
+            release();
+            return;
+        }
+        try {
+            io.execute(() -> runFile(file, taken, base));
+        }
+        catch(RejectedExecutionException e) {
+            release();
+            taken.renameTo(file);
+        }
+    }
+
+    /**
+     * Queue a job taken from the drop directory, in the place held for
+     * it, and write its results beside it.
+     * @param file The file as it was dropped.
+     * @param taken The file renamed as taken.
+     * @param base The file's path without its suffix.
+     */
+    private void runFile(File file, File taken, String base)
+    {
+        File done = new File(base + ".done");
+        Writer out = null;
+        try(Reader in = Files.newBufferedReader(taken.toPath(), StandardCharsets.UTF_8)) {
+            out = Files.newBufferedWriter(new File(base + ".out").toPath(), StandardCharsets.UTF_8);
+            Writer results = out;
+            String owner = Files.getOwner(taken.toPath()).getName();
+            if(run(in, owner, true, out, () -> finishFile(results, taken, done))) {
+                return;
+            }
+            // Refused as busy: put it back for a later look.
+            out.close();
+            taken.renameTo(file);
+            return;
+        }
+        catch(IOException | RuntimeException e) {
+            System.err.println("Job server: " + file + ": " + e);
+        }
+        finishFile(out, taken, done);
+    }
+
+    /**
+     * Close the results of a job from the drop directory and mark it done.
+     */
+    private static void finishFile(Writer out, File taken, File done)
+    {
+        if(out != null) {
+            try {
+                out.close();
+            }
+            catch(IOException e) {
+                System.err.println("Job server: " + done + ": " + e);
+            }
+        }
+        taken.renameTo(done);
+    }
+
+    /**
+     * Queue a job read from a description and start writing its results.
+     * @param description The job's properties.
+     * @param user The user to give the job if it names none, or null.
+     * @param held Whether a place is held for the job; it is given up
+     *             whatever happens.
+     * @param out Where to write the results.
+     * @param onEnd Run once the results have all been written, or
+     *              cannot be.
+     * @return false if the job was refused as busy; if true, onEnd has
+     *         been or will be run.
+     * @throws IOException If the description cannot be read or the
+     *                     results cannot be written; onEnd is not run.
+     */
+    private boolean run(Reader description, String user, boolean held, Writer out, Runnable onEnd) throws IOException
+    {
+        Properties properties = new Properties();
+        try {
+            properties.load(description);
+        }
+        catch(IOException | RuntimeException e) {
+            if(held) {
+                release();
+            }
+            throw e;
+        }
+        if(user != null && properties.getProperty("user") == null) {
+            properties.setProperty("user", user);
+        }
+        SimulationJob job;
+        try {
+            job = submit(properties, held);
+        }
+        catch(RejectedExecutionException e) {
+            out.write("busy " + e.getMessage() + "\n");
+            out.flush();
+            return false;
+        }
+        catch(IllegalArgumentException e) {
+            out.write("error " + e.getMessage() + "\n");
+            out.flush();
+            onEnd.run();
+            return true;
+        }
+        try {
+            out.write("queued " + job.getId() + "\n");
+        }
+        catch(IOException e) {
+            job.fail("client went away");
+            throw e;
+        }
+        job.streamTo(out, output, onEnd);
+        return true;
+    }
+
+    /**
+     * Run a job server until the process is stopped.
+     * @param args The port, and optionally a directory to watch for jobs,
+     *             the number of workers and the directory to export to.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        JobServer jobServer = launch(DEFAULT_MAX_QUEUED, DEFAULT_MAX_PER_USER, workers, port + 1);
+        jobServer.setExportDirectory(new File(args.length > 3 ? args[3] : DEFAULT_EXPORT_DIRECTORY));
+        jobServer.listen(port);
+        System.out.println("Taking jobs on port " + port + ", running them in " + workers + " workers");
+        if(args.length > 1 && !args[1].equals("-")) {
+            jobServer.watch(new File(args[1]));
+            System.out.println("Taking jobs dropped in " + args[1]);
+        }
+        // The server's threads are daemons, so wait here for good.
+        for(Thread runner : jobServer.runners) {
+            runner.join();
+        }
+    }
+}
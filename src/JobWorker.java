@@ -0,0 +1,219 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A process that runs slices of jobs for the JobServer, which is rank
+ * 0 of their transport. Simulations keep the parameters of the animal
+ * classes and the random generator in static state, so each process
+ * runs one slice at a time, but the server keeps a process busy on
+ * each core. The simulation of a job stays in the process that started
+ * it, which keeps it warm from one slice to the next.
+ *
+ * The server sends a job's description once, then asks for a slice
+ * at a time, and is sent back the result lines of each slice and
+ * whether the job has finished. It drops the job once it is done with
+ * it.
+ *
+ * Usage: java JobWorker rank size basePort
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class JobWorker
+{
+    // Commands from the server.
+    static final byte START = 1;
+    static final byte SLICE = 2;
+    static final byte DROP = 3;
+    static final byte STOP = 4;
+    // Replies to the server.
+    static final byte RESULTS = 5;
+
+    // The link to the server.
+    private final Transport transport;
+    // The jobs started here, by number.
+    private final Map<Long, SimulationJob> jobs = new HashMap<>();
+
+    /**
+     * Create the worker for a rank of the transport.
+     * @param transport The transport to the server.
+     */
+    public JobWorker(Transport transport)
+    {
+        this.transport = transport;
+    }
+
+    /**
+     * Carry out the server's commands until told to stop.
+     * @throws IOException If the link fails.
+     */
+    public void serve() throws IOException
+    {
+        while(true) {
+            ByteBuffer command = ByteBuffer.wrap(transport.receive(0));
+            byte tag = command.get();
+            switch(tag) {
+                case START: {
+                    long id = VarInts.readUnsigned(command);
+                    Properties description = new Properties();
+                    description.load(new StringReader(readText(command)));
+                    jobs.put(id, new SimulationJob(id, description));
+                    break;
+                }
+                case SLICE: {
+                    long id = VarInts.readUnsigned(command);
+                    int steps = (int) VarInts.readUnsigned(command);
+                    SimulationJob job = jobs.get(id);
+                    if(job == null) {
+                        throw new IOException("Unknown job " + id);
+                    }
+                    job.runSlice(steps);
+                    transport.send(0, results(job));
+                    break;
+                }
+                case DROP: {
+                    SimulationJob job = jobs.remove(VarInts.readUnsigned(command));
+                    if(job != null) {
+                        // Close its export, if it did not finish here.
+                        job.fail("dropped");
+                    }
+                    break;
+                }
+                case STOP:
+                    return;
+                default:
+                    throw new IOException("Unknown command " + tag);
+            }
+        }
+    }
+
+    /**
+     * Encode the results of a job's slice.
+     */
+    private static byte[] results(SimulationJob job)
+    {
+        List<String> lines = job.takeResults();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(RESULTS);
+        out.write(job.isFinished() ? 1 : 0);
+        VarInts.writeUnsigned(out, lines.size());
+        for(String line : lines) {
+            writeText(out, line);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encode the command that starts a job.
+     * @param job The job.
+     * @return The command.
+     */
+    static byte[] start(SimulationJob job)
+    {
+        StringWriter text = new StringWriter();
+        try {
+            job.getDescription().store(text, null);
+        }
+        catch(IOException e) {
+            // A StringWriter does not fail.
+            throw new IllegalStateException(e);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(START);
+        VarInts.writeUnsigned(out, job.getId());
+        writeText(out, text.toString());
+        return out.toByteArray();
+    }
+
+    /**
+     * Encode the command that runs a slice of a job.
+     * @param job The job.
+     * @param steps The most steps to run.
+     * @return The command.
+     */
+    static byte[] slice(SimulationJob job, int steps)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(SLICE);
+        VarInts.writeUnsigned(out, job.getId());
+        VarInts.writeUnsigned(out, steps);
+        return out.toByteArray();
+    }
+
+    /**
+     * Encode the command that drops a job.
+     * @param job The job.
+     * @return The command.
+     */
+    static byte[] drop(SimulationJob job)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(DROP);
+        VarInts.writeUnsigned(out, job.getId());
+        return out.toByteArray();
+    }
+
+    /**
+     * Hand the results of a slice, as sent back by a worker, to the job.
+     * @param reply The reply to the slice command.
+     * @param job The job.
+     * @throws IOException If the reply is not results.
+     */
+    static void deliver(byte[] reply, SimulationJob job) throws IOException
+    {
+        ByteBuffer in = ByteBuffer.wrap(reply);
+        DomainWorker.expect(in, RESULTS);
+        boolean finished = in.get() != 0;
+        int count = (int) VarInts.readUnsigned(in);
+        String[] lines = new String[count];
+        for(int i = 0; i < count; i++) {
+            lines[i] = readText(in);
+        }
+        job.addResults(List.of(lines), finished);
+    }
+
+    /**
+     * Write a string as its length and UTF-8 bytes.
+     */
+    private static void writeText(ByteArrayOutputStream out, String text)
+    {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        VarInts.writeUnsigned(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    /**
+     * Read a string written by writeText.
+     */
+    private static String readText(ByteBuffer in)
+    {
+        byte[] bytes = new byte[(int) VarInts.readUnsigned(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Run a worker in its own process over loopback sockets.
+     * @param args rank, size and base port.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length != 3) {
+            System.out.println("Usage: java JobWorker rank size basePort");
+            return;
+        }
+        int rank = Integer.parseInt(args[0]);
+        int size = Integer.parseInt(args[1]);
+        try(SocketTransport transport = new SocketTransport(rank, size, Integer.parseInt(args[2]))) {
+            new JobWorker(transport).serve();
+        }
+    }
+}
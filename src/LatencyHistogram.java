@@ -0,0 +1,115 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size histogram of durations, or any other positive values,
+ * that can be recorded into from any thread without locks. Values are
+ * counted in buckets that split each power of two into SUB_BUCKETS, so
+ * a percentile read back is within an eighth of the true value however
+ * widely the values range, in BUCKETS counters in all.
+ *
+ * The counts are taken out in windows: takeCounts returns the counts
+ * since it was last called, which percentile then reads.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class LatencyHistogram
+{
+    // The number of bits of a value kept below its leading bit.
+    private static final int SUB_BITS = 3;
+    // The number of buckets each power of two is split into.
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // The number of buckets, enough for any positive long.
+    public static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    // The count in each bucket since the counts were last taken.
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Count a value.
+     * @param value The value; negative values count as zero.
+     */
+    public void record(long value)
+    {
+        counts.incrementAndGet(bucketOf(Math.max(0, value)));
+    }
+
+    /**
+     * Return the counts since the last call and start again from zero.
+     * Values recorded meanwhile fall into one window or the next.
+     * @return The count in each bucket.
+     */
+    public long[] takeCounts()
+    {
+        long[] taken = new long[BUCKETS];
+        for(int b = 0; b < BUCKETS; b++) {
+            if(counts.get(b) != 0) {
+                taken[b] = counts.getAndSet(b, 0);
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * Return the bucket a value is counted in.
+     */
+    private static int bucketOf(long value)
+    {
+        if(value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int top = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (top - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (top - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Return the middle of the values counted in a bucket.
+     */
+    private static long middleOf(int bucket)
+    {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int top = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (top - SUB_BITS);
+        return low + (1L << (top - SUB_BITS) >> 1);
+    }
+
+    /**
+     * @param counts Counts taken from a histogram.
+     * @return The number of values counted.
+     */
+    public static long total(long[] counts)
+    {
+        long total = 0;
+        for(long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Return a percentile of the values counted.
+     * @param counts Counts taken from a histogram.
+     * @param percent The percentile, from 0 to 100.
+     * @return The value below which that percent of the values fall,
+     *         or 0 if none were counted.
+     */
+    public static long percentile(long[] counts, double percent)
+    {
+        long total = total(counts);
+        if(total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percent / 100));
+        long seen = 0;
+        for(int b = 0; b < counts.length; b++) {
+            seen += counts[b];
+            if(seen >= rank) {
+                return middleOf(b);
+            }
+        }
+        return middleOf(counts.length - 1);
+    }
+}
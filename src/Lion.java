@@ -1,6 +1,9 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * A simple model of a lion.
@@ -12,10 +15,13 @@ import java.util.Random;
 public class Lion extends Animal {
     // Characteristics shared by all lions (class variables).
 
+    // The species code of lions.
+    public static final int SPECIES = 2;
+
     // The age at which a lion can start to breed.
     private static int BREEDING_AGE;
     // The age to which a lion can live.
-    private static final int MAX_AGE = 70;
+    static final int MAX_AGE = 70;
     // The likelihood of a lion breeding.
     private static double BREEDING_PROBABILITY;
     // The maximum number of births.
@@ -24,8 +30,18 @@ public class Lion extends Animal {
     // number of steps a lion can go before it has to eat again.
     private static int FOX_FOOD_VALUE;
     private static int RABBIT_FOOD_VALUE;
+    // The species in the lion's diet that each gender leaves alone, as a
+    // bit mask, indexed by gender: females leave foxes to the males and
+    // males leave rabbits to the females. Other prey are hunted by both.
+    private static final int[] LEFT_BY_GENDER = { 1 << Fox.SPECIES, 1 << Rabbit.SPECIES };
+    // How far away, in cells, a lion can sense prey.
+    private static int SENSING_RADIUS = 1;
     // A shared random number generator to control breeding.
     private static final Random rand = Randomizer.getRandom();
+    // Decides the number of births, specialised to the current parameters.
+    private static final BreedingKernels.Site BREEDING_SITE =
+        BreedingKernels.newSite(MethodHandles.lookup(), Lion.class);
+    private static final MethodHandle BREEDING_KERNEL = BREEDING_SITE.dynamicInvoker();
 
     // Individual characteristics (instance fields).
     // The lion's age.
@@ -49,7 +65,7 @@ public class Lion extends Animal {
      * @param ffv Fox food value passed from settings tab.
      */
     public Lion(boolean randomAge, Field field, Location location, int ba, double bp, int mls, int rfv, int ffv) {
-        super(field, location);
+        super(SPECIES, field, location);
         BREEDING_AGE = ba;
         BREEDING_PROBABILITY = bp;
         MAX_LITTER_SIZE = mls;
@@ -68,6 +84,21 @@ public class Lion extends Animal {
         }
     }
 
+    /**
+     * Recreate a lion from recorded state.
+     * @param field The field currently occupied.
+     * @param location The location within the field.
+     * @param age The lion's age.
+     * @param foodLevel The lion's food level.
+     * @param gender The lion's gender.
+     */
+    Lion(Field field, Location location, int age, int foodLevel, int gender) {
+        super(SPECIES, field, location);
+        this.age = age;
+        this.foodLevel = foodLevel;
+        this.gender = gender;
+    }
+
     /**
      * This is what the lion does most of the time: it hunts for
      * foxes and rabbits. In the process, it might breed, fight other male lions,
@@ -75,13 +106,36 @@ public class Lion extends Animal {
      * @param newLions A list to return newly born lions.
      */
     public void act(List<Animal> newLions) {
+        act(newLions, true);
+    }
+
+    /**
+     * Act, breeding only if asked to.
+     * @param newLions A list to return newly born lions.
+     * @param breed false if the lions are bred in bulk after acting.
+     */
+    void act(List<Animal> newLions, boolean breed) {
         incrementAge();
         incrementHunger();
+        actAged(newLions, breed);
+    }
+
+    /**
+     * Act once the lion has aged and gone hungry for the step, if it is
+     * still alive.
+     * @param newLions A list to return newly born lions.
+     * @param breed false if the lions are bred in bulk after acting.
+     */
+    private void actAged(List<Animal> newLions, boolean breed) {
         if(isAlive()) {
-            giveBirth(newLions);
+            if(breed)
+                giveBirth(newLions);
             //Move towards a source of food if found.
             Location newLocation = findFood();
             Location newLocation2 = fight();
+            if(newLocation == null && newLocation2 == null)
+                //None adjacent - head for prey further away, if sensed.
+                newLocation = approach(preyMask(gender), SENSING_RADIUS);
             if(newLocation == null && newLocation2 == null)
                 //No food found or males to fight - try to move to a free location.
                 newLocation = getField().freeAdjacentLocation(getLocation());
@@ -97,6 +151,129 @@ public class Lion extends Animal {
         }
     }
 
+    /**
+     * Let every lion in a population act, dropping those that have died.
+     * The loop lives here so that its act call only ever sees lions.
+     * @param lions The lions, in acting order.
+     * @param newLions A list to return newly born lions.
+     * @param breed false if the lions are bred in bulk after acting.
+     * @param columns The columns to age the lions in, all at once
+     *                before any acts, or null for each to age itself.
+     */
+    static void actAll(List<Animal> lions, List<Animal> newLions, boolean breed, AgeingColumns columns) {
+        int size = lions.size();
+        int[] ages = null;
+        int[] food = null;
+        long[] dead = null;
+        if(columns != null) {
+            ages = columns.ages(size);
+            food = columns.food(size);
+            for(int i = 0; i < size; i++) {
+                Lion lion = (Lion) lions.get(i);
+                ages[i] = lion.age;
+                food[i] = lion.foodLevel;
+            }
+            dead = columns.sweepAgeAndHunger(size, MAX_AGE);
+        }
+        int kept = 0;
+        for(int i = 0; i < size; i++) {
+            Lion lion = (Lion) lions.get(i);
+            if(dead == null) {
+                lion.act(newLions, breed);
+            } else if(AgeingColumns.dies(dead, i)) {
+                // A lion killed in a fight earlier in the turn is already dead.
+                lion.setDead();
+            } else {
+                lion.age = ages[i];
+                lion.foodLevel = food[i];
+                lion.actAged(newLions, breed);
+            }
+            if(lion.isAlive()) {
+                lions.set(kept++, lion);
+            }
+        }
+        lions.subList(kept, size).clear();
+    }
+
+    /**
+     * Breed every lion at once, tile by tile, at the bulk fidelity level.
+     * @param lions The lions, after acting.
+     * @param field The field they are in.
+     * @param newLions A list to return newly born lions.
+     * @param rng The generator to draw from.
+     */
+    static void breedAll(List<Animal> lions, Field field, List<Animal> newLions, SplittableRandom rng) {
+        BulkBreeding.breed(lions, field, BREEDING_AGE, BREEDING_PROBABILITY, MAX_LITTER_SIZE, false,
+                           Lion::newborn, newLions, rng);
+    }
+
+    /**
+     * Create a newborn lion with the current parameters.
+     * @param field The field to place it in.
+     * @param location A free location for it.
+     * @return The newborn.
+     */
+    static Lion newborn(Field field, Location location) {
+        return new Lion(false, field, location, BREEDING_AGE, BREEDING_PROBABILITY, MAX_LITTER_SIZE, RABBIT_FOOD_VALUE,
+                        FOX_FOOD_VALUE);
+    }
+
+    /**
+     * Create a lion with a random age and food level, drawing from the
+     * given generator rather than the shared one. Used to populate
+     * bands of the field in parallel.
+     * @param field The field currently occupied.
+     * @param location The location within the field.
+     * @param rng The generator to draw from.
+     * @return The new lion.
+     */
+    static Lion createRandom(Field field, Location location, SplittableRandom rng) {
+        int age = rng.nextInt(MAX_AGE);
+        int foodLevel = rng.nextInt(FOX_FOOD_VALUE);
+        return new Lion(field, location, age, foodLevel, rng.nextInt(2));
+    }
+
+    /**
+     * Change the parameters shared by all lions.
+     * @param ba Breeding age.
+     * @param bp Breeding probability.
+     * @param mls Max litter size.
+     * @param rfv Food value of rabbits.
+     * @param ffv Food value of foxes.
+     * @param sr Sensing radius.
+     * @param specialised true to specialise the breeding kernel to these
+     *                    parameters, false for the generic path.
+     */
+    public static void setParameters(int ba, double bp, int mls, int rfv, int ffv, int sr,
+                                     boolean specialised) {
+        BREEDING_AGE = ba;
+        BREEDING_PROBABILITY = bp;
+        MAX_LITTER_SIZE = mls;
+        BreedingKernels.bind(BREEDING_SITE, MethodHandles.lookup(), Lion.class, ba, bp, mls, specialised);
+        RABBIT_FOOD_VALUE = rfv;
+        FOX_FOOD_VALUE = ffv;
+        SENSING_RADIUS = sr;
+        SpeciesRegistry.get(SPECIES).setBreeding(ba, bp, mls);
+        SpeciesRegistry.get(SPECIES).setSensingRadius(sr);
+        SpeciesRegistry.setFoodValue(SPECIES, Rabbit.SPECIES, rfv);
+        SpeciesRegistry.setFoodValue(SPECIES, Fox.SPECIES, ffv);
+    }
+
+    /**
+     * @return The lion's age.
+     */
+    public int getAge() { return age; }
+
+    /**
+     * @return The lion's food level.
+     */
+    public int getFoodLevel() { return foodLevel; }
+
+    /**
+     * @return The lion's gender.
+     */
+    public int getGender() { return gender; }
+
     /**
      * Increase the age. This could result in the lion's death.
      */
@@ -121,33 +298,33 @@ public class Lion extends Animal {
      */
     private Location findFood() {
         Field field = getField();
+        int preyMask = preyMask(gender);
         List<Location> adjacent = field.adjacentLocations(getLocation());
         Iterator<Location> it = adjacent.iterator();
         while(it.hasNext()) {
             Location where = it.next();
-            Object animal = field.getObjectAt(where);
-            if(animal instanceof Fox && gender == 1) {
-                Fox fox = (Fox) animal;
-                if(fox.isAlive()) {
-                    fox.setDead();
-                    foodLevel = FOX_FOOD_VALUE;
-                    //Remove dead fox from field.
-                    return where;
-                }
-            }
-            else if(animal instanceof Rabbit && gender == 0) {
-                Rabbit rabbit = (Rabbit) animal;
-                if(rabbit.isAlive()) {
-                    rabbit.setDead();
-                    foodLevel = RABBIT_FOOD_VALUE;
-                    //Remove dead rabbit from field.
-                    return where;
-                }
+            Animal prey = (Animal) field.getObjectAt(where);
+            if(prey != null && (preyMask & 1 << prey.getSpecies()) != 0 && prey.isAlive()) {
+                prey.setEaten();
+                foodLevel = SpeciesRegistry.foodValue(SPECIES, prey.getSpecies());
+                recordMeal();
+                //Remove dead prey from field.
+                return where;
             }
         }
         return null;
     }
 
+    /**
+     * Return the species a lion of the given gender hunts: its share of
+     * the diet held in the species registry.
+     * @param gender The gender, 0 for female and 1 for male.
+     * @return The species hunted, one bit per species code.
+     */
+    static int preyMask(int gender) {
+        return SpeciesRegistry.preyMask(SPECIES) & ~LEFT_BY_GENDER[gender];
+    }
+
     /**
      * Check whether or not this fox is to give birth at this step.
      * New births will be made into free adjacent locations.
@@ -161,30 +338,25 @@ public class Lion extends Animal {
         int births = breed();
         for (int b = 0; b < births && free.size() > 0; b++) {
             Location loc = free.remove(0);
-            Lion young = new Lion(false, field, loc, BREEDING_AGE, BREEDING_PROBABILITY, MAX_LITTER_SIZE, RABBIT_FOOD_VALUE, FOX_FOOD_VALUE);
+            Lion young = newborn(field, loc);
             newLions.add(young);
+            recordBirth(young);
         }
     }
 
     /**#
      * Generate a number representing the number of births,
-     * if it can breed.
+     * if it can breed: it must be female and of breeding age.
      * @return The number of births (may be zero).
      */
     private int breed() {
-        int births = 0;
-        if(canBreed() && rand.nextDouble() <= BREEDING_PROBABILITY) {
-            births = rand.nextInt(MAX_LITTER_SIZE) + 1;
+        try {
+            return (int) BREEDING_KERNEL.invokeExact(age, gender);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Breeding kernel failed", e);
         }
-        return births;
     }
 
-    /**
-     * A lion can breed if it has reached the breeding age and is female.
-     * @return true if the lion can breed, false otherwise.
-     */
-    private boolean canBreed() { return age >= BREEDING_AGE && gender == 0; }
-
     /**
      * Check whether there is an adjacent male lion. If so kill it.
      * @return Where other lion was or null if there wasn't one.
@@ -195,8 +367,8 @@ public class Lion extends Animal {
         Iterator<Location> it = adjacent.iterator();
         while(it.hasNext()) {
             Location where = it.next();
-            Object animal = field.getObjectAt(where);
-            if (animal instanceof Lion && gender == 1) {
+            Animal animal = (Animal) field.getObjectAt(where);
+            if (animal != null && animal.getSpecies() == SPECIES && gender == 1) {
                 Lion lion = (Lion) animal;
                 if (lion.isAlive() && lion.gender == 1) {
                     lion.setDead();
@@ -45,14 +45,15 @@ public class Location
     }
     
     /**
-     * Use the top 16 bits for the row value and the bottom for
-     * the column. Except for very big grids, this should give a
-     * unique hash code for each (row, col) pair.
+     * Mix the row and column together as one 64-bit value. Unlike
+     * packing them into 16 bits each, this keeps collisions rare
+     * whatever the size of the grid.
      * @return A hashcode for the location.
      */
     public int hashCode()
     {
-        return (row << 16) + col;
+        long key = ((long) row << 32 | (col & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
     }
     
     /**
@@ -0,0 +1,440 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Run the densest parts of the field as rabbit densities rather than
+ * rabbits. The field is cut into tiles of SpatialOrder.TILE_SIZE cells.
+ * A tile whose share of rabbits rises above a high threshold becomes a
+ * continuum tile: its rabbits are taken out of the field and counted
+ * as a single number, which grows logistically and spreads to the
+ * tiles around it. It goes back to holding rabbits when its density
+ * falls below a low threshold. In a large bloom most of the rabbits
+ * are then a number per tile rather than objects that act every step.
+ *
+ * No rabbits are made or lost at the boundaries between the two kinds
+ * of tile. Rabbits that move or are born into a continuum tile join
+ * its density. Density that spreads into a rabbit tile is held there
+ * until it adds up to whole rabbits, which are then put on free cells;
+ * the fraction left over is kept. Predators in a continuum tile meet
+ * rabbits taken from the density around them at random, with the
+ * chance that each free neighbouring cell would hold one, and eat them
+ * in the usual way; those not eaten rejoin the density. Such rabbits
+ * only wait to be eaten: they neither move nor breed, as the density's
+ * growth already stands for their breeding.
+ *
+ * The growth rate is worked out from the rabbit parameters, assuming
+ * a crowded tile, in which nearly every female has mates to hand:
+ * r = (females of breeding age) * BP * (mean litter) * MATES - 1 / MAX_AGE.
+ * Other species are always simulated as animals. The history kept for
+ * rewinding and event recordings hold only the animals; a recording
+ * sees rabbits put on the field from a density, or taken back into
+ * one, arrive and leave with their age rather than be born and die.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class MeanFieldTiles
+{
+    // The default share of a tile's cells holding rabbits at which it becomes a continuum tile.
+    public static final double DEFAULT_HIGH = 0.5;
+    // The default share below which it goes back to holding rabbits.
+    public static final double DEFAULT_LOW = 0.2;
+    // The default share of the difference in density between two tiles
+    // that flows across the edge between them each step.
+    public static final double DEFAULT_DIFFUSION = 0.05;
+    // The number of mates assumed next to a female in a crowded tile.
+    private static final double MATES = 2;
+    // The number of solver steps per simulation step.
+    private static final int SUBSTEPS = 4;
+
+    // The size of the field.
+    private final int depth, width;
+    // The number of tiles down and across the field.
+    private final int tileRows, tileCols;
+    // The number of cells in each tile; tiles on the far edges may be cut short.
+    private final int[] cells;
+    // Whether each tile is a continuum tile.
+    private final boolean[] continuum;
+    // The rabbits each continuum tile holds, or in a rabbit tile the
+    // rabbits waiting to be put on free cells.
+    private final double[] mass;
+    // The rabbits in each tile as animals, counted each step.
+    private final int[] agents;
+    // The change in mass from spreading, worked out before any is applied.
+    private final double[] flow;
+    // The thresholds for switching between kinds of tile.
+    private double low = DEFAULT_LOW, high = DEFAULT_HIGH;
+    // The share of a density difference that flows between tiles each step.
+    private double diffusion = DEFAULT_DIFFUSION;
+    // The rate of growth of a density, per rabbit per step.
+    private double growth;
+    // The rabbits taken from densities for predators to meet this step.
+    private final List<Animal> drawn = new ArrayList<>();
+
+    /**
+     * Prepare tiles for a field of the given size. All start as rabbit tiles.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public MeanFieldTiles(int depth, int width)
+    {
+        this.depth = depth;
+        this.width = width;
+        int size = SpatialOrder.TILE_SIZE;
+        tileRows = (depth + size - 1) / size;
+        tileCols = (width + size - 1) / size;
+        int tiles = tileRows * tileCols;
+        cells = new int[tiles];
+        for(int t = 0; t < tiles; t++) {
+            int rows = Math.min(size, depth - t / tileCols * size);
+            int cols = Math.min(size, width - t % tileCols * size);
+            cells[t] = rows * cols;
+        }
+        continuum = new boolean[tiles];
+        mass = new double[tiles];
+        agents = new int[tiles];
+        flow = new double[tiles];
+        setRates(0, 0.12, 4);
+    }
+
+    /**
+     * Set the densities at which tiles switch. A gap between the two
+     * stops tiles switching back and forth every step.
+     * @param lowShare The share of cells below which a continuum tile goes back to rabbits.
+     * @param highShare The share of cells above which a rabbit tile becomes a continuum tile.
+     */
+    public void setThresholds(double lowShare, double highShare)
+    {
+        if(lowShare < 0 || lowShare > highShare) {
+            throw new IllegalArgumentException("Thresholds must satisfy 0 <= low <= high: " + lowShare + ", " + highShare);
+        }
+        low = lowShare;
+        high = highShare;
+    }
+
+    /**
+     * Set how fast density spreads between tiles.
+     * @param rate The share of the difference in density that flows each step, from 0 to 0.25.
+     */
+    public void setDiffusion(double rate)
+    {
+        if(rate < 0 || rate > 0.25) {
+            throw new IllegalArgumentException("Diffusion must be between 0 and 0.25: " + rate);
+        }
+        diffusion = rate;
+    }
+
+    /**
+     * Work out the growth rate from the rabbit parameters.
+     * @param ba The rabbit breeding age.
+     * @param bp The rabbit breeding probability.
+     * @param mls The rabbit maximum litter size.
+     */
+    public void setRates(int ba, double bp, int mls)
+    {
+        double adults = Math.max(0, Rabbit.MAX_AGE - ba) / (double) Rabbit.MAX_AGE;
+        growth = 0.5 * adults * bp * (mls + 1) / 2.0 * MATES - 1.0 / Rabbit.MAX_AGE;
+    }
+
+    /**
+     * Return the rabbits held as densities, including those waiting to
+     * be put on free cells.
+     * @return The number of rabbits, which need not be whole.
+     */
+    public double getMass()
+    {
+        double total = 0;
+        for(double m : mass) {
+            total += m;
+        }
+        return total;
+    }
+
+    /**
+     * @return The number of continuum tiles.
+     */
+    public int getContinuumTiles()
+    {
+        int count = 0;
+        for(boolean c : continuum) {
+            if(c) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return whether the tile holding a cell is a continuum tile.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @return true if the tile holds a density rather than rabbits.
+     */
+    public boolean isContinuum(int row, int col)
+    {
+        return continuum[tileOf(row, col)];
+    }
+
+    /**
+     * Return the rabbit density around a cell.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @return The rabbits per cell of a continuum tile, or 0 for a rabbit tile.
+     */
+    public double getDensity(int row, int col)
+    {
+        int t = tileOf(row, col);
+        return continuum[t] ? mass[t] / cells[t] : 0;
+    }
+
+    /**
+     * Make every tile a rabbit tile holding nothing.
+     */
+    public void clear()
+    {
+        Arrays.fill(continuum, false);
+        Arrays.fill(mass, 0);
+        drawn.clear();
+    }
+
+    /**
+     * Before the animals act: put rabbits from the density next to
+     * every predator in a continuum tile that hunts them. They are
+     * kept out of the populations, so they do not act. The shared
+     * generator is only drawn from if a predator is in a continuum tile,
+     * so a run that never has one is the same as one without tiles.
+     * @param field The field.
+     * @param populations The animals, one list per species.
+     */
+    void beforeStep(Field field, List<List<Animal>> populations)
+    {
+        SplittableRandom rng = null;
+        for(int s = 0; s < populations.size(); s++) {
+            if((SpeciesRegistry.preyMask(s) & 1 << Rabbit.SPECIES) == 0) {
+                continue;
+            }
+            for(Animal predator : populations.get(s)) {
+                Location location = predator.getLocation();
+                if(!predator.isAlive() || location == null || !isContinuum(location.getRow(), location.getCol())) {
+                    continue;
+                }
+                if(rng == null) {
+                    rng = new SplittableRandom(Randomizer.getRandom().nextLong());
+                }
+                for(Location where : field.getFreeAdjacentLocations(location)) {
+                    int t = tileOf(where.getRow(), where.getCol());
+                    if(continuum[t] && mass[t] >= 1 && rng.nextDouble() < mass[t] / cells[t]) {
+                        mass[t] -= 1;
+                        drawn.add(arrive(field, where, rng));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * After the animals act: return the rabbits drawn for predators
+     * and not eaten, take rabbits in continuum tiles into the
+     * densities, grow and spread the densities, switch tiles whose
+     * density has crossed a threshold, and put whole rabbits waiting
+     * in rabbit tiles on free cells.
+     * @param field The field.
+     * @param rabbits The rabbits. Those taken into densities are removed.
+     */
+    void afterStep(Field field, List<Animal> rabbits)
+    {
+        restore();
+        absorb(rabbits);
+        grow();
+        spread();
+
+        // Switch tiles whose density has crossed a threshold.
+        boolean absorbing = false;
+        for(int t = 0; t < cells.length; t++) {
+            if(!continuum[t] && agents[t] + mass[t] >= high * cells[t]) {
+                continuum[t] = true;
+                absorbing = true;
+            }
+            else if(continuum[t] && mass[t] < low * cells[t]) {
+                continuum[t] = false;
+            }
+        }
+        if(absorbing) {
+            absorb(rabbits);
+        }
+        release(field, rabbits);
+    }
+
+    /**
+     * Put the rabbits drawn for predators and not eaten back into the
+     * densities they were taken from.
+     */
+    private void restore()
+    {
+        for(Animal rabbit : drawn) {
+            Location location = rabbit.getLocation();
+            if(rabbit.isAlive() && location != null) {
+                rabbit.withdraw();
+                mass[tileOf(location.getRow(), location.getCol())] += 1;
+            }
+        }
+        drawn.clear();
+    }
+
+    /**
+     * Take the rabbits in continuum tiles into their densities, and
+     * count those left in each rabbit tile.
+     */
+    private void absorb(List<Animal> rabbits)
+    {
+        Arrays.fill(agents, 0);
+        boolean taken = false;
+        for(Animal rabbit : rabbits) {
+            Location location = rabbit.getLocation();
+            if(!rabbit.isAlive() || location == null) {
+                continue;
+            }
+            int t = tileOf(location.getRow(), location.getCol());
+            if(continuum[t]) {
+                rabbit.withdraw();
+                mass[t] += 1;
+                taken = true;
+            }
+            else {
+                agents[t]++;
+            }
+        }
+        if(taken) {
+            rabbits.removeIf(rabbit -> !rabbit.isAlive());
+        }
+    }
+
+    /**
+     * Grow each density logistically, up to one rabbit per cell.
+     */
+    private void grow()
+    {
+        double h = 1.0 / SUBSTEPS;
+        for(int t = 0; t < cells.length; t++) {
+            if(continuum[t]) {
+                double n = mass[t];
+                for(int i = 0; i < SUBSTEPS; i++) {
+                    n += h * growth * n * (1 - n / cells[t]);
+                }
+                mass[t] = Math.max(0, n);
+            }
+        }
+    }
+
+    /**
+     * Spread density across the edges between tiles, from continuum
+     * tiles to their neighbours of either kind. Rabbits go the other
+     * way by moving, so a rabbit tile never gives up density here.
+     */
+    private void spread()
+    {
+        Arrays.fill(flow, 0);
+        for(int t = 0; t < cells.length; t++) {
+            int col = t % tileCols;
+            if(col + 1 < tileCols) {
+                exchange(t, t + 1);
+            }
+            if(t + tileCols < cells.length) {
+                exchange(t, t + tileCols);
+            }
+        }
+        for(int t = 0; t < cells.length; t++) {
+            mass[t] += flow[t];
+        }
+    }
+
+    /**
+     * Work out the flow across the edge between two neighbouring tiles.
+     */
+    private void exchange(int a, int b)
+    {
+        if(!continuum[a] && !continuum[b]) {
+            return;
+        }
+        double amount = diffusion * (density(a) - density(b)) * SpatialOrder.TILE_SIZE;
+        // Only continuum tiles give up density, and never more than a
+        // quarter of it to one neighbour, so none goes negative.
+        if(amount > 0 && continuum[a]) {
+            amount = Math.min(amount, mass[a] / 4);
+        }
+        else if(amount < 0 && continuum[b]) {
+            amount = -Math.min(-amount, mass[b] / 4);
+        }
+        else {
+            return;
+        }
+        flow[a] -= amount;
+        flow[b] += amount;
+    }
+
+    /**
+     * Return the rabbits per cell of a tile, of either kind.
+     */
+    private double density(int t)
+    {
+        return continuum[t] ? mass[t] / cells[t] : agents[t] / (double) cells[t];
+    }
+
+    /**
+     * Put the whole rabbits waiting in each rabbit tile on free cells
+     * of the tile, as far as there are free cells.
+     */
+    private void release(Field field, List<Animal> rabbits)
+    {
+        SplittableRandom rng = null;
+        List<Location> free = new ArrayList<>();
+        int size = SpatialOrder.TILE_SIZE;
+        for(int t = 0; t < cells.length; t++) {
+            if(continuum[t] || mass[t] < 1) {
+                continue;
+            }
+            if(rng == null) {
+                rng = new SplittableRandom(Randomizer.getRandom().nextLong());
+            }
+            free.clear();
+            int top = t / tileCols * size;
+            int left = t % tileCols * size;
+            for(int row = top; row < Math.min(depth, top + size); row++) {
+                for(int col = left; col < Math.min(width, left + size); col++) {
+                    if(field.getObjectAt(row, col) == null) {
+                        free.add(new Location(row, col));
+                    }
+                }
+            }
+            while(mass[t] >= 1 && !free.isEmpty()) {
+                int pick = rng.nextInt(free.size());
+                Location where = free.get(pick);
+                free.set(pick, free.get(free.size() - 1));
+                free.remove(free.size() - 1);
+                mass[t] -= 1;
+                rabbits.add(arrive(field, where, rng));
+            }
+        }
+    }
+
+    /**
+     * Put a rabbit of random age taken from a density on a free cell,
+     * recording it as an arrival.
+     */
+    private static Animal arrive(Field field, Location where, SplittableRandom rng)
+    {
+        Animal rabbit = Animal.createRandom(Rabbit.SPECIES, field, where, rng);
+        Animal.recordArrival(rabbit);
+        return rabbit;
+    }
+
+    /**
+     * Return the index of the tile holding a cell.
+     */
+    private int tileOf(int row, int col)
+    {
+        return row / SpatialOrder.TILE_SIZE * tileCols + col / SpatialOrder.TILE_SIZE;
+    }
+}
@@ -0,0 +1,307 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A field whose grid lives outside the Java heap, for fields too big
+ * for the heap or for int indexing. Each cell holds a four byte handle
+ * into a table of the animals currently placed, with 0 for an empty
+ * cell, and cells are addressed by a long index so the number of cells
+ * is limited only by memory or disk.
+ *
+ * The grid is kept in chunks that are only allocated when first
+ * written to. They are either direct buffers, or regions of a sparse
+ * file mapped into memory, in which case the operating system pages
+ * the field in and out on demand and a field larger than RAM can be
+ * used. The file is scratch space: its contents mean nothing once the
+ * field is closed.
+ *
+ * Close the field when it is no longer needed. Closing gives the disk
+ * blocks of a backing file back at once, but Java has no supported way
+ * to free a direct buffer or unmap a file before the garbage collector
+ * finds it unreachable, so until then the memory stays reserved and
+ * the mapping stays in the address space. Direct buffers count against
+ * -XX:MaxDirectMemorySize meanwhile; the JVM collects to make room
+ * when a new one would pass the limit, so a closed field does not stop
+ * another being made. Clearing the field only touches the cells that
+ * are occupied.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class OffHeapField extends Field implements Closeable
+{
+    // The number of cells in a chunk, as a power of two.
+    private static final int CHUNK_SHIFT = 24;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+    // The bytes used by each cell.
+    private static final int CELL_BYTES = 4;
+
+    // The width of the field, as a long to keep the index arithmetic 64-bit.
+    private final long width;
+    // The grid, chunk by chunk. A null chunk has never been written.
+    private ByteBuffer[] chunks;
+    // The backing file, or null if the grid is in direct buffers.
+    private RandomAccessFile file;
+    private FileChannel channel;
+
+    // The animal for each handle, less one, or null if the handle is free.
+    private Object[] occupants;
+    // The cell each handle is placed in.
+    private long[] cells;
+    // The handles freed since the table was last reset.
+    private int[] free;
+    private int freeCount;
+    // The number of handles ever handed out since the table was last reset.
+    private int used;
+
+    /**
+     * Create a field held in direct memory.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public OffHeapField(int depth, int width)
+    {
+        super(depth, width, false);
+        this.width = width;
+        chunks = new ByteBuffer[chunkCount(depth, width)];
+        resetHandles();
+    }
+
+    /**
+     * Create a field mapped from a sparse file. Any existing contents
+     * of the file are discarded.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param backing The file to map the grid from.
+     * @throws IOException If the file cannot be created.
+     */
+    public OffHeapField(int depth, int width, File backing) throws IOException
+    {
+        super(depth, width, false);
+        this.width = width;
+        chunks = new ByteBuffer[chunkCount(depth, width)];
+        file = new RandomAccessFile(backing, "rw");
+        channel = file.getChannel();
+        // Truncating first leaves a file with no blocks allocated.
+        file.setLength(0);
+        file.setLength((long) depth * width * CELL_BYTES);
+        resetHandles();
+    }
+
+    /**
+     * Empty every occupied cell of the grid.
+     */
+    protected void clearCells()
+    {
+        for(int h = 0; h < used; h++) {
+            if(occupants[h] != null) {
+                write(cells[h], 0);
+            }
+        }
+        resetHandles();
+    }
+
+    /**
+     * Store an object, or null, in a cell of the grid.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @param object The object to store, or null to empty the cell.
+     * @return The object the cell held before, or null.
+     */
+    protected Object replace(int row, int col, Object object)
+    {
+        long cell = cell(row, col);
+        int handle = read(cell);
+        Object previous = null;
+        if(handle != 0) {
+            previous = occupants[handle - 1];
+            release(handle);
+        }
+        write(cell, object == null ? 0 : acquire(object, cell));
+        return previous;
+    }
+
+    /**
+     * Return the animal at the given location, if any.
+     * @param row The desired row.
+     * @param col The desired column.
+     * @return The animal at the given location, or null if there is none.
+     */
+    public Object getObjectAt(int row, int col)
+    {
+        int handle = read(cell(row, col));
+        return handle == 0 ? null : occupants[handle - 1];
+    }
+
+    /**
+     * Visit every object in the field, using the handle table rather
+     * than scanning the grid.
+     * @param visitor What to do with each object.
+     */
+    public void forEachObject(ObjectVisitor visitor)
+    {
+        for(int h = 0; h < used; h++) {
+            Object object = occupants[h];
+            if(object != null) {
+                visitor.visit((int) (cells[h] / width), (int) (cells[h] % width), object);
+            }
+        }
+    }
+
+    /**
+     * Release the grid. The field cannot be used afterwards. The memory
+     * it held is freed by the garbage collector, as the class comment
+     * describes.
+     * @throws IOException If the backing file cannot be released.
+     */
+    public void close() throws IOException
+    {
+        chunks = null;
+        occupants = null;
+        if(file != null) {
+            try {
+                // Give the disk blocks back straight away.
+                file.setLength(0);
+            }
+            finally {
+                file.close();
+                file = null;
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * Return the 64-bit index of a cell.
+     */
+    private long cell(int row, int col)
+    {
+        return row * width + col;
+    }
+
+    /**
+     * Return the handle stored in a cell.
+     */
+    private int read(long cell)
+    {
+        ByteBuffer chunk = chunks()[(int) (cell >>> CHUNK_SHIFT)];
+        if(chunk == null) {
+            return 0;
+        }
+        return chunk.getInt((int) (cell & CHUNK_MASK) * CELL_BYTES);
+    }
+
+    /**
+     * Store a handle in a cell, allocating its chunk if need be.
+     */
+    private void write(long cell, int handle)
+    {
+        int index = (int) (cell >>> CHUNK_SHIFT);
+        ByteBuffer chunk = chunks()[index];
+        if(chunk == null) {
+            if(handle == 0) {
+                return;
+            }
+            chunk = allocate(index);
+        }
+        chunk.putInt((int) (cell & CHUNK_MASK) * CELL_BYTES, handle);
+    }
+
+    /**
+     * Return the chunk table, or fail if the field has been closed.
+     */
+    private ByteBuffer[] chunks()
+    {
+        if(chunks == null) {
+            throw new IllegalStateException("The field has been closed.");
+        }
+        return chunks;
+    }
+
+    /**
+     * Allocate a chunk, in direct memory or mapped from the file.
+     */
+    private ByteBuffer allocate(int index)
+    {
+        long start = ((long) index << CHUNK_SHIFT) * CELL_BYTES;
+        ByteBuffer chunk;
+        if(channel == null) {
+            chunk = ByteBuffer.allocateDirect((1 << CHUNK_SHIFT) * CELL_BYTES);
+        }
+        else {
+            long length = Math.min((1L << CHUNK_SHIFT) * CELL_BYTES, (getDepth() * width * CELL_BYTES) - start);
+            try {
+                chunk = channel.map(FileChannel.MapMode.READ_WRITE, start, length);
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        chunk.order(ByteOrder.nativeOrder());
+        chunks[index] = chunk;
+        return chunk;
+    }
+
+    /**
+     * Hand out a handle for an animal placed in the given cell.
+     * @return The handle plus one, as stored in the grid.
+     */
+    private int acquire(Object animal, long cell)
+    {
+        int handle;
+        if(freeCount > 0) {
+            handle = free[--freeCount];
+        }
+        else {
+            if(used == occupants.length) {
+                occupants = Arrays.copyOf(occupants, used * 2);
+                cells = Arrays.copyOf(cells, used * 2);
+            }
+            handle = used++;
+        }
+        occupants[handle] = animal;
+        cells[handle] = cell;
+        return handle + 1;
+    }
+
+    /**
+     * Free a handle as stored in the grid.
+     */
+    private void release(int stored)
+    {
+        int handle = stored - 1;
+        occupants[handle] = null;
+        if(freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = handle;
+    }
+
+    /**
+     * Empty the handle table.
+     */
+    private void resetHandles()
+    {
+        occupants = new Object[1024];
+        cells = new long[1024];
+        free = new int[1024];
+        freeCount = 0;
+        used = 0;
+    }
+
+    /**
+     * Return the number of chunks needed for a field.
+     */
+    private static int chunkCount(int depth, int width)
+    {
+        long cells = (long) depth * width;
+        return (int) ((cells + CHUNK_MASK) >>> CHUNK_SHIFT);
+    }
+}
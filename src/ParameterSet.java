@@ -0,0 +1,112 @@
+/**
+ * A plain, editable set of parameters for simulations run without a
+ * view, e.g. benchmarks. It starts with the same values as the
+ * settings tab.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class ParameterSet implements Parameters
+{
+    // Variables for changing the parameters of the animal classes.
+    private int rabbitBA;
+    private double rabbitBP = 0.12;
+    private int rabbitMLS = 4;
+
+    private int foxBA;
+    private double foxBP = 0.08;
+    private int foxMLS = 2;
+    private int foxFV = 9;
+    private int foxSR = 1;
+
+    private int lionBA = 20;
+    private double lionBP = 0.08;
+    private int lionMLS = 2;
+    private int lionRFV = 9;
+    private int lionFFV = 5;
+    private int lionSR = 1;
+
+    /**
+     * Create a parameter set with the default values.
+     */
+    public ParameterSet()
+    {
+    }
+
+    /**
+     * Copy another set of parameters.
+     * @param other The parameters to copy.
+     */
+    public ParameterSet(Parameters other)
+    {
+        setRabbit(other.getRabbitBA(), other.getRabbitBP(), other.getRabbitMLS());
+        setFox(other.getFoxBA(), other.getFoxBP(), other.getFoxMLS(), other.getFoxFV(), other.getFoxSR());
+        setLion(other.getLionBA(), other.getLionBP(), other.getLionMLS(), other.getLionRFV(), other.getLionFFV(),
+                other.getLionSR());
+    }
+
+    /**
+     * Set the rabbit parameters.
+     * @param ba Breeding age.
+     * @param bp Breeding probability.
+     * @param mls Max litter size.
+     */
+    public void setRabbit(int ba, double bp, int mls)
+    {
+        rabbitBA = ba;
+        rabbitBP = bp;
+        rabbitMLS = mls;
+    }
+
+    /**
+     * Set the fox parameters.
+     * @param ba Breeding age.
+     * @param bp Breeding probability.
+     * @param mls Max litter size.
+     * @param fv Food value of rabbits.
+     * @param sr Sensing radius.
+     */
+    public void setFox(int ba, double bp, int mls, int fv, int sr)
+    {
+        foxBA = ba;
+        foxBP = bp;
+        foxMLS = mls;
+        foxFV = fv;
+        foxSR = sr;
+    }
+
+    /**
+     * Set the lion parameters.
+     * @param ba Breeding age.
+     * @param bp Breeding probability.
+     * @param mls Max litter size.
+     * @param rfv Food value of rabbits.
+     * @param ffv Food value of foxes.
+     * @param sr Sensing radius.
+     */
+    public void setLion(int ba, double bp, int mls, int rfv, int ffv, int sr)
+    {
+        lionBA = ba;
+        lionBP = bp;
+        lionMLS = mls;
+        lionRFV = rfv;
+        lionFFV = ffv;
+        lionSR = sr;
+    }
+
+    // Following methods get the parameters for the animal classes.
+    public int getRabbitBA() { return rabbitBA; }
+    public double getRabbitBP() { return rabbitBP; }
+    public int getRabbitMLS() { return rabbitMLS; }
+    public int getFoxBA() { return foxBA; }
+    public double getFoxBP() { return foxBP; }
+    public int getFoxMLS() { return foxMLS; }
+    public int getFoxFV() { return foxFV; }
+    public int getFoxSR() { return foxSR; }
+    public int getLionBA() { return lionBA; }
+    public double getLionBP() { return lionBP; }
+    public int getLionMLS() { return lionMLS; }
+    public int getLionRFV() { return lionRFV; }
+    public int getLionFFV() { return lionFFV; }
+    public int getLionSR() { return lionSR; }
+}
@@ -0,0 +1,25 @@
+/**
+ * The parameters of the animal classes that can be changed by the user.
+ * SimulatorView provides them from its settings tab; ParameterSet holds
+ * them for simulations run without a view.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public interface Parameters
+{
+    int getRabbitBA();
+    double getRabbitBP();
+    int getRabbitMLS();
+    int getFoxBA();
+    double getFoxBP();
+    int getFoxMLS();
+    int getFoxFV();
+    int getFoxSR();
+    int getLionBA();
+    double getLionBP();
+    int getLionMLS();
+    int getLionRFV();
+    int getLionFFV();
+    int getLionSR();
+}
@@ -0,0 +1,175 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of how fast a simulation runs, for the performance overlay
+ * of the view. Steps are counted from the step events of a simulator
+ * the counters are subscribed to, and frames by the view as it draws
+ * them, from whatever threads they run on, without locks; the
+ * overlay calls sample now and then for a description of the time
+ * since the last call, with that of the JVM's heap and collectors.
+ *
+ * The allocation rate is that of the live threads: bytes allocated by
+ * threads that ended during a sample are missed.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class PerformanceCounters implements Flow.Subscriber<StepEvent>
+{
+    // The number of steps run.
+    private final AtomicLong steps = new AtomicLong();
+    // The time taken by each step and each frame, in nanoseconds.
+    private final LatencyHistogram stepNanos = new LatencyHistogram();
+    private final LatencyHistogram frameNanos = new LatencyHistogram();
+    // The population of each species after the latest step.
+    private volatile int[] counts = new int[0];
+
+    // The following are only used by the thread calling sample.
+    // When the last sample was taken, in nanoseconds.
+    private long sampledAt = System.nanoTime();
+    // The step count, bytes allocated, and time and number of
+    // collections at the last sample.
+    private long sampledSteps;
+    private long sampledBytes = -1;
+    private long sampledGcMillis;
+    private long sampledGcCount;
+
+    /**
+     * Ask for every step event.
+     * @param subscription The subscription to the simulator's events.
+     */
+    public void onSubscribe(Flow.Subscription subscription)
+    {
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    /**
+     * Count the step an event is for, unless it was sent on reset or
+     * rewinding rather than by a step.
+     * @param event The event.
+     */
+    public void onNext(StepEvent event)
+    {
+        if(event.getNanos() >= 0) {
+            stepNanos.record(event.getNanos());
+            counts = event.getCounts();
+            steps.incrementAndGet();
+        }
+    }
+
+    /**
+     * Nothing to do: the counts so far stay for the overlay.
+     * @param throwable Why the events stopped.
+     */
+    public void onError(Throwable throwable)
+    {
+    }
+
+    /**
+     * Nothing to do: the counts so far stay for the overlay.
+     */
+    public void onComplete()
+    {
+    }
+
+    /**
+     * Count a frame drawn. Called by the view.
+     * @param nanos The time the frame took.
+     */
+    public void frameDrawn(long nanos)
+    {
+        frameNanos.record(nanos);
+    }
+
+    /**
+     * @return The number of steps counted.
+     */
+    public long getSteps()
+    {
+        return steps.get();
+    }
+
+    /**
+     * Describe the time since the last sample, a line for each figure.
+     * Must only be called from one thread at a time.
+     * @return The lines of the description.
+     */
+    public List<String> sample()
+    {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - sampledAt) / 1e9);
+        sampledAt = now;
+        long stepped = steps.get() - sampledSteps;
+        sampledSteps += stepped;
+
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("%.1f steps/s", stepped / seconds));
+        lines.add(describe("step", stepNanos.takeCounts()));
+        lines.add(describe("frame", frameNanos.takeCounts()));
+        int[] population = counts;
+        for(int s = 0; s < population.length; s++) {
+            lines.add(SpeciesRegistry.getName(s) + ": " + population[s]);
+        }
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = memory.getHeapMemoryUsage().getUsed();
+        long max = memory.getHeapMemoryUsage().getMax();
+        lines.add(String.format("heap %d / %d MB", used >> 20, max >> 20));
+        long allocated = allocatedBytes();
+        if(allocated >= 0 && sampledBytes >= 0) {
+            lines.add(String.format("alloc %.1f MB/s", Math.max(0, allocated - sampledBytes) / seconds / (1 << 20)));
+        }
+        sampledBytes = allocated;
+
+        long gcMillis = 0, gcCount = 0;
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcMillis += Math.max(0, collector.getCollectionTime());
+            gcCount += Math.max(0, collector.getCollectionCount());
+        }
+        lines.add(String.format("gc %d ms in %d pauses", gcMillis - sampledGcMillis, gcCount - sampledGcCount));
+        sampledGcMillis = gcMillis;
+        sampledGcCount = gcCount;
+        return lines;
+    }
+
+    /**
+     * Describe the times counted in a histogram window, in milliseconds.
+     */
+    private static String describe(String name, long[] nanos)
+    {
+        if(LatencyHistogram.total(nanos) == 0) {
+            return name + " -";
+        }
+        return String.format("%s p50 %.2f p99 %.2f ms", name,
+                             LatencyHistogram.percentile(nanos, 50) / 1e6,
+                             LatencyHistogram.percentile(nanos, 99) / 1e6);
+    }
+
+    /**
+     * Return the bytes allocated so far by the live threads, or -1 if
+     * the JVM does not say.
+     */
+    private static long allocatedBytes()
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+        if(!counting.isThreadAllocatedMemorySupported() || !counting.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for(long bytes : counting.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+}
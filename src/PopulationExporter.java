@@ -0,0 +1,285 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+
+/**
+ * Export a time series of the population to a columnar binary file.
+ * Each step appends one row: the step number and, for every species,
+ * its count and its births, deaths and animals eaten during the step.
+ *
+ * Rows are gathered into blocks of BLOCK_ROWS rows. Within a block
+ * each column is stored as a run of big-endian ints, so a reader can
+ * pull one metric for thousands of steps from a single range of the
+ * file. Every block has the same size; the last one is padded and its
+ * header says how many rows it holds. PopulationSeries reads the file.
+ *
+ * The exporter subscribes to a simulator's step events and appends a
+ * row for each event sent by a step. Finished blocks go to an
+ * AsyncWriter with offer: if the disk falls behind, up to MAX_WAITING
+ * blocks wait here and are handed over on a later step, so a short
+ * stall holds nothing up. Beyond that the exporter applies backpressure
+ * rather than losing rows: it waits for the writer on the thread its
+ * events are delivered on, its buffer of events fills, and as it is
+ * subscribed with the BLOCK policy the simulation then waits for it.
+ * So no row is ever dropped, and the memory held for a slow disk is
+ * bounded. Once unsubscribed, it writes the last block and closes the
+ * file; call finish to wait for that.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class PopulationExporter implements Closeable, Flow.Subscriber<StepEvent>
+{
+    // Identifies a population series file ("DBSP").
+    static final int MAGIC = 0x44425350;
+    // The version of the file layout. Version 1 files hold the column
+    // names in modified UTF-8, as written by DataOutputStream.writeUTF.
+    static final int VERSION = 2;
+    // The number of rows in a block.
+    static final int BLOCK_ROWS = 4096;
+    // The most finished blocks that wait here for room in the writer.
+    static final int MAX_WAITING = 4;
+
+    // Writes blocks on a background thread.
+    private final AsyncWriter writer;
+    // The names of the columns.
+    private final List<String> columns;
+    // The block being filled, column by column.
+    private int[][] block;
+    // The number of rows in the current block.
+    private int rows;
+    // Finished blocks the writer had no room for yet, at most MAX_WAITING.
+    private final ArrayDeque<byte[]> waiting;
+    // The subscription to the step events, once subscribed.
+    private Flow.Subscription subscription;
+    // Released once the file has been closed, as the events have ended.
+    private final CountDownLatch closed = new CountDownLatch(1);
+    // Why the series could not be written, if it could not.
+    private volatile IOException failure;
+
+    /**
+     * Start exporting to a file.
+     * @param file The file to write the series to.
+     * @throws IOException If the file cannot be opened.
+     */
+    public PopulationExporter(File file) throws IOException
+    {
+        columns = columnNames();
+        waiting = new ArrayDeque<>();
+        block = new int[columns.size()][BLOCK_ROWS];
+        writer = new AsyncWriter(new FileOutputStream(file), 4, "population-exporter");
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(header);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(BLOCK_ROWS);
+        data.writeInt(columns.size());
+        for(String column : columns) {
+            byte[] name = column.getBytes(StandardCharsets.UTF_8);
+            data.writeInt(name.length);
+            data.write(name);
+        }
+        writer.write(header.toByteArray());
+    }
+
+    /**
+     * The columns of the series, in file order.
+     * @return The column names.
+     */
+    public static List<String> columnNames()
+    {
+        List<String> names = new ArrayList<>();
+        names.add("step");
+        for(int s = 0; s < SpeciesRegistry.count(); s++) {
+            String species = SpeciesRegistry.getName(s);
+            names.add(species + " count");
+            names.add(species + " births");
+            names.add(species + " deaths");
+            names.add(species + " eaten");
+        }
+        return names;
+    }
+
+    /**
+     * Ask for every step event.
+     * @param subscription The subscription to the simulator's events.
+     */
+    public void onSubscribe(Flow.Subscription subscription)
+    {
+        this.subscription = subscription;
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    /**
+     * Append the row for a step, unless the event was sent on reset or
+     * rewinding rather than by a step. If the row cannot be written,
+     * the export stops and the file is closed.
+     * @param event The event for the step.
+     */
+    public void onNext(StepEvent event)
+    {
+        if(event.getNanos() < 0) {
+            return;
+        }
+        try {
+            append(event);
+        }
+        catch(UncheckedIOException e) {
+            failure = e.getCause();
+            subscription.cancel();
+            closeOnce();
+        }
+    }
+
+    /**
+     * Close the file, as no more events will come.
+     * @param throwable Why the events stopped.
+     */
+    public void onError(Throwable throwable)
+    {
+        closeOnce();
+    }
+
+    /**
+     * Close the file, as no more events will come.
+     */
+    public void onComplete()
+    {
+        closeOnce();
+    }
+
+    /**
+     * Wait for the file to be closed, once the exporter has been
+     * unsubscribed from the step events.
+     * @throws IOException If the series could not be written.
+     */
+    public void finish() throws IOException
+    {
+        try {
+            closed.await();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted finishing the export");
+        }
+        if(failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Close the file, noting any failure, and release finish.
+     */
+    private void closeOnce()
+    {
+        if(closed.getCount() == 0) {
+            return;
+        }
+        try {
+            close();
+        }
+        catch(IOException e) {
+            if(failure == null) {
+                failure = e;
+            }
+        }
+        finally {
+            closed.countDown();
+        }
+    }
+
+    /**
+     * Append the row for a finished step.
+     * @param event The event for the step.
+     */
+    public void append(StepEvent event)
+    {
+        int column = 0;
+        block[column++][rows] = event.getStep();
+        for(int s = 0; s < SpeciesRegistry.count(); s++) {
+            block[column++][rows] = event.getCount(s);
+            block[column++][rows] = event.getBirths(s);
+            block[column++][rows] = event.getDeaths(s);
+            block[column++][rows] = event.getEaten(s);
+        }
+        rows++;
+        try {
+            if(rows == BLOCK_ROWS) {
+                if(waiting.size() == MAX_WAITING) {
+                    // The disk is well behind: wait for it, holding back the events.
+                    writer.write(waiting.poll());
+                }
+                waiting.add(encodeBlock());
+            }
+            handOver();
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write the last, partly filled block and close the file.
+     * This waits for the writer to finish.
+     * @throws IOException If the series could not be written.
+     */
+    public void close() throws IOException
+    {
+        if(rows > 0) {
+            waiting.add(encodeBlock());
+        }
+        while(!waiting.isEmpty()) {
+            writer.write(waiting.poll());
+        }
+        writer.close();
+    }
+
+    /**
+     * Pass waiting blocks to the writer while it has room.
+     */
+    private void handOver() throws IOException
+    {
+        while(!waiting.isEmpty() && writer.offer(waiting.peek())) {
+            waiting.poll();
+        }
+    }
+
+    /**
+     * Encode the current block and start a new one.
+     */
+    private byte[] encodeBlock()
+    {
+        ByteBuffer out = ByteBuffer.allocate(blockBytes(columns.size()));
+        out.putInt(rows);
+        for(int[] values : block) {
+            out.asIntBuffer().put(values);
+            out.position(out.position() + BLOCK_ROWS * 4);
+        }
+        rows = 0;
+        block = new int[columns.size()][BLOCK_ROWS];
+        return out.array();
+    }
+
+    /**
+     * The size of one block in bytes.
+     * @param columnCount The number of columns.
+     * @return The block size.
+     */
+    static int blockBytes(int columnCount)
+    {
+        return 4 + columnCount * BLOCK_ROWS * 4;
+    }
+}
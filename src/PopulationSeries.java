@@ -0,0 +1,166 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read a population series written by PopulationExporter. The file
+ * is memory mapped, so reading a column touches only the parts of
+ * the file that hold it.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class PopulationSeries
+{
+    // The names of the columns.
+    private final List<String> columns;
+    // The mapped blocks, several to a mapping.
+    private final ByteBuffer[] chunks;
+    // The number of blocks in each mapping.
+    private final int blocksPerChunk;
+    // The size of a block in bytes.
+    private final int blockBytes;
+    // The number of rows in the series.
+    private final int rowCount;
+
+    /**
+     * Open a population series.
+     * @param file The file written by a PopulationExporter.
+     * @throws IOException If the file cannot be read or is not a series.
+     */
+    public PopulationSeries(File file) throws IOException
+    {
+        try(RandomAccessFile raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, 1 << 16));
+            if(header.remaining() < 16 || header.getInt() != PopulationExporter.MAGIC) {
+                throw new IOException("Not a population series: " + file);
+            }
+            int version = header.getInt();
+            if(version < 1 || version > PopulationExporter.VERSION
+                    || header.getInt() != PopulationExporter.BLOCK_ROWS) {
+                throw new IOException("Unsupported population series layout: " + file);
+            }
+            int columnCount = header.getInt();
+            List<String> names = new ArrayList<>();
+            for(int c = 0; c < columnCount; c++) {
+                names.add(version == 1 ? readModifiedUtf(header) : readName(header));
+            }
+            columns = Collections.unmodifiableList(names);
+            long start = header.position();
+
+            blockBytes = PopulationExporter.blockBytes(columnCount);
+            int blocks = (int) ((size - start) / blockBytes);
+            blocksPerChunk = Math.max(1, Integer.MAX_VALUE / blockBytes);
+            chunks = new ByteBuffer[(blocks + blocksPerChunk - 1) / blocksPerChunk];
+            for(int i = 0; i < chunks.length; i++) {
+                int count = Math.min(blocksPerChunk, blocks - i * blocksPerChunk);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                        start + (long) i * blocksPerChunk * blockBytes,
+                                        (long) count * blockBytes);
+            }
+            rowCount = blocks == 0 ? 0
+                       : (blocks - 1) * PopulationExporter.BLOCK_ROWS + block(blocks - 1).getInt(0);
+        }
+    }
+
+    /**
+     * @return The number of rows, one per recorded step.
+     */
+    public int getRowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+     * @return The names of the columns, in file order.
+     */
+    public List<String> getColumnNames()
+    {
+        return columns;
+    }
+
+    /**
+     * Find a column by name.
+     * @param name The column name, e.g. "Fox count".
+     * @return The column index, or -1 if there is no such column.
+     */
+    public int getColumnIndex(String name)
+    {
+        return columns.indexOf(name);
+    }
+
+    /**
+     * Return a single value.
+     * @param column The column index.
+     * @param row The row index.
+     * @return The value.
+     */
+    public int get(int column, int row)
+    {
+        if(row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount);
+        }
+        int offset = 4 + (column * PopulationExporter.BLOCK_ROWS + row % PopulationExporter.BLOCK_ROWS) * 4;
+        return block(row / PopulationExporter.BLOCK_ROWS).getInt(offset);
+    }
+
+    /**
+     * Read a whole column.
+     * @param column The column index.
+     * @return The values of the column, one per row.
+     */
+    public int[] column(int column)
+    {
+        int[] values = new int[rowCount];
+        for(int first = 0; first < rowCount; first += PopulationExporter.BLOCK_ROWS) {
+            ByteBuffer block = block(first / PopulationExporter.BLOCK_ROWS);
+            block.position(4 + column * PopulationExporter.BLOCK_ROWS * 4);
+            IntBuffer ints = block.asIntBuffer();
+            ints.get(values, first, Math.min(PopulationExporter.BLOCK_ROWS, rowCount - first));
+        }
+        return values;
+    }
+
+    /**
+     * Read a column name: its length, then its UTF-8 bytes.
+     */
+    private static String readName(ByteBuffer header)
+    {
+        byte[] name = new byte[header.getInt()];
+        header.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read a column name of a version 1 file, written by writeUTF.
+     */
+    private static String readModifiedUtf(ByteBuffer header) throws IOException
+    {
+        byte[] name = new byte[2 + (header.getShort(header.position()) & 0xFFFF)];
+        header.get(name);
+        return new DataInputStream(new ByteArrayInputStream(name)).readUTF();
+    }
+
+    /**
+     * Return a view of one block, positioned at its start.
+     */
+    private ByteBuffer block(int index)
+    {
+        ByteBuffer chunk = chunks[index / blocksPerChunk].duplicate();
+        int offset = (index % blocksPerChunk) * blockBytes;
+        chunk.position(offset);
+        chunk.limit(offset + blockBytes);
+        return chunk.slice();
+    }
+}
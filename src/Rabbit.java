@@ -1,6 +1,9 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * A simple model of a rabbit.
@@ -13,16 +16,23 @@ public class Rabbit extends Animal
 {
     // Characteristics shared by all rabbits (class variables).
 
+    // The species code of rabbits.
+    public static final int SPECIES = 0;
+
     // The age at which a rabbit can start to breed.
     private static int BREEDING_AGE;
     // The age to which a rabbit can live.
-    private static final int MAX_AGE = 40;
+    static final int MAX_AGE = 40;
     // The likelihood of a rabbit breeding.
     private static double BREEDING_PROBABILITY;
     // The maximum number of births.
     private static int MAX_LITTER_SIZE;
     // A shared random number generator to control breeding.
     private static final Random rand = Randomizer.getRandom();
+    // Decides the number of births, specialised to the current parameters.
+    private static final BreedingKernels.Site BREEDING_SITE =
+        BreedingKernels.newSite(MethodHandles.lookup(), Rabbit.class);
+    private static final MethodHandle BREEDING_KERNEL = BREEDING_SITE.dynamicInvoker();
     
     // Individual characteristics (instance fields).
     
@@ -44,7 +54,7 @@ public class Rabbit extends Animal
      */
     public Rabbit(boolean randomAge, Field field, Location location, int ba, double bp, int mls)
     {
-        super(field, location);
+        super(SPECIES, field, location);
         BREEDING_AGE = ba;
         BREEDING_PROBABILITY = bp;
         MAX_LITTER_SIZE = mls;
@@ -54,6 +64,20 @@ public class Rabbit extends Animal
             age = rand.nextInt(MAX_AGE);
         }
     }
+
+    /**
+     * Recreate a rabbit from recorded state.
+     * @param field The field currently occupied.
+     * @param location The location within the field.
+     * @param age The rabbit's age.
+     * @param gender The rabbit's gender.
+     */
+    Rabbit(Field field, Location location, int age, int gender)
+    {
+        super(SPECIES, field, location);
+        this.age = age;
+        this.gender = gender;
+    }
     
     /**
      * This is what the rabbit does most of the time - it runs 
@@ -61,10 +85,32 @@ public class Rabbit extends Animal
      * @param newRabbits A list to return newly born rabbits.
      */
     public void act(List<Animal> newRabbits)
+    {
+        act(newRabbits, true);
+    }
+
+    /**
+     * Act, breeding only if asked to.
+     * @param newRabbits A list to return newly born rabbits.
+     * @param breed false if the rabbits are bred in bulk after acting.
+     */
+    void act(List<Animal> newRabbits, boolean breed)
     {
         incrementAge();
+        actAged(newRabbits, breed);
+    }
+
+    /**
+     * Act once the rabbit has aged for the step, if it is still alive.
+     * @param newRabbits A list to return newly born rabbits.
+     * @param breed false if the rabbits are bred in bulk after acting.
+     */
+    private void actAged(List<Animal> newRabbits, boolean breed)
+    {
         if(isAlive()) {
-            giveBirth(newRabbits);            
+            if(breed) {
+                giveBirth(newRabbits);
+            }
             // Try to move into a free location.
             Location newLocation = getField().freeAdjacentLocation(getLocation());
             if(newLocation != null) {
@@ -77,6 +123,127 @@ public class Rabbit extends Animal
         }
     }
 
+    /**
+     * Let every rabbit in a population act, dropping those that have died.
+     * The loop lives here so that its act call only ever sees rabbits.
+     * @param rabbits The rabbits, in acting order.
+     * @param newRabbits A list to return newly born rabbits.
+     * @param breed false if the rabbits are bred in bulk after acting.
+     * @param columns The columns to age the rabbits in, all at once
+     *                before any acts, or null for each to age itself.
+     */
+    static void actAll(List<Animal> rabbits, List<Animal> newRabbits, boolean breed, AgeingColumns columns)
+    {
+        int size = rabbits.size();
+        int[] ages = null;
+        long[] dead = null;
+        if(columns != null) {
+            ages = columns.ages(size);
+            for(int i = 0; i < size; i++) {
+                ages[i] = ((Rabbit) rabbits.get(i)).age;
+            }
+            dead = columns.sweepAge(size, MAX_AGE);
+        }
+        int kept = 0;
+        for(int i = 0; i < size; i++) {
+            Rabbit rabbit = (Rabbit) rabbits.get(i);
+            if(dead == null) {
+                rabbit.act(newRabbits, breed);
+            }
+            else if(AgeingColumns.dies(dead, i)) {
+                rabbit.setDead();
+            }
+            else {
+                rabbit.age = ages[i];
+                rabbit.actAged(newRabbits, breed);
+            }
+            if(rabbit.isAlive()) {
+                rabbits.set(kept++, rabbit);
+            }
+        }
+        rabbits.subList(kept, size).clear();
+    }
+
+    /**
+     * Breed every rabbit at once, tile by tile, at the bulk fidelity level.
+     * @param rabbits The rabbits, after acting.
+     * @param field The field they are in.
+     * @param newRabbits A list to return newly born rabbits.
+     * @param rng The generator to draw from.
+     */
+    static void breedAll(List<Animal> rabbits, Field field, List<Animal> newRabbits, SplittableRandom rng)
+    {
+        BulkBreeding.breed(rabbits, field, BREEDING_AGE, BREEDING_PROBABILITY, MAX_LITTER_SIZE, true,
+                           Rabbit::newborn, newRabbits, rng);
+    }
+
+    /**
+     * Create a newborn rabbit with the current parameters.
+     * @param field The field to place it in.
+     * @param location A free location for it.
+     * @return The newborn.
+     */
+    static Rabbit newborn(Field field, Location location)
+    {
+        return new Rabbit(false, field, location, BREEDING_AGE, BREEDING_PROBABILITY, MAX_LITTER_SIZE);
+    }
+
+    /**
+     * Create a rabbit with a random age, drawing from the given
+     * generator rather than the shared one. Used to populate bands of
+     * the field in parallel.
+     * @param field The field currently occupied.
+     * @param location The location within the field.
+     * @param rng The generator to draw from.
+     * @return The new rabbit.
+     */
+    static Rabbit createRandom(Field field, Location location, SplittableRandom rng)
+    {
+        return new Rabbit(field, location, rng.nextInt(MAX_AGE), rng.nextInt(2));
+    }
+
+    /**
+     * Change the parameters shared by all rabbits.
+     * @param ba Breeding age.
+     * @param bp Breeding probability.
+     * @param mls Max litter size.
+     * @param specialised true to specialise the breeding kernel to these
+     *                    parameters, false for the generic path.
+     */
+    public static void setParameters(int ba, double bp, int mls, boolean specialised)
+    {
+        BREEDING_AGE = ba;
+        BREEDING_PROBABILITY = bp;
+        MAX_LITTER_SIZE = mls;
+        BreedingKernels.bind(BREEDING_SITE, MethodHandles.lookup(), Rabbit.class, ba, bp, mls, specialised);
+        SpeciesRegistry.get(SPECIES).setBreeding(ba, bp, mls);
+    }
+
+    /**
+     * @return The rabbit's age.
+     */
+    public int getAge()
+    {
+        return age;
+    }
+
+    /**
+     * Rabbits eat grass, which is not modelled.
+     * @return Always zero.
+     */
+    public int getFoodLevel()
+    {
+        return 0;
+    }
+
+    /**
+     * @return The rabbit's gender.
+     */
+    public int getGender()
+    {
+        return gender;
+    }
+
     /**
      * Increase the age.
      * This could result in the rabbit's death.
@@ -104,16 +271,17 @@ public class Rabbit extends Animal
         Iterator<Location> it = adjacent.iterator();
         while(it.hasNext()) {
             Location where = it.next();
-            Object animal = field.getObjectAt(where);
-            if(animal instanceof Rabbit) {
+            Animal animal = (Animal) field.getObjectAt(where);
+            if(animal != null && animal.getSpecies() == SPECIES) {
                 Rabbit rabbit = (Rabbit) animal;
                 if (rabbit.isAlive() && rabbit.gender != gender) {
                     List<Location> free = field.getFreeAdjacentLocations(getLocation());
                     int births = breed();
                     for (int b = 0; b < births && free.size() > 0; b++) {
                         Location loc = free.remove(0);
-                        Rabbit young = new Rabbit(false, field, loc, BREEDING_AGE, BREEDING_PROBABILITY, MAX_LITTER_SIZE);
+                        Rabbit young = newborn(field, loc);
                         newRabbits.add(young);
+                        recordBirth(young);
                     }
                 }
             }
@@ -122,24 +290,16 @@ public class Rabbit extends Animal
         
     /**
      * Generate a number representing the number of births,
-     * if it can breed.
+     * if it can breed: it must be female and of breeding age.
      * @return The number of births (may be zero).
      */
     private int breed()
     {
-        int births = 0;
-        if(canBreed() && rand.nextDouble() <= BREEDING_PROBABILITY) {
-            births = rand.nextInt(MAX_LITTER_SIZE) + 1;
+        try {
+            return (int) BREEDING_KERNEL.invokeExact(age, gender);
+        }
+        catch(Throwable e) {
+            throw new IllegalStateException("Breeding kernel failed", e);
         }
-        return births;
-    }
-
-    /**
-     * A rabbit can breed if it has reached the breeding age and if female.
-     * @return true if the rabbit can breed, false otherwise.
-     */
-    private boolean canBreed()
-    {
-        return age >= BREEDING_AGE && gender == 0;
     }
 }
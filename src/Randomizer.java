@@ -11,7 +11,7 @@ public class Randomizer
     // The default seed for control of randomization.
     private static final int SEED = 6845;
     // A shared Random object, if required.
-    private static final Random rand = new Random(SEED);
+    private static final SavableRandom rand = new SavableRandom(SEED);
     // Determine whether a shared random generator is to be provided.
     private static final boolean useShared = true;
 
@@ -47,4 +47,54 @@ public class Randomizer
             rand.setSeed(SEED);
         }
     }
+
+    /**
+     * Return the current state of the shared generator, so that the
+     * simulation can later be put back exactly where it was.
+     * @return The generator's internal state.
+     */
+    public static long getState()
+    {
+        return rand.state;
+    }
+
+    /**
+     * Put the shared generator back into a state returned by getState.
+     * @param state The state to return to.
+     */
+    public static void setState(long state)
+    {
+        rand.state = state;
+    }
+
+    /**
+     * The same generator as java.util.Random, but with its state
+     * readable and writable.
+     */
+    private static class SavableRandom extends Random
+    {
+        private static final long serialVersionUID = 1L;
+        private static final long MULTIPLIER = 0x5DEECE66DL;
+        private static final long ADDEND = 0xBL;
+        private static final long MASK = (1L << 48) - 1;
+
+        // The 48 bit state of the generator.
+        private long state;
+
+        SavableRandom(long seed)
+        {
+            super(seed);
+        }
+
+        public synchronized void setSeed(long seed)
+        {
+            state = (seed ^ MULTIPLIER) & MASK;
+        }
+
+        protected int next(int bits)
+        {
+            state = (state * MULTIPLIER + ADDEND) & MASK;
+            return (int) (state >>> (48 - bits));
+        }
+    }
 }
@@ -0,0 +1,544 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keep a bounded history of recent steps in memory, so the simulation
+ * can be wound back to any of them and carry on from there exactly as
+ * it did the first time.
+ *
+ * The history is split into segments. Each segment starts with a
+ * keyframe holding every living animal, in the order the simulator
+ * acts on them, and the state of the shared random generator. Each
+ * following step is stored as a delta against the step before it.
+ * Ages are stored as the step of birth and food levels as the step at
+ * which the food runs out, so an animal that only moved costs a couple
+ * of bits and a one or two byte move.
+ *
+ * When the history grows past its memory budget it is thinned from the
+ * oldest end: first the deltas of old segments are dropped, leaving
+ * one keyframe per segment, then the oldest keyframes themselves.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class RewindBuffer
+{
+    // Flags stored for each animal of the previous step in a delta.
+    private static final int REMOVED = 0;
+    private static final int SAME = 1;
+    private static final int MOVED = 2;
+    private static final int CHANGED = 3;
+    // A rough allowance for the objects holding each stored array.
+    private static final int ARRAY_OVERHEAD = 16;
+
+    // The most memory the history may take, in bytes.
+    private final long budget;
+    // The number of steps between keyframes.
+    private final int keyframeInterval;
+    // The width of the field, used to build cell indexes.
+    private final int width;
+    // The stored segments, oldest first.
+    private final ArrayDeque<Segment> segments;
+    // The memory taken by the stored segments, in bytes.
+    private long bytes;
+
+    // The animals and their state at the last recorded step.
+    private Animal[] previous;
+    private Frame previousFrame;
+
+    /**
+     * Create an empty history.
+     * @param budget The most memory the history may take, in bytes.
+     * @param keyframeInterval The number of steps between keyframes.
+     * @param width The width of the field.
+     */
+    public RewindBuffer(long budget, int keyframeInterval, int width)
+    {
+        if(keyframeInterval <= 0) {
+            throw new IllegalArgumentException("Keyframe interval must be greater than zero");
+        }
+        this.budget = budget;
+        this.keyframeInterval = keyframeInterval;
+        this.width = width;
+        segments = new ArrayDeque<>();
+    }
+
+    /**
+     * Forget the whole history.
+     */
+    public void clear()
+    {
+        segments.clear();
+        bytes = 0;
+        previous = null;
+        previousFrame = null;
+    }
+
+    /**
+     * Record the state at the end of a step. If the step is not after
+     * the last one recorded, e.g. after a rewind, the steps from it
+     * onwards are forgotten first.
+     * @param step The step that has just finished.
+     * @param animals The simulator's animals, in acting order.
+     */
+    public void record(int step, List<Animal> animals)
+    {
+        truncateAfter(step - 1);
+        Animal[] current = living(animals);
+        Frame frame = new Frame(step, Randomizer.getState(), current.length);
+        for(int i = 0; i < current.length; i++) {
+            frame.set(i, current[i], width);
+        }
+
+        Segment last = segments.peekLast();
+        byte[] delta = null;
+        if(last != null && previousFrame != null && previousFrame.step == step - 1
+                && step % keyframeInterval != 0 && last.deltas != null) {
+            delta = encodeDelta(previous, previousFrame, current, frame);
+        }
+        if(delta != null) {
+            last.deltas.add(delta);
+            bytes += delta.length + ARRAY_OVERHEAD;
+        }
+        else {
+            Segment segment = new Segment(step, encodeKeyframe(frame));
+            segments.add(segment);
+            bytes += segment.keyframe.length + ARRAY_OVERHEAD;
+        }
+        previous = current;
+        previousFrame = frame;
+        thin();
+    }
+
+    /**
+     * @return The oldest step that can be rewound to, or -1 if there is none.
+     */
+    public int getFirstStep()
+    {
+        return segments.isEmpty() ? -1 : segments.peekFirst().step;
+    }
+
+    /**
+     * @return The newest step that can be rewound to, or -1 if there is none.
+     */
+    public int getLastStep()
+    {
+        return segments.isEmpty() ? -1 : segments.peekLast().lastStep();
+    }
+
+    /**
+     * Find the closest step at or before the given one that is still
+     * stored. Older parts of the history may have been thinned out.
+     * @param step The step wanted.
+     * @return The step that can be rewound to, or -1 if there is none.
+     */
+    public int reachableStep(int step)
+    {
+        int reachable = -1;
+        for(Segment segment : segments) {
+            if(segment.step > step) {
+                break;
+            }
+            reachable = Math.min(step, segment.lastStep());
+        }
+        return reachable;
+    }
+
+    /**
+     * @return The memory taken by the history, in bytes.
+     */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * Rebuild the state at a stored step.
+     * @param step A step for which reachableStep returns the step itself.
+     * @return The animals' state at that step.
+     */
+    public Frame frameAt(int step)
+    {
+        Segment found = null;
+        for(Segment segment : segments) {
+            if(segment.step <= step && step <= segment.lastStep()) {
+                found = segment;
+            }
+        }
+        if(found == null) {
+            throw new IllegalArgumentException("Step " + step + " is not in the history");
+        }
+        Frame frame = decodeKeyframe(found.keyframe, found.step);
+        for(int s = found.step + 1; s <= step; s++) {
+            frame = decodeDelta(found.deltas.get(s - found.step - 1), frame);
+        }
+        return frame;
+    }
+
+    /**
+     * Note that the simulator has been put back to the given frame, so
+     * the next step is encoded against the restored animals.
+     * @param frame The frame restored.
+     * @param animals The restored animals, in acting order.
+     */
+    public void rewound(Frame frame, List<Animal> animals)
+    {
+        previous = living(animals);
+        previousFrame = frame;
+    }
+
+    /**
+     * Forget every step after the given one.
+     */
+    private void truncateAfter(int step)
+    {
+        while(!segments.isEmpty() && segments.peekLast().step > step) {
+            Segment removed = segments.pollLast();
+            bytes -= removed.size();
+        }
+        Segment last = segments.peekLast();
+        if(last != null && last.deltas != null) {
+            while(last.lastStep() > step) {
+                byte[] removed = last.deltas.remove(last.deltas.size() - 1);
+                bytes -= removed.length + ARRAY_OVERHEAD;
+            }
+        }
+    }
+
+    /**
+     * Drop old history until the budget is met. The newest segment is
+     * always kept whole.
+     */
+    private void thin()
+    {
+        Iterator<Segment> it = segments.iterator();
+        while(bytes > budget && segments.size() > 1) {
+            Segment oldest = it.hasNext() ? it.next() : null;
+            if(oldest != null && oldest != segments.peekLast()) {
+                if(oldest.deltas != null) {
+                    bytes -= oldest.size() - oldest.keyframe.length - ARRAY_OVERHEAD;
+                    oldest.deltas = null;
+                }
+            }
+            else {
+                // Every older segment is down to its keyframe: drop keyframes.
+                Segment removed = segments.pollFirst();
+                bytes -= removed.size();
+                it = segments.iterator();
+            }
+        }
+    }
+
+    /**
+     * Return the living animals of the list, in order. Animals eaten
+     * after their turn stay in the simulator's list until the next
+     * step but have no further effect, so they are left out.
+     */
+    private static Animal[] living(List<Animal> animals)
+    {
+        List<Animal> alive = new ArrayList<>(animals.size());
+        for(Animal animal : animals) {
+            if(animal.isAlive()) {
+                alive.add(animal);
+            }
+        }
+        return alive.toArray(new Animal[0]);
+    }
+
+    /**
+     * Encode a full frame.
+     */
+    private static byte[] encodeKeyframe(Frame frame)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + frame.size() * 6);
+        VarInts.writeUnsigned(out, frame.randomState);
+        VarInts.writeUnsigned(out, frame.size());
+        for(int i = 0; i < frame.size(); i++) {
+            writeEntry(out, frame, i);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a full frame.
+     */
+    private static Frame decodeKeyframe(byte[] data, int step)
+    {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        long randomState = VarInts.readUnsigned(in);
+        Frame frame = new Frame(step, randomState, (int) VarInts.readUnsigned(in));
+        for(int i = 0; i < frame.size(); i++) {
+            readEntry(in, frame, i);
+        }
+        return frame;
+    }
+
+    /**
+     * Encode a step as the changes from the step before it. The
+     * simulator keeps survivors in order, so the two lists can be
+     * walked side by side; newborns, which may sit anywhere in the
+     * new list, are stored with their positions.
+     * @return The delta, or null if the survivors changed order.
+     */
+    private static byte[] encodeDelta(Animal[] before, Frame beforeFrame, Animal[] after, Frame afterFrame)
+    {
+        Set<Animal> known = Collections.newSetFromMap(new IdentityHashMap<>(before.length * 2));
+        Collections.addAll(known, before);
+
+        // Flags start out as REMOVED (0).
+        byte[] flags = new byte[(before.length + 3) / 4];
+        ByteArrayOutputStream changes = new ByteArrayOutputStream(before.length);
+        ByteArrayOutputStream births = new ByteArrayOutputStream();
+        int born = 0;
+        int lastBorn = 0;
+        int i = 0;
+        for(int j = 0; j < after.length; j++) {
+            if(!known.contains(after[j])) {
+                VarInts.writeUnsigned(births, j - lastBorn);
+                writeEntry(births, afterFrame, j);
+                lastBorn = j;
+                born++;
+                continue;
+            }
+            while(i < before.length && before[i] != after[j]) {
+                i++;
+            }
+            if(i == before.length) {
+                // The survivors have been reordered: no delta possible.
+                return null;
+            }
+            int flag;
+            if(afterFrame.sameState(j, beforeFrame, i)) {
+                if(afterFrame.cells[j] == beforeFrame.cells[i]) {
+                    flag = SAME;
+                }
+                else {
+                    flag = MOVED;
+                    VarInts.writeSigned(changes, afterFrame.cells[j] - beforeFrame.cells[i]);
+                }
+            }
+            else {
+                flag = CHANGED;
+                writeEntry(changes, afterFrame, j);
+            }
+            flags[i >> 2] |= flag << ((i & 3) * 2);
+            i++;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + flags.length + changes.size() + births.size());
+        VarInts.writeUnsigned(out, afterFrame.randomState);
+        out.write(flags, 0, flags.length);
+        out.write(changes.toByteArray(), 0, changes.size());
+        VarInts.writeUnsigned(out, born);
+        out.write(births.toByteArray(), 0, births.size());
+        return out.toByteArray();
+    }
+
+    /**
+     * Apply a delta to the frame of the step before it.
+     */
+    private static Frame decodeDelta(byte[] data, Frame before)
+    {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        long randomState = VarInts.readUnsigned(in);
+        int flagStart = in.position();
+        in.position(flagStart + (before.size() + 3) / 4);
+
+        Frame survivors = new Frame(before.step + 1, randomState, before.size());
+        int kept = 0;
+        for(int i = 0; i < before.size(); i++) {
+            int flag = (data[flagStart + (i >> 2)] >> ((i & 3) * 2)) & 3;
+            if(flag == REMOVED) {
+                continue;
+            }
+            survivors.copy(kept, before, i);
+            if(flag == MOVED) {
+                survivors.cells[kept] += VarInts.readSigned(in);
+            }
+            else if(flag == CHANGED) {
+                readEntry(in, survivors, kept);
+            }
+            kept++;
+        }
+
+        int born = (int) VarInts.readUnsigned(in);
+        Frame after = new Frame(before.step + 1, randomState, kept + born);
+        int nextBorn = born > 0 ? (int) VarInts.readUnsigned(in) : -1;
+        int survivor = 0;
+        for(int j = 0; j < after.size(); j++) {
+            if(j == nextBorn) {
+                readEntry(in, after, j);
+                born--;
+                nextBorn = born > 0 ? j + (int) VarInts.readUnsigned(in) : -1;
+            }
+            else {
+                after.copy(j, survivors, survivor++);
+            }
+        }
+        return after;
+    }
+
+    /**
+     * Write one animal's full state.
+     */
+    private static void writeEntry(ByteArrayOutputStream out, Frame frame, int i)
+    {
+        VarInts.writeUnsigned(out, frame.cells[i]);
+        VarInts.writeUnsigned(out, frame.kinds[i]);
+        VarInts.writeSigned(out, frame.births[i]);
+        VarInts.writeSigned(out, frame.starves[i]);
+    }
+
+    /**
+     * Read one animal's full state.
+     */
+    private static void readEntry(ByteBuffer in, Frame frame, int i)
+    {
+        frame.cells[i] = VarInts.readUnsigned(in);
+        frame.kinds[i] = (int) VarInts.readUnsigned(in);
+        frame.births[i] = (int) VarInts.readSigned(in);
+        frame.starves[i] = (int) VarInts.readSigned(in);
+    }
+
+    /**
+     * The state of every living animal at the end of a step.
+     */
+    public static class Frame
+    {
+        // The step and the random generator's state at its end.
+        private final int step;
+        private final long randomState;
+        // Per animal, in acting order: cell index, species and gender,
+        // the step it was born and the step its food runs out (0 if none).
+        private final long[] cells;
+        private final int[] kinds;
+        private final int[] births;
+        private final int[] starves;
+
+        /**
+         * Create a frame with room for the given number of animals.
+         */
+        private Frame(int step, long randomState, int size)
+        {
+            this.step = step;
+            this.randomState = randomState;
+            cells = new long[size];
+            kinds = new int[size];
+            births = new int[size];
+            starves = new int[size];
+        }
+
+        /**
+         * @return The step of this frame.
+         */
+        public int getStep()
+        {
+            return step;
+        }
+
+        /**
+         * @return The number of animals in this frame.
+         */
+        public int size()
+        {
+            return cells.length;
+        }
+
+        /**
+         * Put the animals of this frame into an empty field and list,
+         * and the random generator back into its state.
+         * @param field The field to fill. It should be empty.
+         * @param animals The list to add the animals to, in acting order.
+         */
+        public void restore(Field field, List<Animal> animals)
+        {
+            int width = field.getWidth();
+            for(int i = 0; i < size(); i++) {
+                Location location = new Location((int) (cells[i] / width), (int) (cells[i] % width));
+                int food = starves[i] == 0 ? 0 : starves[i] - step;
+                animals.add(Animal.restore(kinds[i] >> 1, field, location, step - births[i], food, kinds[i] & 1));
+            }
+            Randomizer.setState(randomState);
+        }
+
+        /**
+         * Store an animal's state.
+         */
+        private void set(int i, Animal animal, int width)
+        {
+            Location location = animal.getLocation();
+            cells[i] = (long) location.getRow() * width + location.getCol();
+            kinds[i] = animal.getSpecies() << 1 | animal.getGender();
+            births[i] = step - animal.getAge();
+            starves[i] = animal.getFoodLevel() == 0 ? 0 : step + animal.getFoodLevel();
+        }
+
+        /**
+         * Copy an animal's state from another frame.
+         */
+        private void copy(int i, Frame from, int j)
+        {
+            cells[i] = from.cells[j];
+            kinds[i] = from.kinds[j];
+            births[i] = from.births[j];
+            starves[i] = from.starves[j];
+        }
+
+        /**
+         * Whether everything but the cell matches an entry of another frame.
+         */
+        private boolean sameState(int i, Frame other, int j)
+        {
+            return kinds[i] == other.kinds[j] && births[i] == other.births[j]
+                   && starves[i] == other.starves[j];
+        }
+    }
+
+    /**
+     * A keyframe and the deltas of the steps following it.
+     */
+    private static class Segment
+    {
+        // The step of the keyframe.
+        private final int step;
+        private final byte[] keyframe;
+        // The deltas of the following steps, or null once thinned out.
+        private List<byte[]> deltas;
+
+        Segment(int step, byte[] keyframe)
+        {
+            this.step = step;
+            this.keyframe = keyframe;
+            deltas = new ArrayList<>();
+        }
+
+        /**
+         * @return The last step this segment can rebuild.
+         */
+        int lastStep()
+        {
+            return deltas == null ? step : step + deltas.size();
+        }
+
+        /**
+         * @return The memory taken by this segment, as counted in the budget.
+         */
+        long size()
+        {
+            long size = keyframe.length + ARRAY_OVERHEAD;
+            if(deltas != null) {
+                for(byte[] delta : deltas) {
+                    size += delta.length + ARRAY_OVERHEAD;
+                }
+            }
+            return size;
+        }
+    }
+}
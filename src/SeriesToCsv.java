@@ -0,0 +1,65 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Convert a population series written by PopulationExporter to CSV.
+ * Usage: java SeriesToCsv series.bin [series.csv]
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class SeriesToCsv
+{
+    /**
+     * Convert the file named by the first argument. The CSV is written
+     * to the second argument, or next to the input if there is none.
+     * @param args The input file and, optionally, the output file.
+     */
+    public static void main(String[] args)
+    {
+        if(args.length < 1) {
+            System.out.println("Usage: java SeriesToCsv series.bin [series.csv]");
+            return;
+        }
+        File input = new File(args[0]);
+        File output = new File(args.length > 1 ? args[1] : args[0].replaceFirst("(\\.[^./\\\\]*)?$", ".csv"));
+        try {
+            convert(input, output);
+        }
+        catch(IOException e) {
+            System.out.println("Error converting " + input + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write a population series out as CSV, one line per step.
+     * @param input The series file.
+     * @param output The CSV file to write.
+     * @throws IOException If either file cannot be used.
+     */
+    public static void convert(File input, File output) throws IOException
+    {
+        PopulationSeries series = new PopulationSeries(input);
+        List<String> names = series.getColumnNames();
+        int[][] columns = new int[names.size()][];
+        for(int c = 0; c < columns.length; c++) {
+            columns[c] = series.column(c);
+        }
+        try(PrintWriter out = new PrintWriter(output, "UTF-8")) {
+            out.println(String.join(",", names));
+            StringBuilder line = new StringBuilder();
+            for(int row = 0; row < series.getRowCount(); row++) {
+                line.setLength(0);
+                for(int c = 0; c < columns.length; c++) {
+                    if(c > 0) {
+                        line.append(',');
+                    }
+                    line.append(columns[c][row]);
+                }
+                out.println(line);
+            }
+        }
+    }
+}
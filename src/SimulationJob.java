@@ -0,0 +1,385 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A simulation run submitted to the JobServer. A job is described by
+ * properties:
+ * <pre>
+ * user=alice             who submitted it, for fair sharing (default "anonymous")
+ * name=sweep-17          a label echoed in the results (default: the job number)
+ * seed=42                the seed of the random generator (default 6845)
+ * steps=1000             the number of steps to run (required)
+ * depth=80, width=120    the size of the field, within the server's limit on cells
+ * every=10               report the counts every so many steps (default 1)
+ * export=out.csv         also export the population series to a file of
+ *                        that name in the server's export directory
+ * rabbit.ba, rabbit.bp, rabbit.mls,
+ * fox.ba, fox.bp, fox.mls, fox.fv, fox.sr,
+ * lion.ba, lion.bp, lion.mls, lion.rfv, lion.ffv, lion.sr
+ *                        the parameters of the animal classes
+ * </pre>
+ * Results are lines of text: "step n count count ..." with a count for
+ * each species, then "done n" or "error message". They are queued for
+ * the job's output, and the job is not run further while its queue is
+ * full, so a slow reader holds back only its own jobs. The queue is
+ * written out by short tasks, one at a time, whenever the server asks,
+ * so no thread waits on a job between slices.
+ *
+ * A job run in a JobWorker process is there as well as in the server:
+ * the copy in the worker runs the simulation and hands its results
+ * back with takeResults, and the server adds them to its own copy's
+ * queue with addResults.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class SimulationJob
+{
+    // The number of result lines that may wait to be written.
+    private static final int OUTPUT_CAPACITY = 1024;
+    // Marks the end of the results for the thread writing them.
+    private static final String END = new String("end");
+
+    // The job's number, given by the server.
+    private final long id;
+    // The properties the job was created from.
+    private final Properties description;
+    // Who submitted the job.
+    private final String user;
+    // The job's label.
+    private final String name;
+    // The seed of the random generator.
+    private final long seed;
+    // The number of steps to run.
+    private final int steps;
+    // The size of the field.
+    private final int depth, width;
+    // The number of steps between reports.
+    private final int every;
+    // Where to export the population series, or null.
+    private final File export;
+    // The parameters of the animal classes.
+    private final ParameterSet parameters;
+    // Result lines waiting to be written.
+    private final BlockingQueue<String> output = new ArrayBlockingQueue<>(OUTPUT_CAPACITY);
+
+    // The simulation, once started.
+    private Simulator simulator;
+    // The state of the shared random generator when the job last stopped.
+    private long randomState;
+    // Whether the job has finished, one way or another.
+    private volatile boolean finished;
+
+    // Where the results are written, once the server has a reader for them.
+    private volatile Writer out;
+    // The threads the results are written on.
+    private Executor writer;
+    // Run once the results have all been written, or cannot be.
+    private Runnable onEnd;
+    // Whether onEnd has been run; only read by the writing task.
+    private boolean ended;
+    // The number of times the writing task has been asked to run.
+    private final AtomicInteger flushes = new AtomicInteger();
+
+    /**
+     * Create a job from its description.
+     * @param id The job's number.
+     * @param description The job's properties.
+     * @throws IllegalArgumentException If a property is missing or not valid.
+     */
+    public SimulationJob(long id, Properties description)
+    {
+        this.id = id;
+        this.description = (Properties) description.clone();
+        user = description.getProperty("user", "anonymous");
+        name = description.getProperty("name", String.valueOf(id));
+        seed = Long.parseLong(description.getProperty("seed", "6845"));
+        String stepCount = description.getProperty("steps");
+        if(stepCount == null) {
+            throw new IllegalArgumentException("No steps given");
+        }
+        steps = Integer.parseInt(stepCount);
+        depth = Integer.parseInt(description.getProperty("depth", "80"));
+        width = Integer.parseInt(description.getProperty("width", "120"));
+        every = Math.max(1, Integer.parseInt(description.getProperty("every", "1")));
+        String exportPath = description.getProperty("export");
+        export = exportPath == null ? null : new File(exportPath);
+        if(steps < 0 || depth <= 0 || width <= 0) {
+            throw new IllegalArgumentException("Steps, depth and width must not be negative or zero");
+        }
+
+        parameters = new ParameterSet();
+        ParameterSet d = parameters;
+        parameters.setRabbit(intOf(description, "rabbit.ba", d.getRabbitBA()),
+                             doubleOf(description, "rabbit.bp", d.getRabbitBP()),
+                             intOf(description, "rabbit.mls", d.getRabbitMLS()));
+        parameters.setFox(intOf(description, "fox.ba", d.getFoxBA()), doubleOf(description, "fox.bp", d.getFoxBP()),
+                          intOf(description, "fox.mls", d.getFoxMLS()), intOf(description, "fox.fv", d.getFoxFV()),
+                          intOf(description, "fox.sr", d.getFoxSR()));
+        parameters.setLion(intOf(description, "lion.ba", d.getLionBA()), doubleOf(description, "lion.bp", d.getLionBP()),
+                           intOf(description, "lion.mls", d.getLionMLS()), intOf(description, "lion.rfv", d.getLionRFV()),
+                           intOf(description, "lion.ffv", d.getLionFFV()), intOf(description, "lion.sr", d.getLionSR()));
+    }
+
+    /**
+     * Read an int property, or a default if it is not given.
+     */
+    private static int intOf(Properties description, String key, int otherwise)
+    {
+        String value = description.getProperty(key);
+        return value == null ? otherwise : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Read a double property, or a default if it is not given.
+     */
+    private static double doubleOf(Properties description, String key, double otherwise)
+    {
+        String value = description.getProperty(key);
+        return value == null ? otherwise : Double.parseDouble(value.trim());
+    }
+
+    /**
+     * Run the job for up to the given number of steps, starting the
+     * simulation on the first call. Only one job may run at a time in
+     * a process, as simulations share static state.
+     * @param slice The most steps to run.
+     * @return true if the job has finished.
+     */
+    synchronized boolean runSlice(int slice)
+    {
+        try {
+            if(simulator == null) {
+                Randomizer.getRandom().setSeed(seed);
+                simulator = new Simulator(depth, width);
+                simulator.setParameters(parameters);
+                simulator.reset();
+                if(export != null) {
+                    simulator.startExport(export);
+                }
+                report();
+            }
+            else {
+                Randomizer.setState(randomState);
+                simulator.makeCurrent();
+            }
+            for(int s = 0; s < slice && simulator.getStep() < steps; s++) {
+                simulator.simulateOneStep();
+                if(simulator.getStep() % every == 0 || simulator.getStep() == steps) {
+                    report();
+                }
+            }
+            randomState = Randomizer.getState();
+            if(simulator.getStep() >= steps) {
+                simulator.stopExport();
+                finish("done " + steps);
+            }
+        }
+        catch(IOException | RuntimeException e) {
+            fail(e.toString());
+        }
+        catch(Error e) {
+            // E.g. out of memory: end the job, not the process running it,
+            // and let its simulation be collected.
+            fail(e.toString());
+            simulator = null;
+        }
+        return finished;
+    }
+
+    /**
+     * Queue the counts of the current step.
+     */
+    private void report()
+    {
+        StringBuilder line = new StringBuilder("step ").append(simulator.getStep());
+        for(int count : simulator.getCounts()) {
+            line.append(' ').append(count);
+        }
+        output.add(line.toString());
+    }
+
+    /**
+     * Take the results queued so far, to hand them to the copy of the
+     * job in the server.
+     * @return The result lines, in order.
+     */
+    List<String> takeResults()
+    {
+        List<String> lines = new ArrayList<>();
+        output.drainTo(lines);
+        lines.removeIf(line -> line == END);
+        return lines;
+    }
+
+    /**
+     * Queue the results of a slice run elsewhere. Ignored once the job
+     * has finished here, e.g. as it has been cancelled.
+     * @param lines The result lines, in order.
+     * @param done Whether the job finished in the slice.
+     */
+    void addResults(List<String> lines, boolean done)
+    {
+        if(finished) {
+            return;
+        }
+        // They fit: a job is only run with room for a slice.
+        for(String line : lines) {
+            output.offer(line);
+        }
+        if(done) {
+            finished = true;
+            output.offer(END);
+        }
+    }
+
+    /**
+     * End the job with an error, e.g. when it is cancelled, and stop
+     * its export. Waits for a slice that is running to end.
+     * @param message The reason.
+     */
+    synchronized void fail(String message)
+    {
+        if(simulator != null) {
+            try {
+                simulator.stopExport();
+            }
+            catch(IOException ignored) {
+                // The job has already failed.
+            }
+        }
+        finish("error " + message.replace('\n', ' '));
+    }
+
+    /**
+     * Queue the final line and mark the job finished.
+     */
+    private void finish(String line)
+    {
+        if(!finished) {
+            finished = true;
+            // The final lines always fit: a job is only run with room for a slice.
+            output.offer(line);
+            output.offer(END);
+        }
+    }
+
+    /**
+     * Return whether there is room in the output for a slice of steps.
+     * @param slice The number of steps in a slice.
+     * @return true if the job can be run.
+     */
+    boolean hasRoomFor(int slice)
+    {
+        return output.remainingCapacity() >= slice / every + 3;
+    }
+
+    /**
+     * Start writing the results to a writer, with a header line. The
+     * results queued so far are written straight away, and later ones
+     * each time flush is called.
+     * @param out Where to write the results. It is flushed after each
+     *            batch but not closed.
+     * @param executor Runs the writing, a short task at a time.
+     * @param onEnd Run once the results have all been written, or once
+     *              they cannot be, as the reader has gone; the job is
+     *              then cancelled.
+     * @throws IOException If the header cannot be written; the job is
+     *                     then cancelled.
+     */
+    void streamTo(Writer out, Executor executor, Runnable onEnd) throws IOException
+    {
+        try {
+            out.write("job " + id + " " + name + "\n");
+            out.flush();
+        }
+        catch(IOException e) {
+            fail("client went away");
+            throw e;
+        }
+        writer = executor;
+        this.onEnd = onEnd;
+        this.out = out;
+        flush();
+    }
+
+    /**
+     * Write the results queued so far, on the writing executor, unless
+     * they are being written already, in which case the writing task
+     * goes round again. Does nothing before streamTo.
+     */
+    void flush()
+    {
+        if(out != null && flushes.getAndIncrement() == 0) {
+            try {
+                writer.execute(this::write);
+            }
+            catch(RejectedExecutionException e) {
+                // The server has stopped.
+                flushes.set(0);
+            }
+        }
+    }
+
+    /**
+     * The writing task: write the queued results, and end at the end.
+     */
+    private void write()
+    {
+        do {
+            if(ended) {
+                continue;
+            }
+            try {
+                String line;
+                while((line = output.poll()) != null && line != END) {
+                    out.write(line);
+                    out.write('\n');
+                }
+                out.flush();
+                if(line == END) {
+                    end();
+                }
+            }
+            catch(IOException e) {
+                // The reader has gone: cancel the job.
+                fail("client went away");
+                output.clear();
+                end();
+            }
+        } while(flushes.decrementAndGet() != 0);
+    }
+
+    /**
+     * Run onEnd, once.
+     */
+    private void end()
+    {
+        ended = true;
+        onEnd.run();
+    }
+
+    // Following methods describe the job.
+    public long getId() { return id; }
+    public String getUser() { return user; }
+    public String getName() { return name; }
+    public int getSteps() { return steps; }
+    public long getCells() { return (long) depth * width; }
+    public Properties getDescription() { return (Properties) description.clone(); }
+    public boolean isFinished() { return finished; }
+
+    public String toString()
+    {
+        return "job " + id + " (" + user + ", " + name + ", " + steps + " steps, "
+               + depth + " x " + width + ", seed " + seed + ")";
+    }
+}
@@ -1,7 +1,11 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.awt.Color;
 
 /**
@@ -18,21 +22,53 @@ public class Simulator
     private static final int DEFAULT_WIDTH = 120;
     // The default depth of the grid.
     private static final int DEFAULT_DEPTH = 80;
-    // The probability that a fox will be created in any given grid position.
-    private static final double FOX_CREATION_PROBABILITY = 0.02;
-    // The probability that a rabbit will be created in any given grid position.
-    private static final double RABBIT_CREATION_PROBABILITY = 0.08;
-    // The probability that a lion will be created in any given grid position.
-    private static final double LION_CREATION_PROBABILITY = 0.01;
-
-    // List of animals in the field.
-    private List<Animal> animals;
+
+    // The animals in the field, one list per species, indexed by species code.
+    private List<List<Animal>> populations;
+    // The order in which the species act during a step.
+    private int[] speciesOrder;
+    // The time each species took to act in the last step, in nanoseconds.
+    private long[] speciesNanos;
     // The current state of the field.
     private Field field;
     // The current step of the simulation.
     private int step;
-    // A graphical view of the simulation.
+    // A graphical view of the simulation, or null if run without one.
     private SimulatorView view;
+    // Where the parameters of the animal classes come from.
+    private Parameters parameters;
+    // Records births, deaths and moves to a file, if requested.
+    private EventRecorder recorder;
+    // Births, deaths and animals eaten during the current step.
+    private StepTally tally;
+    // Exports the population time series to a file, if requested.
+    private PopulationExporter exporter;
+    // Recent history the simulation can be wound back through, if kept.
+    private RewindBuffer history;
+    // Whether the view's parameters have been edited since they were applied.
+    private boolean parametersChanged;
+    // Whether to populate with the parallel gap-sampling populator.
+    private boolean fastPopulate;
+    // Whether the built in species breed in bulk, tile by tile.
+    private boolean bulkBreeding;
+    // Whether the breeding kernels are specialised to the parameters.
+    private boolean specialisedKernels = true;
+    // The ages and food levels of the rabbits, foxes and lions, swept
+    // at the start of their turns, or null for each animal to age itself.
+    private AgeingColumns[] ageingColumns = newAgeingColumns();
+    // Sorts the populations by position in the field, if used.
+    private SpatialOrder spatialOrder;
+    // The number of steps between sorts, or 0 to never sort.
+    private int reorderInterval;
+    // The species index attached for predators that sense prey, if any.
+    private SpeciesIndex sensingIndex;
+    // Runs dense tiles as rabbit densities, if used.
+    private MeanFieldTiles meanField;
+    // Sends an event for each step to its subscribers, the exporter and
+    // the performance counters among them.
+    private final StepPublisher events = new StepPublisher();
+    // Counts steps and their times for the performance overlay, if attached.
+    private PerformanceCounters performance;
 
     /**
      * Construct a simulation field with default size.
@@ -48,6 +84,38 @@ public class Simulator
      * @param width Width of the field. Must be greater than zero.
      */
     public Simulator(int depth, int width)
+    {
+        this(checkedField(depth, width));
+    }
+
+    /**
+     * Create a simulation on the given field, e.g. one with a
+     * different storage layout such as a TiledField. The simulation
+     * covers the species registered in SpeciesRegistry at this point,
+     * and no more can be registered after it.
+     * @param field The field to simulate. It is cleared on reset.
+     */
+    public Simulator(Field field)
+    {
+        int speciesCount = SpeciesRegistry.seal();
+        populations = new ArrayList<>();
+        speciesOrder = new int[speciesCount];
+        for(int s = 0; s < speciesCount; s++) {
+            populations.add(new ArrayList<>());
+            speciesOrder[s] = s;
+        }
+        speciesNanos = new long[speciesCount];
+        this.field = field;
+        tally = new StepTally();
+        field.setTally(tally);
+        parameters = new ParameterSet();
+    }
+    
+    /**
+     * Create a field of the given size, or of the default size if the
+     * given one is not valid.
+     */
+    private static Field checkedField(int depth, int width)
     {
         if(width <= 0 || depth <= 0) {
             System.out.println("The dimensions must be greater than zero.");
@@ -55,11 +123,9 @@ public class Simulator
             depth = DEFAULT_DEPTH;
             width = DEFAULT_WIDTH;
         }
-        
-        animals = new ArrayList<>();
-        field = new Field(depth, width);
+        return new Field(depth, width);
     }
-    
+
     /**
      * Run the simulation from its current state for a reasonably long period,
      * (4000 steps).
@@ -77,47 +143,494 @@ public class Simulator
      */
     public void simulate(int numSteps)
     {
-        for(int step = 1; step <= numSteps && view.isViable(field); step++) {
+        for(int step = 1; step <= numSteps && isViable(); step++) {
             simulateOneStep();
         }
     }
     
     /**
      * Run the simulation from its current state for a single step.
-     * Iterate over the whole field updating the state of each
-     * fox and rabbit.
+     * Each species acts in turn, in the species order, so that every
+     * act call site in the step sees a single class of animal.
      */
     public void simulateOneStep()
     {
+        long started = System.nanoTime();
+        if(parametersChanged) {
+            applyParameters();
+        }
         step++;
+        tally.reset();
 
+        if(reorderInterval > 0 && step % reorderInterval == 0) {
+            reorder();
+        }
+
+        if(meanField != null) {
+            meanField.beforeStep(field, populations);
+        }
         // Provide space for newborn animals.
-        List<Animal> newAnimals = new ArrayList<Animal>();        
-        // Let all rabbits act.
-        for(Iterator<Animal> it = animals.iterator(); it.hasNext(); ) {
-            Animal animal = it.next();
-            animal.act(newAnimals);
-            if(! animal.isAlive()) {
-                it.remove();
+        List<Animal> newAnimals = new ArrayList<Animal>();
+        for(int species : speciesOrder) {
+            List<Animal> population = populations.get(species);
+            long start = System.nanoTime();
+            switch(species) {
+                case Rabbit.SPECIES:
+                    Rabbit.actAll(population, newAnimals, !bulkBreeding, ageing(species));
+                    break;
+                case Fox.SPECIES:
+                    Fox.actAll(population, newAnimals, !bulkBreeding, ageing(species));
+                    break;
+                case Lion.SPECIES:
+                    Lion.actAll(population, newAnimals, !bulkBreeding, ageing(species));
+                    break;
+                default:
+                    Creature.actAll(population, newAnimals);
+                    break;
             }
+            if(bulkBreeding) {
+                breedInBulk(species, population, newAnimals);
+            }
+            speciesNanos[species] = System.nanoTime() - start;
+            // Newborns join the end of their species' list.
+            population.addAll(newAnimals);
+            newAnimals.clear();
+        }
+        if(meanField != null) {
+            meanField.afterStep(field, populations.get(Rabbit.SPECIES));
         }
-               
-        // Add the newly born foxes and rabbits to the main lists.
-        animals.addAll(newAnimals);
 
-        view.showStatus(step, field);
+        if(recorder != null) {
+            recorder.endStep(step, field);
+        }
+        if(history != null) {
+            history.record(step, getAnimals());
+        }
+        publishSnapshot();
+        publishEvent(System.nanoTime() - started);
+        if(view != null) {
+            view.showStatus(step, field);
+        }
     }
         
+    /**
+     * Publish the field as it is now for readers on other threads, if
+     * the field keeps snapshots.
+     */
+    private void publishSnapshot()
+    {
+        TileSnapshots snapshots = field.getSnapshots();
+        if(snapshots != null) {
+            snapshots.publish(step);
+        }
+    }
+
+    /**
+     * Send subscribers an event for the current step, if anyone is
+     * listening. The population is counted here, once for them all.
+     * @param nanos The time the step took, or -1 if it was not simulated.
+     */
+    private void publishEvent(long nanos)
+    {
+        if(events.hasSubscribers()) {
+            TileSnapshots snapshots = field.getSnapshots();
+            events.publish(new StepEvent(step, getCounts(), tally, nanos,
+                                         snapshots == null ? null : snapshots.getLatest()));
+        }
+    }
+
+    /**
+     * Breed a built in species tile by tile, at the bulk fidelity level.
+     * Other species breed as they act whatever the level.
+     */
+    private void breedInBulk(int species, List<Animal> population, List<Animal> newAnimals)
+    {
+        if(species > Lion.SPECIES) {
+            return;
+        }
+        SplittableRandom rng = new SplittableRandom(Randomizer.getRandom().nextLong());
+        switch(species) {
+            case Rabbit.SPECIES:
+                Rabbit.breedAll(population, field, newAnimals, rng);
+                break;
+            case Fox.SPECIES:
+                Fox.breedAll(population, field, newAnimals, rng);
+                break;
+            default:
+                Lion.breedAll(population, field, newAnimals, rng);
+                break;
+        }
+    }
+
     /**
      * Reset the simulation to a starting position.
      */
     public void reset()
     {
+        // A recording or export covers a single run.
+        try {
+            stopRecording();
+            stopExport();
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
         step = 0;
-        animals.clear();
+        tally.reset();
+        clearPopulations();
+        applyParameters();
         populate();
+        publishSnapshot();
+        publishEvent(-1);
+        if(history != null) {
+            history.clear();
+            history.record(step, getAnimals());
+        }
+    }
+
+    /**
+     * Note that the view's parameters have been edited. They are applied
+     * to the running simulation at the start of the next step, without
+     * repopulating the field.
+     */
+    public void updateParameters()
+    {
+        parametersChanged = true;
+    }
+
+    /**
+     * Pass the current parameters on to every species.
+     */
+    private void applyParameters()
+    {
+        Parameters p = parameters;
+        Rabbit.setParameters(p.getRabbitBA(), p.getRabbitBP(), p.getRabbitMLS(), specialisedKernels);
+        Fox.setParameters(p.getFoxBA(), p.getFoxBP(), p.getFoxMLS(), p.getFoxFV(), p.getFoxSR(), specialisedKernels);
+        Lion.setParameters(p.getLionBA(), p.getLionBP(), p.getLionMLS(), p.getLionRFV(), p.getLionFFV(),
+                           p.getLionSR(), specialisedKernels);
+        if(meanField != null) {
+            meanField.setRates(p.getRabbitBA(), p.getRabbitBP(), p.getRabbitMLS());
+        }
+        // Predators that sense beyond their neighbours search the species index.
+        boolean sensing = p.getFoxSR() > 1 || p.getLionSR() > 1;
+        for(int s = Lion.SPECIES + 1; s < populations.size(); s++) {
+            sensing |= SpeciesRegistry.get(s).getSensingRadius() > 1;
+        }
+        if(sensing && field.getSpeciesIndex() == null) {
+            sensingIndex = new SpeciesIndex(field.getDepth(), field.getWidth());
+            field.setSpeciesIndex(sensingIndex);
+        }
+        else if(!sensing && sensingIndex != null) {
+            // Only drop an index attached here, not one attached by the caller.
+            if(field.getSpeciesIndex() == sensingIndex) {
+                field.setSpeciesIndex(null);
+            }
+            sensingIndex = null;
+        }
+        parametersChanged = false;
+    }
+
+    /**
+     * Point the state shared by every simulation in the process, the
+     * parameters of the animal classes, back at this one, e.g. when
+     * several simulations take turns. The shared random generator is
+     * left to the caller.
+     */
+    void makeCurrent()
+    {
+        applyParameters();
     }
 
+    /**
+     * Wind the simulation back (or forward) to a step kept in the history.
+     * Running on from there repeats the original run exactly, unless the
+     * parameters have been changed. Recording and export are stopped, as
+     * the run they describe is left behind.
+     * @param target The step to go to. If it has been thinned out of the
+     *               history, the closest earlier step kept is used.
+     */
+    public void rewindTo(int target)
+    {
+        if(history == null) {
+            return;
+        }
+        int reachable = history.reachableStep(target);
+        if(reachable < 0 || reachable == step) {
+            return;
+        }
+        try {
+            stopRecording();
+            stopExport();
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        RewindBuffer.Frame frame = history.frameAt(reachable);
+        field.clear();
+        clearPopulations();
+        List<Animal> restored = new ArrayList<>();
+        frame.restore(field, restored);
+        addAll(restored);
+        step = frame.getStep();
+        history.rewound(frame, getAnimals());
+        tally.reset();
+        publishSnapshot();
+        publishEvent(-1);
+        if(view != null) {
+            view.showStatus(step, field);
+        }
+    }
+
+    /**
+     * Keep a history of recent steps to rewind through.
+     * @param buffer The history to keep, or null to keep none.
+     */
+    public void setHistory(RewindBuffer buffer)
+    {
+        history = buffer;
+        if(history != null) {
+            history.clear();
+            history.record(step, getAnimals());
+        }
+    }
+
+    /**
+     * @return The history of recent steps, or null if none is kept.
+     */
+    public RewindBuffer getHistory() { return history; }
+
+    /**
+     * Start recording births, deaths and moves to an event log.
+     * Any recording already running is stopped first.
+     * @param file The file to write the log to.
+     * @throws IOException If the file cannot be written.
+     */
+    public void startRecording(File file) throws IOException
+    {
+        stopRecording();
+        recorder = new EventRecorder(file, field, step, EventRecorder.DEFAULT_KEYFRAME_INTERVAL);
+        field.setRecorder(recorder);
+    }
+
+    /**
+     * Stop recording, if a recording is running, and finish the log.
+     * @throws IOException If the log could not be written.
+     */
+    public void stopRecording() throws IOException
+    {
+        if(recorder != null) {
+            EventRecorder finished = recorder;
+            recorder = null;
+            field.setRecorder(null);
+            finished.close();
+        }
+    }
+
+    /**
+     * @return true if a recording is running.
+     */
+    public boolean isRecording() { return recorder != null; }
+
+    /**
+     * Start exporting the population time series, one row per step.
+     * The exporter is subscribed to the step events so that it sees
+     * every step. Any export already running is stopped first.
+     * @param file The file to write the series to.
+     * @throws IOException If the file cannot be written.
+     */
+    public void startExport(File file) throws IOException
+    {
+        stopExport();
+        exporter = new PopulationExporter(file);
+        events.subscribe(exporter, StepPublisher.Overflow.BLOCK, StepPublisher.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Stop exporting, if an export is running, and wait for the rows of
+     * the steps so far to be written and the file finished.
+     * @throws IOException If the series could not be written.
+     */
+    public void stopExport() throws IOException
+    {
+        if(exporter != null) {
+            PopulationExporter finished = exporter;
+            exporter = null;
+            events.unsubscribe(finished);
+            finished.finish();
+        }
+    }
+
+    /**
+     * Set the order in which the species act during each step.
+     * @param order Every species code, once each.
+     */
+    public void setSpeciesOrder(int... order)
+    {
+        int[] sorted = order.clone();
+        Arrays.sort(sorted);
+        for(int s = 0; s < sorted.length; s++) {
+            if(sorted[s] != s || sorted.length != populations.size()) {
+                throw new IllegalArgumentException("Species order must list every species once: " + Arrays.toString(order));
+            }
+        }
+        speciesOrder = order.clone();
+    }
+
+    /**
+     * Sort each population along a space-filling curve every so many
+     * steps. Animals then act roughly tile by tile, so neighbouring
+     * lookups stay in cache on large fields. Sorting changes the order
+     * animals act in, and so the course of a seeded run.
+     * @param interval The number of steps between sorts, or 0 to never sort.
+     */
+    public void setReorderInterval(int interval)
+    {
+        reorderInterval = Math.max(0, interval);
+    }
+
+    /**
+     * Run tiles crowded with rabbits as densities rather than rabbits,
+     * so that large blooms cost little. The densities are lost on reset
+     * and on rewinding, as the history holds only animals.
+     * @param tiles The tiles, sized to the field, or null to simulate every rabbit.
+     */
+    public void setMeanField(MeanFieldTiles tiles)
+    {
+        meanField = tiles;
+        if(meanField != null) {
+            Parameters p = parameters;
+            meanField.setRates(p.getRabbitBA(), p.getRabbitBP(), p.getRabbitMLS());
+        }
+    }
+
+    /**
+     * @return The tiles run as densities, or null if every rabbit is simulated.
+     */
+    public MeanFieldTiles getMeanField() { return meanField; }
+
+    /**
+     * Return the publisher of an event for each step, from reset on.
+     * Rewinding sends an event for the step wound back to, with no
+     * births or deaths.
+     * @return The publisher of step events.
+     */
+    public StepPublisher getEvents() { return events; }
+
+    /**
+     * Count each step and its time, leaving out the view's drawing of it.
+     * The counters are subscribed to the step events, and see every one.
+     * @param counters The counters, or null to stop counting.
+     */
+    public void setPerformance(PerformanceCounters counters)
+    {
+        if(performance != null) {
+            events.unsubscribe(performance);
+        }
+        performance = counters;
+        if(performance != null) {
+            events.subscribe(performance, StepPublisher.Overflow.BLOCK, StepPublisher.DEFAULT_CAPACITY);
+        }
+    }
+
+    /**
+     * @return The counters of steps, or null if none are attached.
+     */
+    public PerformanceCounters getPerformance() { return performance; }
+
+    /**
+     * Keep copy-on-write snapshots of the field for readers on other
+     * threads (see TileSnapshots), or stop keeping them. A snapshot is
+     * published after every step, reset and rewind, and sent with the
+     * step event; the latest is also at getField().getSnapshots().
+     * @param keep true to keep snapshots.
+     */
+    public void setSnapshots(boolean keep)
+    {
+        if(keep && field.getSnapshots() == null) {
+            field.setSnapshots(new TileSnapshots(field.getDepth(), field.getWidth()));
+            publishSnapshot();
+        }
+        else if(!keep) {
+            field.setSnapshots(null);
+        }
+    }
+
+    /**
+     * Return the ageing columns of a built in species, or null if its
+     * animals age themselves.
+     */
+    private AgeingColumns ageing(int species)
+    {
+        return ageingColumns == null ? null : ageingColumns[species];
+    }
+
+    /**
+     * Create ageing columns for the rabbits, foxes and lions.
+     */
+    private static AgeingColumns[] newAgeingColumns()
+    {
+        AgeingColumns[] columns = new AgeingColumns[Lion.SPECIES + 1];
+        for(int s = 0; s < columns.length; s++) {
+            columns[s] = new AgeingColumns();
+        }
+        return columns;
+    }
+
+    /**
+     * Sort every population by position in the field.
+     */
+    private void reorder()
+    {
+        if(spatialOrder == null) {
+            spatialOrder = new SpatialOrder(field.getDepth(), field.getWidth());
+        }
+        for(List<Animal> population : populations) {
+            spatialOrder.sort(population);
+        }
+    }
+
+    /**
+     * Return every animal, species by species in acting order. Animals
+     * eaten after their turn may still be included until the next step.
+     * @return A new list of the animals.
+     */
+    public List<Animal> getAnimals()
+    {
+        List<Animal> all = new ArrayList<>();
+        for(int species : speciesOrder) {
+            all.addAll(populations.get(species));
+        }
+        return all;
+    }
+
+    /**
+     * Count the living animals of each species. Rabbits held as
+     * densities are included, rounded to the nearest whole rabbit.
+     * @return The counts, indexed by species code.
+     */
+    public int[] getCounts()
+    {
+        int[] counts = new int[populations.size()];
+        for(int s = 0; s < counts.length; s++) {
+            for(Animal animal : populations.get(s)) {
+                if(animal.isAlive()) {
+                    counts[s]++;
+                }
+            }
+        }
+        if(meanField != null) {
+            counts[Rabbit.SPECIES] += (int) Math.round(meanField.getMass());
+        }
+        return counts;
+    }
+
+    /**
+     * Return how long a species took to act in the last step.
+     * @param species A species code.
+     * @return The time in nanoseconds.
+     */
+    public long getSpeciesNanos(int species) { return speciesNanos[species]; }
+
     /**
      * Gets the current field.
      * @return field
@@ -131,37 +644,191 @@ public class Simulator
     public int getStep() { return step; }
 
     /**
-     * Sets view as the GUI
+     * Sets view as the GUI. The view also provides the parameters.
      * @param s The SimulatorView
      */
-    public void setView(SimulatorView s) { view = s; }
+    public void setView(SimulatorView s) { view = s; parameters = s; }
+
+    /**
+     * Sets where the parameters of the animal classes come from, for
+     * simulations run without a view. They are applied at the next step.
+     * @param p The parameters.
+     */
+    public void setParameters(Parameters p) { parameters = p; parametersChanged = true; }
+
+    /**
+     * Determine whether the simulation should continue to run.
+     * @return true If there is more than one species alive.
+     */
+    public boolean isViable()
+    {
+        int nonZero = 0;
+        for(int count : getCounts()) {
+            if(count > 0) {
+                nonZero++;
+            }
+        }
+        return nonZero > 1;
+    }
     
     /**
-     * Randomly populate the field with foxes and rabbits.
+     * Choose how the field is populated on reset. The fast populator
+     * skips empty cells and fills bands of rows in parallel, which
+     * suits very large fields; it gives the same species densities but
+     * not the same field as the default for a given seed.
+     * @param fast true to use the fast populator.
+     */
+    public void setFastPopulate(boolean fast) { fastPopulate = fast; }
+
+    /**
+     * Choose the fidelity of breeding (see BulkBreeding). Takes effect
+     * from the next step.
+     * @param bulk true to breed the built in species in bulk tile by
+     *             tile, false to breed each animal exactly as it acts.
+     */
+    public void setBulkBreeding(boolean bulk) { bulkBreeding = bulk; }
+
+    /**
+     * @return true if the built in species breed in bulk.
+     */
+    public boolean isBulkBreeding() { return bulkBreeding; }
+
+    /**
+     * Choose whether the rabbits, foxes and lions age and go hungry in
+     * one sweep over primitive columns at the start of their turns
+     * (see AgeingColumns), or each as it acts. Both give the same run.
+     * @param sweep true to sweep, false for each animal to age itself.
+     */
+    public void setSweepAgeing(boolean sweep)
+    {
+        ageingColumns = sweep ? newAgeingColumns() : null;
+    }
+
+    /**
+     * Choose whether the breeding kernels are specialised to the
+     * parameters or read them on every call (see BreedingKernels).
+     * Both give the same run. Takes effect from the next step.
+     * @param specialised true to specialise, false for the generic path.
+     */
+    public void setSpecialisedKernels(boolean specialised)
+    {
+        specialisedKernels = specialised;
+        parametersChanged = true;
+    }
+
+    /**
+     * @return true if the breeding kernels are specialised to the parameters.
+     */
+    public boolean isSpecialisedKernels() { return specialisedKernels; }
+
+    /**
+     * Randomly populate the field. Each cell is offered to the species
+     * in placement order, and goes to the first that takes it.
      */
     private void populate()
     {
         Random rand = Randomizer.getRandom();
         field.clear();
+        List<Animal> animals = new ArrayList<>();
+        int[] order = placementOrder();
+        double[] probabilities = new double[order.length];
+        for(int i = 0; i < order.length; i++) {
+            probabilities[i] = SpeciesRegistry.get(order[i]).getCreationProbability();
+        }
+        if(fastPopulate) {
+            new FastPopulator(order, probabilities).populate(field, animals, rand);
+            addAll(animals);
+            return;
+        }
         for(int row = 0; row < field.getDepth(); row++) {
             for(int col = 0; col < field.getWidth(); col++) {
-                if(rand.nextDouble() <= LION_CREATION_PROBABILITY) {
-                    Location location = new Location(row, col);
-                    Lion lion = new Lion(true, field, location, view.getLionBA(), view.getLionBP(), view.getLionMLS(), view.getLionRFV(), view.getLionFFV());
-                    animals.add(lion);
-                }
-                else if(rand.nextDouble() <= FOX_CREATION_PROBABILITY) {
-                    Location location = new Location(row, col);
-                    Fox fox = new Fox(true, field, location, view.getFoxBA(), view.getFoxBP(), view.getFoxMLS(), view.getFoxFV());
-                    animals.add(fox);
-                }
-                else if(rand.nextDouble() <= RABBIT_CREATION_PROBABILITY) {
-                    Location location = new Location(row, col);
-                    Rabbit rabbit = new Rabbit(true, field, location, view.getRabbitBA(), view.getRabbitBP(), view.getRabbitMLS());
-                    animals.add(rabbit);
+                for(int i = 0; i < order.length; i++) {
+                    if(rand.nextDouble() <= probabilities[i]) {
+                        animals.add(create(order[i], new Location(row, col)));
+                        break;
+                    }
                 }
                 // else leave the location empty.
             }
         }
+        addAll(animals);
+    }
+
+    /**
+     * Return the placement order of the species this simulation covers.
+     */
+    private int[] placementOrder()
+    {
+        int[] order = new int[populations.size()];
+        int n = 0;
+        for(int species : SpeciesRegistry.getPlacementOrder()) {
+            if(species < order.length) {
+                order[n++] = species;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Create an animal of random age for the initial population.
+     */
+    private Animal create(int species, Location location)
+    {
+        switch(species) {
+            case Lion.SPECIES:
+                return new Lion(true, field, location, parameters.getLionBA(), parameters.getLionBP(), parameters.getLionMLS(), parameters.getLionRFV(), parameters.getLionFFV());
+            case Fox.SPECIES:
+                return new Fox(true, field, location, parameters.getFoxBA(), parameters.getFoxBP(), parameters.getFoxMLS(), parameters.getFoxFV());
+            case Rabbit.SPECIES:
+                return new Rabbit(true, field, location, parameters.getRabbitBA(), parameters.getRabbitBP(), parameters.getRabbitMLS());
+            default:
+                return new Creature(species, true, field, location);
+        }
+    }
+
+    /**
+     * Add an animal already placed in the field to its species' list,
+     * e.g. one arriving from another part of a distributed field.
+     * @param animal The animal.
+     */
+    void adopt(Animal animal)
+    {
+        populations.get(animal.getSpecies()).add(animal);
+    }
+
+    /**
+     * Empty the field and every species' list and go to the given step,
+     * e.g. before filling the field from a checkpoint with adopt.
+     * @param atStep The step to go to.
+     */
+    void clearTo(int atStep)
+    {
+        field.clear();
+        clearPopulations();
+        step = atStep;
+    }
+
+    /**
+     * Empty every species' list, and any rabbit densities.
+     */
+    private void clearPopulations()
+    {
+        for(List<Animal> population : populations) {
+            population.clear();
+        }
+        if(meanField != null) {
+            meanField.clear();
+        }
+    }
+
+    /**
+     * Add animals to their species' lists, keeping their order.
+     * @param animals The animals to add.
+     */
+    private void addAll(List<Animal> animals)
+    {
+        for(Animal animal : animals) {
+            populations.get(animal.getSpecies()).add(animal);
+        }
     }
 }
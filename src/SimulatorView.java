@@ -4,10 +4,12 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
 import java.net.URL;
 import java.text.NumberFormat;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A graphical user interface to control the simulation.
@@ -20,7 +22,7 @@ import java.util.Map;
  * @author David J. Barnes, Michael Kölling and Daniel Lowry
  * @version 1.0
  */
-public class SimulatorView extends JFrame implements ActionListener
+public class SimulatorView extends JFrame implements ActionListener, Parameters
 {
     // Colors used for empty locations.
     private static final Color EMPTY_COLOR = Color.white;
@@ -33,15 +35,30 @@ public class SimulatorView extends JFrame implements ActionListener
     private JLabel stepLabel, population;
     private FieldView fieldView;
     
-    // A map for storing colors for participants in the simulation
-    private Map<Class, Color> colors;
     // A statistics object computing and storing simulation information
     private FieldStats stats;
 
     // A timer to show each step of the simulation when started.
     private Timer simTimer = new Timer(50, this);
+    // A timer that passes edited parameters on once editing pauses, so
+    // a burst of edits reaches the simulator as a single update.
+    private Timer parameterTimer;
     // A simulator object
     private Simulator sim;
+    // Counts steps and frames for the performance overlay.
+    private PerformanceCounters performance = new PerformanceCounters();
+    // A timer that refreshes the performance overlay while it is shown.
+    private Timer overlayTimer = new Timer(500, e -> showPerformance());
+    // Paints the field from its snapshots, off the event dispatch thread.
+    private final ExecutorService painter = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "field-painter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // The latest snapshot waiting to be painted, or null if the painter has caught up.
+    private final AtomicReference<TileSnapshots.Snapshot> unpainted = new AtomicReference<>();
+    // The size of the field view when the waiting snapshot was sent to the painter.
+    private volatile Dimension paintArea = new Dimension(0, 0);
     // A content pane for the GUI
     private Container contents = getContentPane();
 
@@ -49,6 +66,15 @@ public class SimulatorView extends JFrame implements ActionListener
     private int height = 94;
     private int width = 147;
 
+    // Steps between keyframes of the rewind history.
+    private static final int HISTORY_KEYFRAME_INTERVAL = 100;
+    // Memory allowed for the rewind history, in megabytes.
+    private int historyMB = 64;
+    // A slider to scrub through the rewind history.
+    private JSlider historySlider;
+    // Set while the history slider is moved by the program rather than the user.
+    private boolean updatingHistory;
+
     // Variables for changing the parameters of the animal classes.
     private int rabbitBA;
     private double rabbitBP = 0.12;
@@ -58,12 +84,14 @@ public class SimulatorView extends JFrame implements ActionListener
     private double foxBP = 0.08;
     private int foxMLS = 2;
     private int foxFV = 9;
+    private int foxSR = 1;
 
     private int lionBA = 20;
     private double lionBP = 0.08;
     private int lionMLS = 2;
     private int lionRFV = 9;
     private int lionFFV = 5;
+    private int lionSR = 1;
 
     /**
      * Draw the GUI and create a view of the given width and height.
@@ -71,7 +99,6 @@ public class SimulatorView extends JFrame implements ActionListener
     public SimulatorView()
     {
         stats = new FieldStats();
-        colors = new LinkedHashMap<>();
 
         setTitle("dandyBioSim v1.0");
         stepLabel = new JLabel(STEP_PREFIX, JLabel.CENTER);
@@ -83,9 +110,11 @@ public class SimulatorView extends JFrame implements ActionListener
 
         sim = new Simulator(height, width);
         sim.setView(this);
-        setColor(Rabbit.class, Color.orange);
-        setColor(Fox.class, Color.blue);
-        setColor(Lion.class, Color.green);
+        sim.setPerformance(performance);
+        sim.setSnapshots(true);
+        parameterTimer = new Timer(300, e -> sim.updateParameters());
+        parameterTimer.setRepeats(false);
+        sim.setHistory(new RewindBuffer(historyMB * 1024L * 1024L, HISTORY_KEYFRAME_INTERVAL, width));
 
         menu();
         tabs();
@@ -119,6 +148,19 @@ public class SimulatorView extends JFrame implements ActionListener
             JMenuItem reset = new JMenuItem("Reset");
             reset.addActionListener( e -> reset() );
             file.add(reset);
+            file.addSeparator();
+            JMenuItem record = new JMenuItem("Record Events...");
+            record.addActionListener( e -> startRecording() );
+            file.add(record);
+            JMenuItem stopRecord = new JMenuItem("Stop Recording");
+            stopRecord.addActionListener( e -> stopRecording() );
+            file.add(stopRecord);
+            JMenuItem export = new JMenuItem("Export Population...");
+            export.addActionListener( e -> startExport() );
+            file.add(export);
+            JMenuItem stopExport = new JMenuItem("Stop Export");
+            stopExport.addActionListener( e -> stopExport() );
+            file.add(stopExport);
         menuBar.add(file);
 
         JMenu window = new JMenu("Window");
@@ -195,8 +237,13 @@ public class SimulatorView extends JFrame implements ActionListener
      * @return The container of the settings GUI.
      */
     private Component settings() {
+        JPanel settings = new JPanel(new BorderLayout());
         JPanel container = new JPanel(new GridLayout(1,3));
         container.setBorder(BorderFactory.createEmptyBorder(5,5,5,5));
+        settings.add(container, BorderLayout.CENTER);
+        JButton resetWithParameters = new JButton("Reset With These Parameters");
+        resetWithParameters.addActionListener( e -> reset() );
+        settings.add(resetWithParameters, BorderLayout.SOUTH);
 
         JPanel rabbitCont = new JPanel(new GridLayout(12,1));
         rabbitCont.setBorder(BorderFactory.createTitledBorder("Rabbit"));
@@ -204,21 +251,21 @@ public class SimulatorView extends JFrame implements ActionListener
             rabbitCont.add(rabbitBALabel);
             JSlider rabbitBASlider = new JSlider(JSlider.HORIZONTAL, 0, 40, 5);
             sliderHelper(rabbitBASlider);
-            rabbitBASlider.addChangeListener( e -> {rabbitBA = rabbitBASlider.getValue(); reset();});
+            rabbitBASlider.addChangeListener( e -> {rabbitBA = rabbitBASlider.getValue(); parametersChanged();});
         rabbitCont.add(rabbitBASlider);
             JLabel rabbitBPLabel = new JLabel("Breeding Probability:");
             rabbitCont.add(rabbitBPLabel);
             JFormattedTextField rabbitBPField = new JFormattedTextField(NumberFormat.getNumberInstance());
             rabbitBPField.setValue(rabbitBP);
             rabbitBPField.setColumns(10);
-            rabbitBPField.addPropertyChangeListener("value", e -> {rabbitBP = ((Number)rabbitBPField.getValue()).doubleValue(); reset();});
+            rabbitBPField.addPropertyChangeListener("value", e -> {rabbitBP = ((Number)rabbitBPField.getValue()).doubleValue(); parametersChanged();});
         rabbitCont.add(rabbitBPField);
             JLabel rabbitMLSLabel = new JLabel("Max Litter Size:");
             rabbitCont.add(rabbitMLSLabel);
             JFormattedTextField rabbitMLSField = new JFormattedTextField(NumberFormat.getNumberInstance());
             rabbitMLSField.setValue(rabbitMLS);
             rabbitMLSField.setColumns(10);
-            rabbitMLSField.addPropertyChangeListener("value", e -> {rabbitMLS = ((Number)rabbitMLSField.getValue()).intValue(); reset();});
+            rabbitMLSField.addPropertyChangeListener("value", e -> {rabbitMLS = ((Number)rabbitMLSField.getValue()).intValue(); parametersChanged();});
         rabbitCont.add(rabbitMLSField);
         container.add(rabbitCont);
 
@@ -228,29 +275,36 @@ public class SimulatorView extends JFrame implements ActionListener
             foxCont.add(foxBALabel);
             JSlider foxBASlider = new JSlider(JSlider.HORIZONTAL, 0, 60,15);
             sliderHelper(foxBASlider);
-            foxBASlider.addChangeListener(e -> {foxBA = foxBASlider.getValue(); reset();});
+            foxBASlider.addChangeListener(e -> {foxBA = foxBASlider.getValue(); parametersChanged();});
         foxCont.add(foxBASlider);
             JLabel foxBPLabel = new JLabel("Breeding Probability:");
             foxCont.add(foxBPLabel);
             JFormattedTextField foxBPField = new JFormattedTextField(NumberFormat.getNumberInstance());
             foxBPField.setValue(foxBP);
             foxBPField.setColumns(10);
-            foxBPField.addPropertyChangeListener("value", e -> {foxBP = ((Number)foxBPField.getValue()).doubleValue(); reset();});
+            foxBPField.addPropertyChangeListener("value", e -> {foxBP = ((Number)foxBPField.getValue()).doubleValue(); parametersChanged();});
         foxCont.add(foxBPField);
             JLabel foxMLSLabel = new JLabel("Max Litter Size");
             foxCont.add(foxMLSLabel);
             JFormattedTextField foxMLSField = new JFormattedTextField(NumberFormat.getNumberInstance());
             foxMLSField.setValue(foxMLS);
             foxMLSField.setColumns(10);
-            foxMLSField.addPropertyChangeListener("value", e -> {foxMLS = ((Number)foxMLSField.getValue()).intValue(); reset();});
+            foxMLSField.addPropertyChangeListener("value", e -> {foxMLS = ((Number)foxMLSField.getValue()).intValue(); parametersChanged();});
         foxCont.add(foxMLSField);
             JLabel foxFVLabel = new JLabel("Food Value of Rabbits");
             foxCont.add(foxFVLabel);
             JFormattedTextField foxFVField = new JFormattedTextField(NumberFormat.getNumberInstance());
             foxFVField.setValue(foxFV);
             foxFVField.setColumns(10);
-            foxFVField.addPropertyChangeListener("value", e -> {foxFV = ((Number)foxFVField.getValue()).intValue(); reset();});
+            foxFVField.addPropertyChangeListener("value", e -> {foxFV = ((Number)foxFVField.getValue()).intValue(); parametersChanged();});
         foxCont.add(foxFVField);
+            JLabel foxSRLabel = new JLabel("Sensing Radius");
+            foxCont.add(foxSRLabel);
+            JFormattedTextField foxSRField = new JFormattedTextField(NumberFormat.getNumberInstance());
+            foxSRField.setValue(foxSR);
+            foxSRField.setColumns(10);
+            foxSRField.addPropertyChangeListener("value", e -> {foxSR = ((Number)foxSRField.getValue()).intValue(); parametersChanged();});
+        foxCont.add(foxSRField);
         container.add(foxCont);
 
         JPanel lionCont = new JPanel(new GridLayout(12,1));
@@ -259,39 +313,54 @@ public class SimulatorView extends JFrame implements ActionListener
             lionCont.add(lionBALabel);
             JSlider lionBASlider = new JSlider(JSlider.HORIZONTAL, 0, 60,15);
             sliderHelper(lionBASlider);
-            lionBASlider.addChangeListener(e -> {lionBA = lionBASlider.getValue(); reset();});
+            lionBASlider.addChangeListener(e -> {lionBA = lionBASlider.getValue(); parametersChanged();});
         lionCont.add(lionBASlider);
             JLabel lionBPLabel = new JLabel("Breeding Probability:");
             lionCont.add(lionBPLabel);
             JFormattedTextField lionBPField = new JFormattedTextField(NumberFormat.getNumberInstance());
             lionBPField.setValue(lionBP);
             lionBPField.setColumns(10);
-            lionBPField.addPropertyChangeListener("value", e -> {lionBP = ((Number)lionBPField.getValue()).doubleValue(); reset();});
+            lionBPField.addPropertyChangeListener("value", e -> {lionBP = ((Number)lionBPField.getValue()).doubleValue(); parametersChanged();});
         lionCont.add(lionBPField);
             JLabel lionMLSLabel = new JLabel("Max Litter Size");
             lionCont.add(lionMLSLabel);
             JFormattedTextField lionMLSField = new JFormattedTextField(NumberFormat.getNumberInstance());
             lionMLSField.setValue(lionMLS);
             lionMLSField.setColumns(10);
-            lionMLSField.addPropertyChangeListener("value", e -> {foxMLS = ((Number)lionMLSField.getValue()).intValue(); reset();});
+            lionMLSField.addPropertyChangeListener("value", e -> {lionMLS = ((Number)lionMLSField.getValue()).intValue(); parametersChanged();});
         lionCont.add(lionMLSField);
             JLabel lionRFVLabel = new JLabel("Food Value of Rabbits");
             lionCont.add(lionRFVLabel);
             JFormattedTextField lionRFVField = new JFormattedTextField(NumberFormat.getNumberInstance());
             lionRFVField.setValue(lionRFV);
             lionRFVField.setColumns(10);
-            lionRFVField.addPropertyChangeListener("value", e -> {lionRFV = ((Number)lionRFVField.getValue()).intValue(); reset();});
+            lionRFVField.addPropertyChangeListener("value", e -> {lionRFV = ((Number)lionRFVField.getValue()).intValue(); parametersChanged();});
         lionCont.add(lionRFVField);
             JLabel lionFFVLabel = new JLabel("Food Value of Foxes");
             lionCont.add(lionFFVLabel);
             JFormattedTextField lionFFVField = new JFormattedTextField(NumberFormat.getNumberInstance());
             lionFFVField.setValue(lionFFV);
             lionFFVField.setColumns(10);
-            lionFFVField.addPropertyChangeListener("value", e -> {lionFFV = ((Number)lionFFVField.getValue()).intValue(); reset();});
+            lionFFVField.addPropertyChangeListener("value", e -> {lionFFV = ((Number)lionFFVField.getValue()).intValue(); parametersChanged();});
             lionCont.add(lionFFVField);
+            JLabel lionSRLabel = new JLabel("Sensing Radius");
+            lionCont.add(lionSRLabel);
+            JFormattedTextField lionSRField = new JFormattedTextField(NumberFormat.getNumberInstance());
+            lionSRField.setValue(lionSR);
+            lionSRField.setColumns(10);
+            lionSRField.addPropertyChangeListener("value", e -> {lionSR = ((Number)lionSRField.getValue()).intValue(); parametersChanged();});
+        lionCont.add(lionSRField);
         container.add(lionCont);
 
-        return container;
+        return settings;
+    }
+
+    /**
+     * Called whenever a parameter is edited. The running simulation picks the
+     * new values up at its next step, without repopulating the field.
+     */
+    private void parametersChanged() {
+        parameterTimer.restart();
     }
 
     /**
@@ -320,6 +389,15 @@ public class SimulatorView extends JFrame implements ActionListener
         reset.addActionListener( e -> reset() );
         JButton quit = new JButton("Quit");
         quit.addActionListener( e -> System.exit(0) );
+        JLabel historyLabel = new JLabel("History (MB):");
+        JFormattedTextField historyField = new JFormattedTextField(NumberFormat.getIntegerInstance());
+        historyField.setValue(historyMB);
+        historyField.setColumns(5);
+        historyField.addPropertyChangeListener("value", e -> {historyMB = ((Number)historyField.getValue()).intValue(); resizeHistory();});
+        JCheckBox overlay = new JCheckBox("Performance");
+        overlay.addActionListener( e -> togglePerformance(overlay.isSelected()) );
+        JCheckBox background = new JCheckBox("Paint in background", true);
+        background.addActionListener( e -> {sim.setSnapshots(background.isSelected()); showStatus(sim.getStep(), sim.getField());} );
 
         JPanel controls = new JPanel();
         JPanel controls2 = new JPanel(new GridLayout(10,1));
@@ -328,17 +406,130 @@ public class SimulatorView extends JFrame implements ActionListener
         controls2.add(step);
         controls2.add(reset);
         controls2.add(quit);
+        controls2.add(historyLabel);
+        controls2.add(historyField);
+        controls2.add(overlay);
+        controls2.add(background);
         controls.add(controls2);
 
+        // Scrubbing the slider winds the simulation back to that step.
+        historySlider = new JSlider(JSlider.HORIZONTAL, 0, 0, 0);
+        historySlider.addChangeListener( e -> {
+            if (!updatingHistory) {
+                simTimer.stop();
+                sim.rewindTo(historySlider.getValue());
+            }
+        });
+
+        JPanel south = new JPanel(new GridLayout(2,1));
+        south.add(historySlider);
+        south.add(population);
+
         JPanel view = new JPanel(new BorderLayout());
         view.add(stepLabel, BorderLayout.NORTH);
         view.add(fieldView, BorderLayout.CENTER);
-        view.add(population, BorderLayout.SOUTH);
+        view.add(south, BorderLayout.SOUTH);
         view.add(controls, BorderLayout.EAST);
 
         return view;
     }
 
+    /**
+     * Shows or hides the performance overlay on the field.
+     * @param shown Whether to show it.
+     */
+    private void togglePerformance(boolean shown) {
+        if (shown) {
+            // The first sample covers the time since the last one, so start afresh.
+            performance.sample();
+            overlayTimer.start();
+        }
+        else {
+            overlayTimer.stop();
+            fieldView.setOverlay(null);
+        }
+    }
+
+    /**
+     * Refreshes the performance overlay with a new sample of the counters.
+     */
+    private void showPerformance() {
+        fieldView.setOverlay(performance.sample());
+    }
+
+    /**
+     * Replaces the rewind history with one using the current memory allowance.
+     */
+    private void resizeHistory() {
+        sim.setHistory(new RewindBuffer(Math.max(1, historyMB) * 1024L * 1024L, HISTORY_KEYFRAME_INTERVAL, width));
+        updateHistorySlider(sim.getStep());
+    }
+
+    /**
+     * Moves the history slider to the given step and stretches it over the kept history.
+     * @param step The current step.
+     */
+    private void updateHistorySlider(int step) {
+        RewindBuffer history = sim.getHistory();
+        if (historySlider == null || history == null)
+            return;
+        updatingHistory = true;
+        historySlider.setMinimum(Math.max(0, history.getFirstStep()));
+        historySlider.setMaximum(Math.max(step, history.getLastStep()));
+        historySlider.setValue(step);
+        updatingHistory = false;
+    }
+
+    /**
+     * Asks for a file and starts recording an event log of the simulation into it.
+     */
+    private void startRecording() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+            try {
+                sim.startRecording(chooser.getSelectedFile());
+            } catch (Exception e) {
+                JOptionPane.showMessageDialog(this, "Error starting recording: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
+    /**
+     * Stops recording the event log, if one is being recorded.
+     */
+    private void stopRecording() {
+        try {
+            sim.stopRecording();
+        } catch (Exception e) {
+            JOptionPane.showMessageDialog(this, "Error finishing recording: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Asks for a file and starts exporting the population time series into it.
+     */
+    private void startExport() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+            try {
+                sim.startExport(chooser.getSelectedFile());
+            } catch (Exception e) {
+                JOptionPane.showMessageDialog(this, "Error starting export: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
+    /**
+     * Stops exporting the population time series, if it is being exported.
+     */
+    private void stopExport() {
+        try {
+            sim.stopExport();
+        } catch (Exception e) {
+            JOptionPane.showMessageDialog(this, "Error finishing export: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
     /**
      * Links to the developer's GitHub
      */
@@ -362,55 +553,86 @@ public class SimulatorView extends JFrame implements ActionListener
     }
 
     /**
-     * Define a color to be used for a given class of animal.
-     * @param animalClass The animal's Class object.
-     * @param color The color to be used for the given class.
+     * @return The color to be used for an object in the field: the
+     *         color of its species, for an animal.
      */
-    public void setColor(Class animalClass, Color color) { colors.put(animalClass, color); }
-
-    /**
-     * @return The color to be used for a given class of animal.
-     */
-    public Color getColor(Class animalClass)
+    public Color getColor(Object object)
     {
-        Color col = colors.get(animalClass);
+        Color col = null;
+        if(object instanceof Animal)
+            col = SpeciesRegistry.getColor(((Animal) object).getSpecies());
         if(col == null)
-            // no color defined for this class
+            // no color defined for this object
             return UNKNOWN_COLOR;
         else
             return col;
     }
 
     /**
-     * Show the current status of the field.
+     * Show the current status of the field. If the field keeps
+     * snapshots, its latest one is painted on the painter thread, and
+     * shown once done, so the simulation does not wait for painting;
+     * snapshots published while the painter is busy are skipped.
      * @param step Which iteration step it is.
      * @param field The field whose status is to be displayed.
      */
     public void showStatus(int step, Field field)
     {
+        long started = System.nanoTime();
         if(!isVisible())
             setVisible(true);
-            
-        stepLabel.setText(STEP_PREFIX + step);
-        stats.reset();
-        
-        fieldView.preparePaint();
 
-        for(int row = 0; row < field.getDepth(); row++) {
-            for(int col = 0; col < field.getWidth(); col++) {
-                Object animal = field.getObjectAt(row, col);
-                if(animal != null) {
-                    stats.incrementCount(animal.getClass());
-                    fieldView.drawMark(col, row, getColor(animal.getClass()));
-                }
-                else
-                    fieldView.drawMark(col, row, EMPTY_COLOR);
+        stats.reset();
+        TileSnapshots snapshots = field.getSnapshots();
+        if(snapshots != null) {
+            updateHistorySlider(step);
+            paintArea = fieldView.getSize();
+            if(unpainted.getAndSet(snapshots.getLatest()) == null) {
+                painter.execute(this::paintSnapshot);
             }
+            return;
         }
+
+        stepLabel.setText(STEP_PREFIX + step);
+        fieldView.preparePaint();
+        fieldView.clearMarks(EMPTY_COLOR);
+
+        // Only occupied cells are visited, so large empty areas cost nothing.
+        field.forEachObject((row, col, animal) -> {
+            stats.incrementCount(FieldStats.nameOf(animal));
+            fieldView.drawMark(col, row, getColor(animal));
+        });
         stats.countFinished();
 
         population.setText(POPULATION_PREFIX + stats.getPopulationDetails(field));
+        updateHistorySlider(step);
         fieldView.repaint();
+        performance.frameDrawn(System.nanoTime() - started);
+    }
+
+    /**
+     * Body of a painter task: paint the latest snapshot waiting, then
+     * show it on the event dispatch thread.
+     */
+    private void paintSnapshot()
+    {
+        long started = System.nanoTime();
+        TileSnapshots.Snapshot snapshot = unpainted.getAndSet(null);
+        Dimension area = paintArea;
+        if(snapshot == null || area.width <= 0 || area.height <= 0) {
+            return;
+        }
+        FieldStats counts = new FieldStats();
+        Image image = fieldView.paintSnapshot(snapshot, area, counts);
+        counts.countFinished();
+        // The counts are complete, so no field is needed to make them.
+        String details = POPULATION_PREFIX + counts.getPopulationDetails(null);
+        SwingUtilities.invokeLater(() -> {
+            stepLabel.setText(STEP_PREFIX + snapshot.getStep());
+            population.setText(details);
+            fieldView.showImage(image, area);
+        });
+        performance.frameDrawn(System.nanoTime() - started);
     }
 
     /**
@@ -424,6 +646,9 @@ public class SimulatorView extends JFrame implements ActionListener
      */
     public void reset()
     {
+        parameterTimer.stop();
+        stopRecording();
+        stopExport();
         sim.reset();
 
         // Show the starting state in the view.
@@ -438,11 +663,13 @@ public class SimulatorView extends JFrame implements ActionListener
     public double getFoxBP() { return foxBP; }
     public int getFoxMLS() { return foxMLS; }
     public int getFoxFV() { return foxFV; }
+    public int getFoxSR() { return foxSR; }
     public int getLionBA() { return lionBA; }
     public double getLionBP() { return lionBP; }
     public int getLionMLS() { return lionMLS; }
     public int getLionRFV() { return lionRFV; }
     public int getLionFFV() { return lionFFV; }
+    public int getLionSR() { return lionSR; }
 
     /**
      * Calls simulateOneStep method of the simulator each time the timer ticks.
@@ -470,6 +697,8 @@ public class SimulatorView extends JFrame implements ActionListener
         Dimension size;
         private Graphics g;
         private Image fieldImage;
+        // Lines of the performance overlay, or null if it is hidden.
+        private java.util.List<String> overlay;
 
         /**
          * Create a new FieldView component.
@@ -501,17 +730,47 @@ public class SimulatorView extends JFrame implements ActionListener
                 fieldImage = fieldView.createImage(size.width, size.height);
                 g = fieldImage.getGraphics();
 
-                xScale = size.width / gridWidth;
-                if(xScale < 1) {
-                    xScale = GRID_VIEW_SCALING_FACTOR;
-                }
-                yScale = size.height / gridHeight;
-                if(yScale < 1) {
-                    yScale = GRID_VIEW_SCALING_FACTOR;
-                }
+                xScale = scale(size.width, gridWidth);
+                yScale = scale(size.height, gridHeight);
             }
         }
         
+        /**
+         * Return the scale of the grid along a side of the given length.
+         */
+        private int scale(int length, int cells)
+        {
+            int scale = length / cells;
+            return scale < 1 ? GRID_VIEW_SCALING_FACTOR : scale;
+        }
+
+        /**
+         * Paint every grid location in the given color, leaving the
+         * lines between them in the background color.
+         */
+        public void clearMarks(Color color)
+        {
+            clearMarks(g, size, xScale, yScale, color);
+        }
+
+        /**
+         * Paint every grid location of an image in the given color.
+         */
+        private void clearMarks(Graphics g, Dimension size, int xScale, int yScale, Color color)
+        {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, size.width, size.height);
+            g.setColor(color);
+            g.fillRect(0, 0, gridWidth * xScale, gridHeight * yScale);
+            g.setColor(getBackground());
+            for(int x = 1; x <= gridWidth; x++) {
+                g.drawLine(x * xScale - 1, 0, x * xScale - 1, gridHeight * yScale - 1);
+            }
+            for(int y = 1; y <= gridHeight; y++) {
+                g.drawLine(0, y * yScale - 1, gridWidth * xScale - 1, y * yScale - 1);
+            }
+        }
+
         /**
          * Paint on grid location on this field in a given color.
          */
@@ -521,9 +780,79 @@ public class SimulatorView extends JFrame implements ActionListener
             g.fillRect(x * xScale, y * yScale, xScale-1, yScale-1);
         }
 
+        /**
+         * Paint a snapshot of the field into a new image of the given
+         * size, counting its animals. Touches nothing the live painting
+         * uses, so may be called off the event dispatch thread.
+         * @param snapshot The snapshot to paint.
+         * @param area The size of the image.
+         * @param counts Counts the animals painted.
+         * @return The image.
+         */
+        public Image paintSnapshot(TileSnapshots.Snapshot snapshot, Dimension area, FieldStats counts)
+        {
+            int xs = scale(area.width, gridWidth);
+            int ys = scale(area.height, gridHeight);
+            BufferedImage image = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D ig = image.createGraphics();
+            clearMarks(ig, area, xs, ys, EMPTY_COLOR);
+            snapshot.forEachObject((row, col, animal) -> {
+                counts.incrementCount(FieldStats.nameOf(animal));
+                ig.setColor(getColor(animal));
+                ig.fillRect(col * xs, row * ys, xs - 1, ys - 1);
+            });
+            ig.dispose();
+            return image;
+        }
+
+        /**
+         * Show an image painted by paintSnapshot. It becomes the image
+         * the live painting draws on, should snapshots be turned off.
+         * @param image The image.
+         * @param area Its size.
+         */
+        public void showImage(Image image, Dimension area)
+        {
+            fieldImage = image;
+            g = image.getGraphics();
+            size = area;
+            xScale = scale(area.width, gridWidth);
+            yScale = scale(area.height, gridHeight);
+            repaint();
+        }
+
+        /**
+         * Show lines of text over the top left of the field, or hide them.
+         * @param lines The lines, or null to hide the overlay.
+         */
+        public void setOverlay(java.util.List<String> lines)
+        {
+            overlay = lines;
+            repaint();
+        }
+
+        /**
+         * Draw the overlay lines in a translucent box.
+         */
+        private void paintOverlay(Graphics g)
+        {
+            FontMetrics metrics = g.getFontMetrics();
+            int lineHeight = metrics.getHeight();
+            int boxWidth = 0;
+            for(String line : overlay) {
+                boxWidth = Math.max(boxWidth, metrics.stringWidth(line));
+            }
+            g.setColor(new Color(0, 0, 0, 160));
+            g.fillRect(4, 4, boxWidth + 12, overlay.size() * lineHeight + 8);
+            g.setColor(Color.white);
+            for(int i = 0; i < overlay.size(); i++) {
+                g.drawString(overlay.get(i), 10, 8 + i * lineHeight + metrics.getAscent());
+            }
+        }
+
         /**
          * The field view component needs to be redisplayed. Copy the
-         * internal image to screen.
+         * internal image to screen, with the overlay if shown.
          */
         public void paintComponent(Graphics g)
         {
@@ -537,6 +866,9 @@ public class SimulatorView extends JFrame implements ActionListener
                     g.drawImage(fieldImage, 0, 0, currentSize.width, currentSize.height, null);
                 }
             }
+            if(overlay != null) {
+                paintOverlay(g);
+            }
         }
     }
 }
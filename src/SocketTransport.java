@@ -0,0 +1,261 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A transport over TCP sockets on the loopback interface, between
+ * processes on one machine. Every pair of ranks is joined by a socket.
+ * Rank r listens on basePort + r, connects to every lower rank and
+ * accepts a connection from every higher one. Messages are framed by
+ * their length. Each link sends from a thread of its own, so sending
+ * never waits for the other end to read.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class SocketTransport implements Transport
+{
+    // How long to keep trying to reach a rank that has not started listening, in milliseconds.
+    private static final long CONNECT_TIMEOUT = 30_000;
+    // The pause between attempts to connect, in milliseconds.
+    private static final long RETRY_PAUSE = 50;
+    // Marks the end of a link's send queue.
+    private static final byte[] END = new byte[0];
+
+    // The rank of this end.
+    private final int rank;
+    // The link to each other rank, indexed by rank; null at this rank.
+    private final Link[] links;
+
+    /**
+     * Create this rank's end, connecting to every other rank. Returns
+     * once all are connected.
+     * @param rank The rank of this end.
+     * @param size The number of ranks.
+     * @param basePort The port rank 0 listens on; rank r uses basePort + r.
+     * @throws IOException If a rank cannot be reached.
+     */
+    public SocketTransport(int rank, int size, int basePort) throws IOException
+    {
+        this.rank = rank;
+        links = new Link[size];
+        InetAddress host = InetAddress.getLoopbackAddress();
+        try(ServerSocket server = new ServerSocket(basePort + rank, size, host)) {
+            for(int lower = 0; lower < rank; lower++) {
+                Socket socket = connect(host, basePort + lower);
+                DataOutputStream hello = new DataOutputStream(socket.getOutputStream());
+                hello.writeInt(rank);
+                hello.flush();
+                links[lower] = new Link(socket, lower);
+            }
+            for(int higher = rank + 1; higher < size; higher++) {
+                Socket socket = server.accept();
+                int peer = new DataInputStream(socket.getInputStream()).readInt();
+                if(peer <= rank || peer >= size || links[peer] != null) {
+                    socket.close();
+                    throw new IOException("Unexpected connection from rank " + peer);
+                }
+                links[peer] = new Link(socket, peer);
+            }
+        }
+        catch(IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Start a process on this machine to join a transport, running the
+     * same Java with the same class path as this one. Its output goes
+     * to this process's.
+     * @param mainClass The class to run.
+     * @param args Its arguments, which tell it its rank.
+     * @return The process.
+     * @throws IOException If the process cannot be started.
+     */
+    public static Process start(String mainClass, String... args) throws IOException
+    {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass);
+        command.addAll(Arrays.asList(args));
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    /**
+     * Connect to a port, retrying until it is listened on or time runs out.
+     */
+    private static Socket connect(InetAddress host, int port) throws IOException
+    {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        while(true) {
+            try {
+                Socket socket = new Socket(host, port);
+                socket.setTcpNoDelay(true);
+                return socket;
+            }
+            catch(ConnectException e) {
+                if(System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(RETRY_PAUSE);
+                }
+                catch(InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted connecting to port " + port);
+                }
+            }
+        }
+    }
+
+    public int getRank()
+    {
+        return rank;
+    }
+
+    public int getSize()
+    {
+        return links.length;
+    }
+
+    public void send(int to, byte[] message) throws IOException
+    {
+        links[to].send(message);
+    }
+
+    public byte[] receive(int from) throws IOException
+    {
+        return links[from].receive();
+    }
+
+    /**
+     * Send everything queued and close every link.
+     * @throws IOException If a link could not be closed cleanly.
+     */
+    public void close() throws IOException
+    {
+        IOException failure = null;
+        for(Link link : links) {
+            if(link != null) {
+                try {
+                    link.close();
+                }
+                catch(IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        if(failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * The socket to one other rank, with its sending thread.
+     */
+    private static class Link
+    {
+        // The socket.
+        private final Socket socket;
+        // Where messages from the other rank are read from.
+        private final DataInputStream in;
+        // Where messages to it are written, by the sending thread only.
+        private final DataOutputStream out;
+        // Messages waiting to be sent.
+        private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+        // The thread sending them.
+        private final Thread sender;
+        // The first error met by the sending thread, if any.
+        private volatile IOException failure;
+
+        Link(Socket socket, int peer) throws IOException
+        {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            sender = new Thread(this::drain, "transport-to-" + peer);
+            sender.setDaemon(true);
+            sender.start();
+        }
+
+        void send(byte[] message) throws IOException
+        {
+            if(failure != null) {
+                throw new IOException("Sending failed", failure);
+            }
+            queue.add(message.length == 0 ? new byte[0] : message);
+        }
+
+        byte[] receive() throws IOException
+        {
+            int length = in.readInt();
+            if(length < 0) {
+                throw new EOFException("Link closed");
+            }
+            byte[] message = new byte[length];
+            in.readFully(message);
+            return message;
+        }
+
+        /**
+         * Body of the sending thread: write messages until told to stop,
+         * flushing whenever the queue runs dry.
+         */
+        private void drain()
+        {
+            try {
+                while(true) {
+                    byte[] message = queue.take();
+                    if(message == END) {
+                        break;
+                    }
+                    out.writeInt(message.length);
+                    out.write(message);
+                    if(queue.isEmpty()) {
+                        out.flush();
+                    }
+                }
+                out.flush();
+            }
+            catch(IOException e) {
+                failure = e;
+            }
+            catch(InterruptedException e) {
+                failure = new InterruptedIOException("Sending thread interrupted");
+            }
+        }
+
+        void close() throws IOException
+        {
+            queue.add(END);
+            try {
+                sender.join();
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            socket.close();
+            if(failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
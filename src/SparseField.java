@@ -0,0 +1,150 @@
+import java.util.Arrays;
+
+/**
+ * A field for huge, mostly empty worlds. The grid is cut into square
+ * chunks that are only allocated when an animal is placed in them and
+ * are dropped again as soon as they are empty, so memory use follows
+ * the occupied area rather than the size of the world. Visiting the
+ * objects in the field skips absent chunks entirely, which keeps the
+ * statistics and the view just as cheap.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class SparseField extends Field
+{
+    // The side of a chunk, in cells, as a power of two.
+    private static final int CHUNK_SHIFT = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // The number of chunks across the field.
+    private final int chunksAcross;
+    // The chunks, row of chunks by row of chunks. Null where empty.
+    private final Chunk[] chunks;
+    // The number of chunks currently allocated.
+    private int allocated;
+
+    /**
+     * Represent a field of the given dimensions.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public SparseField(int depth, int width)
+    {
+        super(depth, width, false);
+        chunksAcross = (width + CHUNK_MASK) >> CHUNK_SHIFT;
+        long count = (long) chunksAcross * ((depth + CHUNK_MASK) >> CHUNK_SHIFT);
+        if(count > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Field too large: " + depth + " x " + width);
+        }
+        chunks = new Chunk[(int) count];
+    }
+
+    /**
+     * Empty every cell of the storage.
+     */
+    protected void clearCells()
+    {
+        Arrays.fill(chunks, null);
+        allocated = 0;
+    }
+
+    /**
+     * Store an object, or null, in a cell of the storage, allocating
+     * or dropping its chunk as need be.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @param object The object to store, or null to empty the cell.
+     * @return The object the cell held before, or null.
+     */
+    protected Object replace(int row, int col, Object object)
+    {
+        int index = chunkIndex(row, col);
+        Chunk chunk = chunks[index];
+        if(chunk == null) {
+            if(object == null) {
+                return null;
+            }
+            chunk = new Chunk();
+            chunks[index] = chunk;
+            allocated++;
+        }
+        int cell = (row & CHUNK_MASK) << CHUNK_SHIFT | (col & CHUNK_MASK);
+        Object previous = chunk.cells[cell];
+        chunk.cells[cell] = object;
+        if(previous == null && object != null) {
+            chunk.count++;
+        }
+        else if(previous != null && object == null && --chunk.count == 0) {
+            chunks[index] = null;
+            allocated--;
+        }
+        return previous;
+    }
+
+    /**
+     * Return the animal at the given location, if any.
+     * @param row The desired row.
+     * @param col The desired column.
+     * @return The animal at the given location, or null if there is none.
+     */
+    public Object getObjectAt(int row, int col)
+    {
+        Chunk chunk = chunks[chunkIndex(row, col)];
+        if(chunk == null) {
+            return null;
+        }
+        return chunk.cells[(row & CHUNK_MASK) << CHUNK_SHIFT | (col & CHUNK_MASK)];
+    }
+
+    /**
+     * Visit every object in the field, chunk by chunk.
+     * @param visitor What to do with each object.
+     */
+    public void forEachObject(ObjectVisitor visitor)
+    {
+        for(int index = 0; index < chunks.length; index++) {
+            Chunk chunk = chunks[index];
+            if(chunk == null) {
+                continue;
+            }
+            int firstRow = index / chunksAcross << CHUNK_SHIFT;
+            int firstCol = index % chunksAcross << CHUNK_SHIFT;
+            Object[] cells = chunk.cells;
+            for(int cell = 0; cell < cells.length; cell++) {
+                if(cells[cell] != null) {
+                    visitor.visit(firstRow + (cell >> CHUNK_SHIFT), firstCol + (cell & CHUNK_MASK), cells[cell]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the number of chunks currently allocated.
+     * @return The number of chunks holding at least one animal.
+     */
+    public int getAllocatedChunks()
+    {
+        return allocated;
+    }
+
+    /**
+     * Return the index of the chunk holding a cell.
+     */
+    private int chunkIndex(int row, int col)
+    {
+        return (row >> CHUNK_SHIFT) * chunksAcross + (col >> CHUNK_SHIFT);
+    }
+
+    /**
+     * The cells of one chunk, and how many of them are occupied.
+     */
+    private static class Chunk
+    {
+        // The cells, row by row.
+        final Object[] cells = new Object[CHUNK_SIZE * CHUNK_SIZE];
+        // The number of cells that are not null.
+        int count;
+    }
+}
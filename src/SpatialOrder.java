@@ -0,0 +1,119 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sort animals by where they are in the field, so that animals acting
+ * one after another work on neighbouring parts of the grid. The field
+ * is cut into square tiles of TILE_SIZE cells and the tiles are ranked
+ * along a Morton (Z-order) curve, which keeps tiles that are close in
+ * the field close in the order. Sorting is a counting sort on the tile
+ * rank, so it takes time linear in the number of animals and tiles.
+ *
+ * Within a tile animals keep their previous relative order. Fields
+ * may be up to 32768 tiles in each direction.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class SpatialOrder
+{
+    // The side of a tile, in cells.
+    public static final int TILE_SIZE = 16;
+
+    // The number of tiles across the field.
+    private final int tileCols;
+    // The Morton rank of each tile, indexed by tileRow * tileCols + tileCol.
+    private final int[] rank;
+    // Scratch space for the sort.
+    private int[] counts;
+    private Animal[] sorted;
+
+    /**
+     * Prepare to sort animals in a field of the given size.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public SpatialOrder(int depth, int width)
+    {
+        int tileRows = (depth + TILE_SIZE - 1) / TILE_SIZE;
+        tileCols = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int tiles = tileRows * tileCols;
+
+        // Rank the tiles by their Morton code. This is done once per field.
+        long[] codes = new long[tiles];
+        for(int t = 0; t < tiles; t++) {
+            codes[t] = interleave(t / tileCols, t % tileCols) << 32 | t;
+        }
+        Arrays.sort(codes);
+        rank = new int[tiles];
+        for(int r = 0; r < tiles; r++) {
+            rank[(int) codes[r]] = r;
+        }
+        counts = new int[tiles + 2];
+        sorted = new Animal[0];
+    }
+
+    /**
+     * Sort a list of animals along the curve. Animals no longer in the
+     * field go to the end.
+     * @param animals The animals to sort, in place.
+     */
+    public void sort(List<Animal> animals)
+    {
+        int size = animals.size();
+        if(sorted.length < size) {
+            sorted = new Animal[size];
+        }
+        Arrays.fill(counts, 0);
+        for(int i = 0; i < size; i++) {
+            counts[key(animals.get(i)) + 1]++;
+        }
+        for(int k = 1; k < counts.length; k++) {
+            counts[k] += counts[k - 1];
+        }
+        for(int i = 0; i < size; i++) {
+            Animal animal = animals.get(i);
+            sorted[counts[key(animal)]++] = animal;
+        }
+        for(int i = 0; i < size; i++) {
+            animals.set(i, sorted[i]);
+            sorted[i] = null;
+        }
+    }
+
+    /**
+     * Return the sort key of an animal: the rank of its tile.
+     */
+    private int key(Animal animal)
+    {
+        Location location = animal.getLocation();
+        if(location == null) {
+            return rank.length;
+        }
+        return rank[(location.getRow() / TILE_SIZE) * tileCols + location.getCol() / TILE_SIZE];
+    }
+
+    /**
+     * Interleave the bits of two coordinates into a Morton code.
+     * @param row The row coordinate.
+     * @param col The column coordinate.
+     * @return The Morton code, with row bits in the odd positions.
+     */
+    static long interleave(int row, int col)
+    {
+        return spread(row) << 1 | spread(col);
+    }
+
+    /**
+     * Spread the low 16 bits of a value out to the even bit positions.
+     */
+    private static long spread(int value)
+    {
+        long x = value & 0xFFFFL;
+        x = (x | (x << 8)) & 0x00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0FL;
+        x = (x | (x << 2)) & 0x33333333L;
+        x = (x | (x << 1)) & 0x55555555L;
+        return x;
+    }
+}
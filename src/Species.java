@@ -0,0 +1,107 @@
+import java.awt.Color;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The definition of a species as data: how it looks, how long it
+ * lives, how it breeds, what it eats and how common it is at the
+ * start. Species defined this way are run by Creature; register them
+ * with SpeciesRegistry before creating the simulator.
+ *
+ * Define a species fully before registering it. Its diet is copied
+ * into the registry's tables when it is registered, so prey added
+ * later are not hunted. The other rules are read by each animal as it
+ * acts, so changes to them take effect from the next step.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class Species
+{
+    // The name shown in the view and used for exported columns.
+    private final String name;
+    // The color the species is drawn in.
+    private final Color color;
+    // The age to which an animal of the species can live.
+    private final int maxAge;
+    // The probability that a species will be created in any given grid position.
+    private final double creationProbability;
+    // The age at which an animal can start to breed.
+    private int breedingAge;
+    // The likelihood of a female breeding when she can.
+    private double breedingProbability;
+    // The maximum number of births.
+    private int maxLitterSize = 1;
+    // How far away, in cells, prey can be sensed.
+    private int sensingRadius = 1;
+    // The food value of each species eaten, by species code.
+    private final Map<Integer, Integer> diet;
+
+    /**
+     * Define a species that does not breed or eat until told to.
+     * @param name The name of the species.
+     * @param color The color to draw it in.
+     * @param maxAge The age to which it can live.
+     * @param creationProbability The chance of one being placed in a free cell at the start.
+     */
+    public Species(String name, Color color, int maxAge, double creationProbability)
+    {
+        this.name = name;
+        this.color = color;
+        this.maxAge = maxAge;
+        this.creationProbability = creationProbability;
+        diet = new LinkedHashMap<>();
+    }
+
+    /**
+     * Set how the species breeds. Females of breeding age give birth
+     * with the given probability each step.
+     * @param age Breeding age.
+     * @param probability Breeding probability.
+     * @param maxLitterSize Max litter size.
+     */
+    public void setBreeding(int age, double probability, int maxLitterSize)
+    {
+        breedingAge = age;
+        breedingProbability = probability;
+        this.maxLitterSize = maxLitterSize;
+    }
+
+    /**
+     * Add a species to the diet. A species that eats anything goes
+     * hungry, and dies if it goes too long without eating.
+     * @param prey The species code of the prey.
+     * @param foodValue The number of steps one of them feeds the animal for.
+     */
+    public void addPrey(int prey, int foodValue)
+    {
+        diet.put(prey, foodValue);
+    }
+
+    /**
+     * Set how far away prey can be sensed.
+     * @param radius The radius, in cells. 1 senses only neighbours.
+     */
+    public void setSensingRadius(int radius)
+    {
+        sensingRadius = radius;
+    }
+
+    // Following methods get the definition.
+    public String getName() { return name; }
+    public Color getColor() { return color; }
+    public int getMaxAge() { return maxAge; }
+    public double getCreationProbability() { return creationProbability; }
+    public int getBreedingAge() { return breedingAge; }
+    public double getBreedingProbability() { return breedingProbability; }
+    public int getMaxLitterSize() { return maxLitterSize; }
+    public int getSensingRadius() { return sensingRadius; }
+
+    /**
+     * @return The food value of each species eaten, by species code.
+     */
+    public Map<Integer, Integer> getDiet()
+    {
+        return diet;
+    }
+}
@@ -0,0 +1,225 @@
+import java.util.Arrays;
+
+/**
+ * Counts of each species by region of a field, kept up to date as
+ * animals are placed and cleared. Each species has a two dimensional
+ * Fenwick tree over the cells, so both updates and counts of any
+ * rectangle take time proportional to the product of the logarithms
+ * of the field's sides, however big the rectangle is.
+ *
+ * Attach an index with Field.setSpeciesIndex. It uses four bytes per
+ * cell for each species.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class SpeciesIndex
+{
+    // The depth and width of the field.
+    private final int depth, width;
+    // The Fenwick tree of each species, 1-based, with rows of width + 1.
+    private final int[][] trees;
+    // The number of animals of each species in the whole field.
+    private final int[] totals;
+
+    /**
+     * Create an empty index for a field of the given size, for the
+     * species registered so far. No more can be registered after it.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public SpeciesIndex(int depth, int width)
+    {
+        long size = (long) (depth + 1) * (width + 1);
+        if(size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Field too large to index: " + depth + " x " + width);
+        }
+        this.depth = depth;
+        this.width = width;
+        int speciesCount = SpeciesRegistry.seal();
+        trees = new int[speciesCount][(int) size];
+        totals = new int[speciesCount];
+    }
+
+    /**
+     * Return the number of animals of a species in a rectangle of the
+     * field. The bounds are inclusive, and are clipped to the field.
+     * @param species The species code.
+     * @param top The first row.
+     * @param left The first column.
+     * @param bottom The last row.
+     * @param right The last column.
+     * @return The number of animals of the species in the rectangle.
+     */
+    public int count(int species, int top, int left, int bottom, int right)
+    {
+        top = Math.max(top, 0);
+        left = Math.max(left, 0);
+        bottom = Math.min(bottom, depth - 1);
+        right = Math.min(right, width - 1);
+        if(top > bottom || left > right) {
+            return 0;
+        }
+        int[] tree = trees[species];
+        return prefix(tree, bottom + 1, right + 1) - prefix(tree, top, right + 1)
+               - prefix(tree, bottom + 1, left) + prefix(tree, top, left);
+    }
+
+    /**
+     * Return the number of animals of any of a set of species in a
+     * rectangle of the field, as for count.
+     * @param speciesMask The species, one bit per species code.
+     * @param top The first row.
+     * @param left The first column.
+     * @param bottom The last row.
+     * @param right The last column.
+     * @return The number of animals of those species in the rectangle.
+     */
+    public int countAny(int speciesMask, int top, int left, int bottom, int right)
+    {
+        int sum = 0;
+        for(int species = 0; species < trees.length; species++) {
+            if((speciesMask & 1 << species) != 0) {
+                sum += count(species, top, left, bottom, right);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Find an animal of any of a set of species near a cell. Squares of
+     * doubling size around the cell are counted until one holds such an
+     * animal, and that square is then split into quarters, taking the
+     * nearest quarter that holds one each time. Empty regions are never
+     * looked into, and the cost grows only with the logarithm of the
+     * radius. The animal found is close to the nearest, but need not be
+     * the nearest.
+     * @param speciesMask The species wanted, one bit per species code.
+     * @param row The row of the cell to search around.
+     * @param col The column of the cell to search around.
+     * @param radius The furthest to search, in cells in any direction.
+     * @return The location of an animal, or null if there is none within the radius.
+     */
+    public Location findNear(int speciesMask, int row, int col, int radius)
+    {
+        int reach = 1;
+        while(countAny(speciesMask, row - reach, col - reach, row + reach, col + reach) == 0) {
+            if(reach >= radius) {
+                return null;
+            }
+            reach = Math.min(radius, reach * 2);
+        }
+        int top = Math.max(0, row - reach);
+        int left = Math.max(0, col - reach);
+        int bottom = Math.min(depth - 1, row + reach);
+        int right = Math.min(width - 1, col + reach);
+        while(top < bottom || left < right) {
+            int midRow = (top + bottom) >>> 1;
+            int midCol = (left + right) >>> 1;
+            // The quarters, as top, left, bottom, right, in turn.
+            int[][] quarters = {
+                { top, left, midRow, midCol }, { top, midCol + 1, midRow, right },
+                { midRow + 1, left, bottom, midCol }, { midRow + 1, midCol + 1, bottom, right },
+            };
+            int best = -1;
+            int bestDistance = Integer.MAX_VALUE;
+            for(int q = 0; q < 4; q++) {
+                int[] quarter = quarters[q];
+                if(quarter[0] > quarter[2] || quarter[1] > quarter[3]) {
+                    continue;
+                }
+                int distance = Math.max(gap(row, quarter[0], quarter[2]), gap(col, quarter[1], quarter[3]));
+                if(distance < bestDistance
+                   && countAny(speciesMask, quarter[0], quarter[1], quarter[2], quarter[3]) > 0) {
+                    best = q;
+                    bestDistance = distance;
+                }
+            }
+            top = quarters[best][0];
+            left = quarters[best][1];
+            bottom = quarters[best][2];
+            right = quarters[best][3];
+        }
+        return new Location(top, left);
+    }
+
+    /**
+     * Return the number of animals of a species in the whole field.
+     * @param species The species code.
+     * @return The number of animals of the species.
+     */
+    public int count(int species)
+    {
+        return totals[species];
+    }
+
+    /**
+     * Forget all the counts.
+     */
+    void clear()
+    {
+        for(int[] tree : trees) {
+            Arrays.fill(tree, 0);
+        }
+        Arrays.fill(totals, 0);
+    }
+
+    /**
+     * Record that what a cell holds has changed.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @param previous What the cell held before, or null.
+     * @param current What the cell holds now, or null.
+     */
+    void replaced(int row, int col, Object previous, Object current)
+    {
+        if(previous == current) {
+            return;
+        }
+        if(previous instanceof Animal) {
+            add(((Animal) previous).getSpecies(), row, col, -1);
+        }
+        if(current instanceof Animal) {
+            add(((Animal) current).getSpecies(), row, col, 1);
+        }
+    }
+
+    /**
+     * Return how far a coordinate is from a range of coordinates.
+     */
+    private static int gap(int x, int low, int high)
+    {
+        return x < low ? low - x : (x > high ? x - high : 0);
+    }
+
+    /**
+     * Add to the count of a species at a cell.
+     */
+    private void add(int species, int row, int col, int delta)
+    {
+        int[] tree = trees[species];
+        for(int i = row + 1; i <= depth; i += i & -i) {
+            int base = i * (width + 1);
+            for(int j = col + 1; j <= width; j += j & -j) {
+                tree[base + j] += delta;
+            }
+        }
+        totals[species] += delta;
+    }
+
+    /**
+     * Return the count over rows below the given row and columns below
+     * the given column.
+     */
+    private int prefix(int[] tree, int rows, int cols)
+    {
+        int sum = 0;
+        for(int i = rows; i > 0; i -= i & -i) {
+            int base = i * (width + 1);
+            for(int j = cols; j > 0; j -= j & -j) {
+                sum += tree[base + j];
+            }
+        }
+        return sum;
+    }
+}
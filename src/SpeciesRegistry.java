@@ -0,0 +1,231 @@
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The species in the simulation. Rabbits, foxes and lions are always
+ * registered, with species codes 0, 1 and 2; more can be defined as
+ * data and registered before the simulator is created. Once anything
+ * that keeps counts per species has been created, such as a Simulator,
+ * the registry is sealed and no more can be registered. The definitions
+ * of the built in species start with the default parameters, and are
+ * kept up to date when the parameters of their classes are changed.
+ *
+ * Rules that the engine applies to every animal are kept in small
+ * tables indexed by species code, so working out whether one animal
+ * eats another, or what it is worth, is an array lookup rather than a
+ * chain of type tests, however many species there are. Up to 32
+ * species can be registered, as sets of species are kept as bit masks.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class SpeciesRegistry
+{
+    // The most species that can be registered.
+    public static final int MAX_SPECIES = 32;
+
+    // The definitions, indexed by species code.
+    private static final List<Species> species = new ArrayList<>();
+    // The food value of each prey for each predator: foodValues[predator][prey].
+    private static int[][] foodValues = new int[0][];
+    // The species each species eats, one bit per species code.
+    private static int[] preyMasks = new int[0];
+    // The order cells are offered to the species when populating.
+    private static int[] placementOrder = new int[0];
+    // Whether tables sized to the species have been made, so no more can be registered.
+    private static boolean sealed;
+
+    static {
+        ParameterSet p = new ParameterSet();
+        Species rabbit = new Species("Rabbit", Color.orange, Rabbit.MAX_AGE, 0.08);
+        rabbit.setBreeding(p.getRabbitBA(), p.getRabbitBP(), p.getRabbitMLS());
+        register(rabbit);
+        Species fox = new Species("Fox", Color.blue, Fox.MAX_AGE, 0.02);
+        fox.setBreeding(p.getFoxBA(), p.getFoxBP(), p.getFoxMLS());
+        fox.setSensingRadius(p.getFoxSR());
+        fox.addPrey(Rabbit.SPECIES, p.getFoxFV());
+        register(fox);
+        Species lion = new Species("Lion", Color.green, Lion.MAX_AGE, 0.01);
+        lion.setBreeding(p.getLionBA(), p.getLionBP(), p.getLionMLS());
+        lion.setSensingRadius(p.getLionSR());
+        lion.addPrey(Rabbit.SPECIES, p.getLionRFV());
+        lion.addPrey(Fox.SPECIES, p.getLionFFV());
+        register(lion);
+        // The largest predators get the first chance at each cell.
+        placementOrder = new int[] { Lion.SPECIES, Fox.SPECIES, Rabbit.SPECIES };
+    }
+
+    /**
+     * Add a species. Its animals are run by Creature.
+     * @param definition The species.
+     * @return The species code given to it.
+     * @throws IllegalStateException If the registry is sealed or full.
+     */
+    public static int register(Species definition)
+    {
+        if(sealed) {
+            throw new IllegalStateException("Species must be registered before the simulator is created: "
+                                            + definition.getName());
+        }
+        int code = species.size();
+        if(code == MAX_SPECIES) {
+            throw new IllegalStateException("No more than " + MAX_SPECIES + " species can be registered.");
+        }
+        // Check the whole diet first, so a bad one leaves the tables as they were.
+        for(int prey : definition.getDiet().keySet()) {
+            if(prey < 0 || prey > code) {
+                throw new IllegalArgumentException(definition.getName() + " eats an unknown species: " + prey);
+            }
+        }
+        species.add(definition);
+
+        int[][] values = new int[code + 1][code + 1];
+        for(int predator = 0; predator < code; predator++) {
+            System.arraycopy(foodValues[predator], 0, values[predator], 0, code);
+        }
+        foodValues = values;
+        preyMasks = Arrays.copyOf(preyMasks, code + 1);
+        for(int prey : definition.getDiet().keySet()) {
+            storeFoodValue(code, prey, definition.getDiet().get(prey));
+        }
+        placementOrder = Arrays.copyOf(placementOrder, placementOrder.length + 1);
+        placementOrder[placementOrder.length - 1] = code;
+        return code;
+    }
+
+    /**
+     * @return The number of species registered.
+     */
+    public static int count()
+    {
+        return species.size();
+    }
+
+    /**
+     * Stop any more species being registered, and return how many there
+     * are. Called by anything that sizes its tables to the species, so
+     * that a species registered later cannot index past them.
+     * @return The number of species registered.
+     */
+    static int seal()
+    {
+        sealed = true;
+        return species.size();
+    }
+
+    /**
+     * @param code A species code.
+     * @return The definition of the species.
+     */
+    public static Species get(int code)
+    {
+        return species.get(code);
+    }
+
+    /**
+     * @param code A species code.
+     * @return The name of the species.
+     */
+    public static String getName(int code)
+    {
+        return species.get(code).getName();
+    }
+
+    /**
+     * @param code A species code.
+     * @return The color to draw the species in.
+     */
+    public static Color getColor(int code)
+    {
+        return species.get(code).getColor();
+    }
+
+    /**
+     * Return the order in which cells are offered to each species
+     * when the field is populated: lions, foxes and rabbits first, then
+     * other species in the order they were registered.
+     * @return The species codes, in placement order.
+     */
+    public static int[] getPlacementOrder()
+    {
+        return placementOrder.clone();
+    }
+
+    /**
+     * Return what eating an animal is worth to a predator.
+     * @param predator The species code of the predator.
+     * @param prey The species code of the animal it might eat.
+     * @return The food value, or 0 if the predator does not eat that species.
+     */
+    public static int foodValue(int predator, int prey)
+    {
+        return foodValues[predator][prey];
+    }
+
+    /**
+     * @param predator A species code.
+     * @return The species it eats, one bit per species code.
+     */
+    public static int preyMask(int predator)
+    {
+        return preyMasks[predator];
+    }
+
+    /**
+     * @param code A species code.
+     * @return true if the species eats anything, and so goes hungry.
+     */
+    public static boolean isPredator(int code)
+    {
+        return preyMasks[code] != 0;
+    }
+
+    /**
+     * Return the most a predator can gain from one meal, which is what
+     * its young start with.
+     * @param predator A species code.
+     * @return The largest food value in its diet, or 0 if it eats nothing.
+     */
+    public static int bestFoodValue(int predator)
+    {
+        int best = 0;
+        for(int value : foodValues[predator]) {
+            best = Math.max(best, value);
+        }
+        return best;
+    }
+
+    /**
+     * Change what eating a species is worth to a predator, in its
+     * definition and the tables. Used when the parameters of the built
+     * in species are changed.
+     */
+    static void setFoodValue(int predator, int prey, int value)
+    {
+        Map<Integer, Integer> diet = species.get(predator).getDiet();
+        if(value > 0) {
+            diet.put(prey, value);
+        }
+        else {
+            diet.remove(prey);
+        }
+        storeFoodValue(predator, prey, value);
+    }
+
+    /**
+     * Enter what eating a species is worth to a predator in the tables.
+     */
+    private static void storeFoodValue(int predator, int prey, int value)
+    {
+        foodValues[predator][prey] = value;
+        if(value > 0) {
+            preyMasks[predator] |= 1 << prey;
+        }
+        else {
+            preyMasks[predator] &= ~(1 << prey);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * What happened in one step of a simulation, as published to the
+ * subscribers of a StepPublisher. Events never change once made, so
+ * they can be passed between threads freely.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class StepEvent
+{
+    // The step the event is for.
+    private final int step;
+    // Counts indexed by species code: the population after the step,
+    // and the births, deaths and animals eaten during it.
+    private final int[] counts;
+    private final int[] births;
+    private final int[] deaths;
+    private final int[] eaten;
+    // The time the step took to simulate, in nanoseconds, or -1 if the
+    // event was sent on reset or rewinding rather than by a step.
+    private final long nanos;
+    // The field as it was after the step, or null if not kept.
+    private final TileSnapshots.Snapshot snapshot;
+
+    /**
+     * Describe a step.
+     * @param step The step.
+     * @param counts The population of each species after the step.
+     * @param tally The births, deaths and animals eaten during the step.
+     * @param nanos The time the step took, or -1 if it was not simulated.
+     * @param snapshot The field after the step, or null.
+     */
+    public StepEvent(int step, int[] counts, StepTally tally, long nanos, TileSnapshots.Snapshot snapshot)
+    {
+        this.step = step;
+        this.counts = counts.clone();
+        this.nanos = nanos;
+        this.snapshot = snapshot;
+        births = new int[counts.length];
+        deaths = new int[counts.length];
+        eaten = new int[counts.length];
+        for(int s = 0; s < counts.length; s++) {
+            births[s] = tally.getBirths(s);
+            deaths[s] = tally.getDeaths(s);
+            eaten[s] = tally.getEaten(s);
+        }
+    }
+
+    /**
+     * @return The step the event is for.
+     */
+    public int getStep()
+    {
+        return step;
+    }
+
+    /**
+     * @return The number of species described.
+     */
+    public int getSpeciesCount()
+    {
+        return counts.length;
+    }
+
+    /**
+     * @param species A species code.
+     * @return The population of that species after the step.
+     */
+    public int getCount(int species)
+    {
+        return counts[species];
+    }
+
+    /**
+     * @param species A species code.
+     * @return The number of births of that species during the step.
+     */
+    public int getBirths(int species)
+    {
+        return births[species];
+    }
+
+    /**
+     * @param species A species code.
+     * @return The number of deaths of that species during the step.
+     */
+    public int getDeaths(int species)
+    {
+        return deaths[species];
+    }
+
+    /**
+     * @param species A species code.
+     * @return The number of animals of that species eaten during the step.
+     */
+    public int getEaten(int species)
+    {
+        return eaten[species];
+    }
+
+    /**
+     * @return The population of each species after the step, by species code.
+     */
+    public int[] getCounts()
+    {
+        return counts.clone();
+    }
+
+    /**
+     * @return The time the step took to simulate, in nanoseconds, or -1
+     *         if the event was sent on reset or rewinding.
+     */
+    public long getNanos()
+    {
+        return nanos;
+    }
+
+    /**
+     * @return The field as it was after the step, or null if the field
+     *         keeps no snapshots.
+     */
+    public TileSnapshots.Snapshot getSnapshot()
+    {
+        return snapshot;
+    }
+}
@@ -0,0 +1,346 @@
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes a StepEvent for every step of a simulation to any number
+ * of subscribers, such as exporters, charts and monitors, so that they
+ * need not be wired into the simulator. Every simulator has one, from
+ * Simulator.getEvents, through which it exports its population series
+ * and feeds its performance counters as well.
+ *
+ * Each subscriber has a buffer of its own and is called on a thread of
+ * the publisher's executor, never on the simulation's, and is sent no
+ * more events than it has asked for. When its buffer is full, its
+ * overflow policy says what happens to the next event:
+ * <ul>
+ * <li>DROP: the new event is dropped, so the subscriber sees a run of
+ *     steps, then a gap.</li>
+ * <li>SAMPLE: the oldest buffered event is dropped instead, so the
+ *     subscriber keeps up with the latest steps at its own pace.</li>
+ * <li>BLOCK: the simulation waits for room, so the subscriber sees
+ *     every step and the simulation runs no faster than it.</li>
+ * </ul>
+ * Only BLOCK can slow the simulation down. The number of events
+ * dropped is counted.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class StepPublisher implements Flow.Publisher<StepEvent>, Closeable
+{
+    // The buffer size of subscribers that do not give one.
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * What to do with an event for a subscriber whose buffer is full.
+     */
+    public enum Overflow
+    {
+        DROP, SAMPLE, BLOCK
+    }
+
+    // The threads events are delivered on.
+    private final Executor executor;
+    // The current subscriptions.
+    private final List<StepSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    // The number of events dropped, over all subscribers.
+    private final AtomicLong dropped = new AtomicLong();
+    // Whether the publisher has been closed.
+    private volatile boolean closed;
+
+    /**
+     * Create a publisher delivering on threads of its own, which end
+     * when they have been idle for a while.
+     */
+    public StepPublisher()
+    {
+        this(Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "step-events");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * Create a publisher delivering on the given executor.
+     * @param executor Runs the deliveries; it must not run them on the
+     *                 thread that publishes.
+     */
+    public StepPublisher(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Add a subscriber with a buffer of DEFAULT_CAPACITY events that
+     * drops new events when full.
+     * @param subscriber The subscriber.
+     */
+    public void subscribe(Flow.Subscriber<? super StepEvent> subscriber)
+    {
+        subscribe(subscriber, Overflow.DROP, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Add a subscriber.
+     * @param subscriber The subscriber.
+     * @param overflow What to do when its buffer is full.
+     * @param capacity The number of events its buffer holds.
+     */
+    public void subscribe(Flow.Subscriber<? super StepEvent> subscriber, Overflow overflow, int capacity)
+    {
+        if(subscriber == null || overflow == null) {
+            throw new NullPointerException();
+        }
+        if(capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        StepSubscription subscription = new StepSubscription(subscriber, overflow, capacity);
+        if(closed) {
+            subscription.complete();
+        }
+        else {
+            subscriptions.add(subscription);
+        }
+        subscription.schedule();
+    }
+
+    /**
+     * Send an event to every subscriber. Called by the simulator, from
+     * the thread running the simulation.
+     * @param event The event.
+     */
+    public void publish(StepEvent event)
+    {
+        for(StepSubscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    /**
+     * @return true if anyone is subscribed, so events are worth making.
+     */
+    public boolean hasSubscribers()
+    {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * @return The number of events dropped so far, over all subscribers.
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * Stop sending events to a subscriber. It is sent the events already
+     * buffered for it, then told there will be no more. Does nothing if
+     * it is not subscribed.
+     * @param subscriber The subscriber.
+     */
+    public void unsubscribe(Flow.Subscriber<? super StepEvent> subscriber)
+    {
+        for(StepSubscription subscription : subscriptions) {
+            if(subscription.subscriber == subscriber) {
+                subscriptions.remove(subscription);
+                subscription.complete();
+                subscription.schedule();
+            }
+        }
+    }
+
+    /**
+     * Tell every subscriber, once it has had the events buffered for
+     * it, that there will be no more.
+     */
+    public void close()
+    {
+        closed = true;
+        for(StepSubscription subscription : subscriptions) {
+            subscriptions.remove(subscription);
+            subscription.complete();
+            subscription.schedule();
+        }
+    }
+
+    /**
+     * One subscriber's buffer and demand. Events are delivered by a
+     * drain task on the executor, of which at most one runs at a time.
+     */
+    private class StepSubscription implements Flow.Subscription, Runnable
+    {
+        // The subscriber.
+        private final Flow.Subscriber<? super StepEvent> subscriber;
+        // What to do when the buffer is full.
+        private final Overflow overflow;
+        // The size of the buffer.
+        private final int capacity;
+        // Events waiting for demand. Guarded by this.
+        private final ArrayDeque<StepEvent> buffer = new ArrayDeque<>();
+        // Events asked for and not yet sent. Guarded by this.
+        private long demand;
+        // Whether the subscriber has cancelled. Guarded by this.
+        private boolean cancelled;
+        // The error to send the subscriber on cancelling, if any. Guarded by this.
+        private Throwable error;
+        // Whether no more events will be buffered. Guarded by this.
+        private boolean completing;
+        // Whether onSubscribe has been called; only read by the drain task.
+        private boolean started;
+        // Whether the subscriber has been sent its last signal; only read by the drain task.
+        private boolean done;
+        // The number of times the drain task has been asked to run.
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private StepSubscription(Flow.Subscriber<? super StepEvent> subscriber, Overflow overflow, int capacity)
+        {
+            this.subscriber = subscriber;
+            this.overflow = overflow;
+            this.capacity = capacity;
+        }
+
+        /**
+         * Buffer an event according to the overflow policy.
+         */
+        private void offer(StepEvent event)
+        {
+            synchronized(this) {
+                while(buffer.size() >= capacity && !cancelled) {
+                    if(overflow == Overflow.DROP) {
+                        dropped.incrementAndGet();
+                        return;
+                    }
+                    if(overflow == Overflow.SAMPLE) {
+                        buffer.pollFirst();
+                        dropped.incrementAndGet();
+                    }
+                    else {
+                        try {
+                            wait();
+                        }
+                        catch(InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            dropped.incrementAndGet();
+                            return;
+                        }
+                    }
+                }
+                if(cancelled) {
+                    return;
+                }
+                buffer.addLast(event);
+            }
+            schedule();
+        }
+
+        public void request(long n)
+        {
+            if(n <= 0) {
+                // Rule 3.9: a bad request ends the subscription with an error.
+                synchronized(this) {
+                    error = new IllegalArgumentException("Requested " + n + " events");
+                }
+                cancel();
+            }
+            else {
+                synchronized(this) {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            schedule();
+        }
+
+        public void cancel()
+        {
+            synchronized(this) {
+                cancelled = true;
+                buffer.clear();
+                // Release the simulation if it is waiting for room.
+                notifyAll();
+            }
+            subscriptions.remove(this);
+        }
+
+        /**
+         * Note that no more events will be buffered.
+         */
+        private synchronized void complete()
+        {
+            completing = true;
+        }
+
+        /**
+         * Run the drain task unless it is running already, in which case
+         * it goes round again.
+         */
+        private void schedule()
+        {
+            if(pending.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        /**
+         * The drain task: send buffered events while there is demand.
+         */
+        public void run()
+        {
+            do {
+                if(!started) {
+                    started = true;
+                    subscriber.onSubscribe(this);
+                }
+                while(!done) {
+                    StepEvent event = null;
+                    boolean finish = false;
+                    Throwable failure;
+                    synchronized(this) {
+                        failure = error;
+                        if(cancelled) {
+                            done = true;
+                        }
+                        else if(buffer.isEmpty()) {
+                            finish = completing;
+                        }
+                        else if(demand > 0) {
+                            event = buffer.pollFirst();
+                            demand--;
+                            notifyAll();
+                        }
+                        else {
+                            break;
+                        }
+                    }
+                    if(done) {
+                        if(failure != null) {
+                            subscriber.onError(failure);
+                        }
+                        break;
+                    }
+                    if(event == null) {
+                        if(finish) {
+                            done = true;
+                            subscriber.onComplete();
+                        }
+                        break;
+                    }
+                    try {
+                        subscriber.onNext(event);
+                    }
+                    catch(RuntimeException e) {
+                        // Rule 2.13: a subscriber that throws is cancelled.
+                        cancel();
+                    }
+                }
+            } while(pending.decrementAndGet() != 0);
+        }
+    }
+}
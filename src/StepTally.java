@@ -0,0 +1,92 @@
+/**
+ * Count the births, deaths and animals eaten of each species
+ * during a step of the simulation. Deaths include animals eaten.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class StepTally
+{
+    // Counts indexed by species code.
+    private final int[] births;
+    private final int[] deaths;
+    private final int[] eaten;
+
+    /**
+     * Create a tally with all counts at zero, for the species registered
+     * so far. No more can be registered after it.
+     */
+    public StepTally()
+    {
+        int speciesCount = SpeciesRegistry.seal();
+        births = new int[speciesCount];
+        deaths = new int[speciesCount];
+        eaten = new int[speciesCount];
+    }
+
+    /**
+     * Count a birth.
+     * @param species The species code of the newborn.
+     */
+    public void born(int species)
+    {
+        births[species]++;
+    }
+
+    /**
+     * Count a death.
+     * @param species The species code of the animal that died.
+     */
+    public void died(int species)
+    {
+        deaths[species]++;
+    }
+
+    /**
+     * Count an animal eaten by a predator.
+     * @param species The species code of the animal eaten.
+     */
+    public void eaten(int species)
+    {
+        eaten[species]++;
+    }
+
+    /**
+     * @param species A species code.
+     * @return The number of births of that species.
+     */
+    public int getBirths(int species)
+    {
+        return births[species];
+    }
+
+    /**
+     * @param species A species code.
+     * @return The number of deaths of that species.
+     */
+    public int getDeaths(int species)
+    {
+        return deaths[species];
+    }
+
+    /**
+     * @param species A species code.
+     * @return The number of animals of that species eaten.
+     */
+    public int getEaten(int species)
+    {
+        return eaten[species];
+    }
+
+    /**
+     * Reset all counts to zero, ready for the next step.
+     */
+    public void reset()
+    {
+        for(int s = 0; s < births.length; s++) {
+            births[s] = 0;
+            deaths[s] = 0;
+            eaten[s] = 0;
+        }
+    }
+}
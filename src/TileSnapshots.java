@@ -0,0 +1,206 @@
+import java.util.Arrays;
+
+/**
+ * Consistent views of a field, one per published step, for readers on
+ * other threads such as renderers, exporters and monitors, while the
+ * simulation goes on to the next step. Attached to a Field, it keeps a
+ * copy of the field's contents in square tiles of SpatialOrder.TILE_SIZE
+ * cells, updated as the field is written. Simulator.setSnapshots
+ * attaches one and publishes it after every step; the view paints the
+ * field from it on a thread of its own, and Benchmark snapshots checks
+ * that snapshots stay as published and what they cost.
+ *
+ * Publishing a snapshot is constant time: the snapshot takes the
+ * current tiles as they are, and they are never written again. The
+ * first write to a tile after that copies the tile first, so only the
+ * tiles changed during the next step are copied, and a snapshot shares
+ * every tile left untouched with its neighbours in time. Readers need
+ * no locks. A snapshot's tiles are freed by the garbage collector once
+ * no reader holds the snapshot and no later snapshot shares them.
+ *
+ * A snapshot holds the objects that were in each cell at its step. The
+ * objects themselves carry on changing, so only their unchanging parts,
+ * such as an animal's species, are consistent with the snapshot.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class TileSnapshots
+{
+    // The number of bits of a coordinate within a tile.
+    private static final int SHIFT = Integer.numberOfTrailingZeros(SpatialOrder.TILE_SIZE);
+    // The mask for a coordinate within a tile.
+    private static final int MASK = SpatialOrder.TILE_SIZE - 1;
+
+    // The size of the field.
+    private final int depth, width;
+    // The number of tiles across the field.
+    private final int tileCols;
+    // The current contents, row-major within each tile; null for a tile
+    // never written. May be shared with the latest snapshot.
+    private Object[][] tiles;
+    // Whether the array of tiles itself is shared with the latest snapshot.
+    private boolean tilesShared;
+    // The epoch in which each tile was copied; it may only be written
+    // in place during that epoch.
+    private final int[] tileEpoch;
+    // The number of snapshots published, which starts each epoch.
+    private int epoch;
+    // The latest snapshot, read by other threads.
+    private volatile Snapshot latest;
+    // The number of tiles copied so far.
+    private long copies;
+
+    /**
+     * Prepare snapshots of an empty field of the given size.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public TileSnapshots(int depth, int width)
+    {
+        this.depth = depth;
+        this.width = width;
+        tileCols = (width + MASK) >> SHIFT;
+        int tileRows = (depth + MASK) >> SHIFT;
+        tiles = new Object[tileRows * tileCols][];
+        tileEpoch = new int[tiles.length];
+        Arrays.fill(tileEpoch, -1);
+        latest = new Snapshot(0, depth, width, tileCols, tiles);
+        tilesShared = true;
+    }
+
+    /**
+     * Record a write to the field. Called by the field.
+     */
+    void set(int row, int col, Object object)
+    {
+        int t = (row >> SHIFT) * tileCols + (col >> SHIFT);
+        if(tileEpoch[t] != epoch) {
+            // The tile may belong to a published snapshot: copy it first.
+            if(tilesShared) {
+                tiles = tiles.clone();
+                tilesShared = false;
+            }
+            Object[] tile = tiles[t];
+            if(tile == null) {
+                if(object == null) {
+                    return;
+                }
+                tiles[t] = new Object[1 << (2 * SHIFT)];
+            }
+            else {
+                tiles[t] = tile.clone();
+            }
+            tileEpoch[t] = epoch;
+            copies++;
+        }
+        tiles[t][(row & MASK) << SHIFT | (col & MASK)] = object;
+    }
+
+    /**
+     * Record that the field has been emptied. Called by the field.
+     */
+    void clear()
+    {
+        tiles = new Object[tiles.length][];
+        tilesShared = false;
+        Arrays.fill(tileEpoch, -1);
+    }
+
+    /**
+     * Publish the field as it is now. Must be called from the thread
+     * writing the field.
+     * @param step The step the field is at.
+     * @return The new snapshot.
+     */
+    public Snapshot publish(int step)
+    {
+        Snapshot snapshot = new Snapshot(step, depth, width, tileCols, tiles);
+        tilesShared = true;
+        epoch++;
+        latest = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * Return the latest snapshot. May be called from any thread.
+     * @return The snapshot published last.
+     */
+    public Snapshot getLatest()
+    {
+        return latest;
+    }
+
+    /**
+     * @return The number of tiles copied so far, a measure of the cost of snapshots.
+     */
+    public long getCopies()
+    {
+        return copies;
+    }
+
+    /**
+     * The field as it was at a published step. Never changes.
+     */
+    public static class Snapshot
+    {
+        // The step the snapshot is of.
+        private final int step;
+        // The size of the field.
+        private final int depth, width;
+        // The number of tiles across the field.
+        private final int tileCols;
+        // The tiles, as in TileSnapshots.
+        private final Object[][] tiles;
+
+        /**
+         * Capture the given tiles.
+         */
+        private Snapshot(int step, int depth, int width, int tileCols, Object[][] tiles)
+        {
+            this.step = step;
+            this.depth = depth;
+            this.width = width;
+            this.tileCols = tileCols;
+            this.tiles = tiles;
+        }
+
+        /**
+         * Return the object in a cell at the snapshot's step.
+         * @param row The row of the cell.
+         * @param col The column of the cell.
+         * @return The object, or null if the cell was empty.
+         */
+        public Object getObjectAt(int row, int col)
+        {
+            Object[] tile = tiles[(row >> SHIFT) * tileCols + (col >> SHIFT)];
+            return tile == null ? null : tile[(row & MASK) << SHIFT | (col & MASK)];
+        }
+
+        /**
+         * Visit every occupied cell, tile by tile, skipping tiles never written.
+         * @param visitor What to do with each object.
+         */
+        public void forEachObject(Field.ObjectVisitor visitor)
+        {
+            for(int t = 0; t < tiles.length; t++) {
+                Object[] tile = tiles[t];
+                if(tile == null) {
+                    continue;
+                }
+                int top = t / tileCols << SHIFT;
+                int left = t % tileCols << SHIFT;
+                for(int i = 0; i < tile.length; i++) {
+                    if(tile[i] != null) {
+                        visitor.visit(top + (i >> SHIFT), left + (i & MASK), tile[i]);
+                    }
+                }
+            }
+        }
+
+        // Following methods describe the snapshot.
+        public int getStep() { return step; }
+        public int getDepth() { return depth; }
+        public int getWidth() { return width; }
+    }
+}
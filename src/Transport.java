@@ -0,0 +1,41 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A way for the processes of a distributed simulation to send each
+ * other messages. The processes are numbered from 0, their ranks.
+ * Messages between any two ranks arrive whole and in the order they
+ * were sent. Sending does not wait for the receiver, so two ranks can
+ * send to each other and then receive without deadlock.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public interface Transport extends Closeable
+{
+    /**
+     * @return The rank of this end.
+     */
+    int getRank();
+
+    /**
+     * @return The number of ranks.
+     */
+    int getSize();
+
+    /**
+     * Send a message.
+     * @param to The rank to send to.
+     * @param message The message. Must not be changed afterwards.
+     * @throws IOException If the message cannot be sent.
+     */
+    void send(int to, byte[] message) throws IOException;
+
+    /**
+     * Wait for the next message from a rank.
+     * @param from The rank to receive from.
+     * @return The message.
+     * @throws IOException If the link fails or the wait is interrupted.
+     */
+    byte[] receive(int from) throws IOException;
+}
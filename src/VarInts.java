@@ -0,0 +1,95 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers for writing and reading variable length integers.
+ * Small values take a single byte, which keeps the recorded
+ * streams of the simulation compact. Signed values are zigzag
+ * encoded so that small negative deltas stay small too.
+ *
+ * @author Daniel Lowry
+ * @version 1.0
+ */
+public class VarInts
+{
+    /**
+     * No instances, only static helpers.
+     */
+    private VarInts()
+    {
+    }
+
+    /**
+     * Write a non-negative value, seven bits per byte.
+     * @param out The buffer to write to.
+     * @param value The value to write.
+     */
+    public static void writeUnsigned(ByteArrayOutputStream out, long value)
+    {
+        while((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Write a signed value using zigzag encoding.
+     * @param out The buffer to write to.
+     * @param value The value to write.
+     */
+    public static void writeSigned(ByteArrayOutputStream out, long value)
+    {
+        writeUnsigned(out, zigzag(value));
+    }
+
+    /**
+     * Read a value written by writeUnsigned.
+     * @param in The buffer to read from.
+     * @return The value read.
+     */
+    public static long readUnsigned(ByteBuffer in)
+    {
+        long value = 0;
+        int shift = 0;
+        while(true) {
+            int b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    /**
+     * Read a value written by writeSigned.
+     * @param in The buffer to read from.
+     * @return The value read.
+     */
+    public static long readSigned(ByteBuffer in)
+    {
+        return unzigzag(readUnsigned(in));
+    }
+
+    /**
+     * Map a signed value to an unsigned one: 0, -1, 1, -2 ... become
+     * 0, 1, 2, 3 ...
+     * @param value The signed value.
+     * @return The zigzag encoded value.
+     */
+    public static long zigzag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Undo zigzag.
+     * @param raw The zigzag encoded value.
+     * @return The signed value.
+     */
+    public static long unzigzag(long raw)
+    {
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+}